@@ -6,6 +6,17 @@ if [ -z "${JAVA_HOME+xxx}" ]; then
   export JAVA_HOME=/usr/lib/nagios/plugins/paplugins/jdk
 fi
 
+# Probe daemon (see pa_probe_daemon, check_pa_resident and check_pa_client).
+if [ -z "${PA_DAEMON_PORT+xxx}" ]; then 
+  export PA_DAEMON_PORT=18765
+fi
+if [ -z "${PA_DAEMON_FALLBACK+xxx}" ]; then 
+  export PA_DAEMON_FALLBACK=true
+fi
+if [ -z "${PA_DAEMON_SECRET_FILE+xxx}" ]; then 
+  export PA_DAEMON_SECRET_FILE=$HOME/.pa_probe_daemon.secret
+fi
+
 # DO NOT MODIFY FROM HERE.
 
 # Preparing classpath. 
@@ -0,0 +1,337 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.batch;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.common.Arguments;
+import org.ow2.proactive.nagios.common.ElementalNagiosPlugin;
+import org.ow2.proactive.nagios.daemon.DaemonClient;
+import org.ow2.proactive.nagios.daemon.DaemonProtocol;
+import org.ow2.proactive.nagios.daemon.ResidentProbeRunner;
+import org.ow2.proactive.nagios.misc.Misc;
+
+/**
+ * Runs the probes of many targets (Schedulers, RMs, REST APIs) in a single JVM, concurrently, 
+ * and writes their results as Nagios passive check results (external command file format) in a 
+ * spool file or in the Nagios command file (named pipe). 
+ * Each target is executed by its own instance of the probe, so it has its own arguments, its own
+ * tracer and its own timeout (RemainingTime built from its --critical argument). A probe that does not end 
+ * soon after its critical timeout is not waited for anymore, so a hung target does not stall the batch. 
+ * The ProActive configuration is global to the JVM: the targets that need another configuration than the 
+ * first ProActive target are not probed (one PAMR router/paconf per batch run). The pamr probe cannot be 
+ * resident, so its targets are probed each one in a new JVM. */
+public class BatchProber {
+	
+	private static Logger logger = Logger.getLogger(BatchProber.class.getName()); // Logger.
+	public static final long TIMEOUT_GRACE_MS = 10 * 1000;	// Time given to a probe after its critical timeout.
+	private static final long POLL_MS = 1000;				// Period to check whether a probe waited for already started.
+	
+	private List<BatchTarget> targets;					// Targets to probe.
+	private int threads;								// Max amount of probes running at the same time.
+	private OutputStream output;						// Where to write the passive check results.
+	private ResidentProbeRunner runner;					// Runner of the probes.
+	
+	/**
+	 * Constructor.
+	 * @param targets targets to probe.
+	 * @param threads max amount of probes running at the same time.
+	 * @param output where to write the passive check results. 
+	 * @param dataDir directory where the probes can write their files (null if they cannot write any). */
+	public BatchProber(List<BatchTarget> targets, int threads, OutputStream output, File dataDir){
+		this.targets = targets;
+		this.threads = threads;
+		this.output = output;
+		this.runner = new ResidentProbeRunner(dataDir);
+	}
+	
+	/**
+	 * Probe all the targets, writing their results as soon as they are available.
+	 * @return the report of the batch (one result per target, in the order of the targets). */
+	public List<BatchResult> probeAll() throws Exception{
+		ThreadPoolExecutor executor = (ThreadPoolExecutor)Executors.newFixedThreadPool(threads);
+		List<Future<BatchResult>> futures = new ArrayList<Future<BatchResult>>();
+		final long[] starts = new long[targets.size()];		// Start of each probe (System.nanoTime), 0 if not started.
+		final AtomicIntegerArray reported = 				// Whether the result of each target was already written.
+				new AtomicIntegerArray(targets.size());
+		String paconf = null;								// ProActive configuration of the batch.
+		try{
+			for (int i = 0; i < targets.size(); i++){
+				final BatchTarget target = targets.get(i);
+				final int index = i;
+				String conf = target.getPAConfiguration();
+				if (conf != null && paconf == null){
+					paconf = conf;
+				}
+				if (conf != null && conf.equals(paconf) == false){
+					futures.add(null);
+					continue;
+				}
+				futures.add(executor.submit(new Callable<BatchResult>(){
+					public BatchResult call() throws Exception{
+						synchronized(starts){
+							starts[index] = System.nanoTime();
+						}
+						BatchResult result = probe(target);
+						writeResultOnce(result, reported, index);	// Unless the batch did not wait for it.
+						return result;
+					}
+				}));
+			}
+			List<BatchResult> results = new ArrayList<BatchResult>();
+			for (int i = 0; i < targets.size(); i++){
+				BatchTarget target = targets.get(i);
+				BatchResult result;
+				if (futures.get(i) == null){
+					result = new BatchResult(target, ElementalNagiosPlugin.RESULT_3_UNKNOWN, "BATCH ERROR: the target needs another " +
+							"ProActive configuration (" + target.getPAConfiguration() + ") than the rest of the batch (" + paconf + 
+							"), it must be probed by another batch.", 0);
+					writeResultOnce(result, reported, i);
+				}else{
+					result = await(futures.get(i), target, starts, reported, i, executor);
+				}
+				results.add(result);
+			}
+			return results;
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Wait for the result of a probe, but not longer than its critical timeout (plus TIMEOUT_GRACE_MS) since it started. 
+	 * The thread of a probe not waited for anymore is replaced by a new one, so the probes not started yet do not 
+	 * wait for it.
+	 * @return the result of the probe, or a critical result if it did not end on time. */
+	private BatchResult await(Future<BatchResult> future, BatchTarget target, long[] starts, AtomicIntegerArray reported, int index, ThreadPoolExecutor executor) throws Exception{
+		long timeoutns = TimeUnit.MILLISECONDS.toNanos(Math.max(target.getCriticalTimeoutMs(), 0) + TIMEOUT_GRACE_MS);
+		while (true){
+			long start;
+			synchronized(starts){
+				start = starts[index];
+			}
+			long waitns = (start == 0?TimeUnit.MILLISECONDS.toNanos(POLL_MS):start + timeoutns - System.nanoTime());
+			try{
+				return future.get(Math.max(waitns, 0), TimeUnit.NANOSECONDS);
+			}catch(TimeoutException e){
+				if (start != 0 && System.nanoTime() - start >= timeoutns){
+					future.cancel(true);
+					executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+					executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+					logger.warn("Probe of " + target + " did not end on time, not waiting for it anymore.");
+					BatchResult result = new BatchResult(target, ElementalNagiosPlugin.RESULT_2_CRITICAL, "BATCH TIMEOUT: the probe " + 
+							"did not end " + TimeUnit.MILLISECONDS.toSeconds(TIMEOUT_GRACE_MS) + " s after its critical timeout.", System.nanoTime() - start);
+					writeResultOnce(result, reported, index);
+					return result;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Probe one target.
+	 * @param target target to probe.
+	 * @return result of the probe. */
+	private BatchResult probe(BatchTarget target){
+		logger.info("Probing " + target + "...");
+		long start = System.nanoTime();
+		DaemonProtocol.Response response;
+		if (DaemonProtocol.getProbeClassName(target.getProbe()) != null && DaemonProtocol.isResidentProbe(target.getProbe()) == false){
+			response = probeInNewJvm(target);
+		}else{
+			response = runner.run(target.getProbe(), target.getArgs());
+		}
+		long durationns = System.nanoTime() - start;
+		BatchResult result = new BatchResult(target, response.getExitCode(), response.getOutput(), durationns);
+		logger.info("Probed " + target + ": " + result.getExitCode() + " in " + result.getDurationSec() + " s.");
+		return result;
+	}
+	
+	/**
+	 * Probe one target in a new JVM (for the probes that cannot be resident, like pamr), with the 
+	 * classpath of the batch JVM.
+	 * @param target target to probe.
+	 * @return exit code and output of the probe. */
+	private DaemonProtocol.Response probeInNewJvm(BatchTarget target){
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		int code;
+		try{
+			code = DaemonClient.execInNewJvm(target.getProbe(), target.getArgs(), System.getProperty("java.class.path"), 
+					DaemonClient.DEFAULT_HEAP, buffer);
+		}catch(Exception e){
+			logger.warn("Problem running probe of " + target + " in a new JVM: " + Misc.getStackTrace(e));
+			return new DaemonProtocol.Response(ElementalNagiosPlugin.RESULT_3_UNKNOWN, 
+					"PROBE ERROR: cannot run probe in a new JVM: " + e + "\n");
+		}
+		try{
+			return new DaemonProtocol.Response(code, buffer.toString(DaemonProtocol.ENCODING));
+		}catch(UnsupportedEncodingException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Write the result of the given target (see writePassiveResult) if it was not written yet, just warning 
+	 * if it cannot be written. */
+	private void writeResultOnce(BatchResult result, AtomicIntegerArray reported, int index){
+		if (reported.compareAndSet(index, 0, 1) == false){
+			return;
+		}
+		try{
+			writePassiveResult(result);
+		}catch(IOException e){
+			logger.warn("Problem writing result of " + result.getTarget() + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Write the result in the Nagios external command format:
+	 *   [TIMESTAMP] PROCESS_SERVICE_CHECK_RESULT;HOST;SERVICE;CODE;OUTPUT
+	 * Line breaks of the output are escaped (\n), as expected by Nagios for multi-line outputs.
+	 * @param result result to write. */
+	private void writePassiveResult(BatchResult result) throws IOException{
+		String out = result.getOutput().trim().replace("\\", "\\\\").replace("\n", "\\n");
+		String line = "[" + (System.currentTimeMillis() / 1000) + "] PROCESS_SERVICE_CHECK_RESULT;" + 
+				result.getTarget().getHost() + ";" + result.getTarget().getService() + ";" + 
+				result.getExitCode() + ";" + out + "\n";
+		byte[] bytes = line.getBytes(DaemonProtocol.ENCODING);
+		synchronized(output){							// One write per command, so commands are not interleaved.
+			output.write(bytes);
+			output.flush();
+		}
+	}
+	
+	/**
+	 * Read the targets file. 
+	 * @param file path of the file.
+	 * @return the targets.
+	 * @throws IOException if the file cannot be read.
+	 * @throws IllegalArgumentException if any line is not valid. */
+	public static List<BatchTarget> readTargets(String file) throws IOException, IllegalArgumentException{
+		List<BatchTarget> targets = new ArrayList<BatchTarget>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), DaemonProtocol.ENCODING));
+		try{
+			String line;
+			int number = 0;
+			while ((line = br.readLine()) != null){
+				number++;
+				try{
+					BatchTarget target = BatchTarget.parse(line);
+					if (target != null){
+						targets.add(target);
+					}
+				}catch(IllegalArgumentException e){
+					throw new IllegalArgumentException("Line " + number + " of '" + file + "': " + e.getMessage());
+				}
+			}
+		}finally{
+			br.close();
+		}
+		return targets;
+	}
+	
+	/**
+	 * Starting point.
+	 * @param args arguments for the batch prober. */
+	public static void main(String[] args) throws Exception{
+		Arguments options = new Arguments(args);
+		options.addNewOption("h", "help", false);											// Help message.
+		options.addNewOption("v", "debug", true, new Integer(ElementalNagiosPlugin.DEBUG_LEVEL_1_EXTENDED)); // Level of verbosity.
+		options.addNewOption("O", "logconf", true);											// Configuration file for log4j.
+		options.addNewOption("f", "targets", true);											// File with the targets to probe.
+		options.addNewOption("o", "output", true);											// Spool file or Nagios command file (named pipe).
+		options.addNewOption("t", "threads", true, new Integer(8));						// Max amount of probes running concurrently.
+		options.addNewOption("D", "data-dir", true);										// Directory where the probes can write their files.
+		options.parseAll();
+		
+		if (options.getBoo("help") == true){
+			System.out.println(Misc.readAllTextResource(ElementalNagiosPlugin.RESOURCES_PATH + "usage-BATCH.txt"));
+			System.exit(ElementalNagiosPlugin.RESULT_0_OK);
+		}
+		
+		try{
+			options.checkIsGiven("targets");
+			options.checkIsGiven("output");
+			options.checkIsValidInt("threads", 1, 1024);
+		}catch(IllegalArgumentException e){
+			System.out.println(e.getMessage());
+			System.exit(ElementalNagiosPlugin.RESULT_3_UNKNOWN);
+		}
+		
+		Misc.log4jConfiguration(options.getInt("debug"), options.getStr("logconf"));
+		
+		List<BatchTarget> targets = readTargets(options.getStr("targets"));
+		OutputStream output = new FileOutputStream(options.getStr("output"), true);	// Append (also valid for a named pipe).
+		File datadir = (options.getStr("data-dir") == null ? null : new File(options.getStr("data-dir")));
+		List<BatchResult> results;
+		long start = System.nanoTime();
+		try{
+			results = new BatchProber(targets, options.getInt("threads"), output, datadir).probeAll();
+		}finally{
+			output.close();
+		}
+		long totalns = System.nanoTime() - start;
+		
+		int[] counters = new int[4];
+		for (BatchResult result: results){
+			System.out.println(result);
+			counters[Math.min(Math.max(result.getExitCode(), 0), 3)]++;
+		}
+		System.out.println("BATCH: " + results.size() + " targets (ok=" + counters[0] + " warning=" + counters[1] + 
+				" critical=" + counters[2] + " unknown=" + counters[3] + ") in " + BatchResult.toSec(totalns) + " s " +
+				"| time_all=" + BatchResult.toSec(totalns) + "s");
+		System.exit(ElementalNagiosPlugin.RESULT_0_OK);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.batch;
+
+import java.util.Locale;
+
+/**
+ * Result of the probe of one target of the batch prober. */
+public class BatchResult {
+	
+	private BatchTarget target;			// Target probed.
+	private int exitCode;				// Nagios exit code of the probe.
+	private String output;				// Nagios output of the probe.
+	private long durationns;			// Wall time of the probe (ns).
+	
+	public BatchResult(BatchTarget target, int exitCode, String output, long durationns){
+		this.target = target;
+		this.exitCode = exitCode;
+		this.output = output;
+		this.durationns = durationns;
+	}
+	
+	public BatchTarget getTarget(){
+		return target;
+	}
+	
+	public int getExitCode(){
+		return exitCode;
+	}
+	
+	public String getOutput(){
+		return output;
+	}
+	
+	public String getDurationSec(){
+		return toSec(durationns);
+	}
+	
+	/**
+	 * Format the given amount of nanoseconds as seconds (ms precision). 
+	 * @param ns nanoseconds.
+	 * @return seconds. */
+	public static String toSec(long ns){
+		return String.format(Locale.ENGLISH, "%1.03f", ns / 1000000000.0);
+	}
+	
+	public String toString(){
+		return target.getHost() + ";" + target.getService() + ";" + exitCode + ";" + getDurationSec() + "s";
+	}
+}
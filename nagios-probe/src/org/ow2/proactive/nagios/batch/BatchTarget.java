@@ -0,0 +1,187 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ow2.proactive.nagios.common.PAEnvironmentInitializer;
+
+/**
+ * One target of the batch prober: the Nagios host/service the result belongs to, and the 
+ * probe (with its own arguments: url, thresholds, etc.) to execute. 
+ * In the targets file each target is a line like:
+ *   HOST SERVICE PROBE [PROBE ARGUMENTS]
+ * for instance:
+ *   sched1 PA-RM rm --url pamr://0 --critical 60 --warning 30 --nodesrequired 1 */
+public class BatchTarget {
+	
+	private static final List<String> PA_PROBES = 			// Probes that use ProActive (and its configuration) in the batch JVM.
+			Arrays.asList("rm", "scheduler", "debugger");
+	
+	private String host;				// Nagios host name.
+	private String service;				// Nagios service description.
+	private String probe;				// Name of the probe (rm, scheduler, rest, debugger).
+	private String[] args;				// Arguments of the probe.
+	
+	/**
+	 * Constructor.
+	 * @param host Nagios host name.
+	 * @param service Nagios service description.
+	 * @param probe name of the probe.
+	 * @param args arguments of the probe. */
+	public BatchTarget(String host, String service, String probe, String[] args){
+		this.host = host;
+		this.service = service;
+		this.probe = probe;
+		this.args = args;
+	}
+	
+	/**
+	 * Parse a line of the targets file. 
+	 * Arguments are separated by blanks, and can be surrounded by double quotes if they contain blanks.
+	 * @param line line to parse.
+	 * @return the target, or null if the line is empty or a comment (starts with #).
+	 * @throws IllegalArgumentException if the line is not valid. */
+	public static BatchTarget parse(String line) throws IllegalArgumentException{
+		String trimmed = line.trim();
+		if (trimmed.length() == 0 || trimmed.startsWith("#")){
+			return null;
+		}
+		ArrayList<String> tokens = tokenize(trimmed);
+		if (tokens.size() < 3){
+			throw new IllegalArgumentException("Expected 'HOST SERVICE PROBE [PROBE ARGUMENTS]' but found '" + trimmed + "'.");
+		}
+		String[] args = tokens.subList(3, tokens.size()).toArray(new String[tokens.size() - 3]);
+		return new BatchTarget(tokens.get(0), tokens.get(1), tokens.get(2), args);
+	}
+	
+	/**
+	 * Split the line in blank separated tokens (double quotes group tokens). */
+	private static ArrayList<String> tokenize(String line){
+		ArrayList<String> tokens = new ArrayList<String>();
+		StringBuilder current = null;
+		boolean quoted = false;
+		for (char c: line.toCharArray()){
+			if (c == '"'){
+				quoted = !quoted;
+				if (current == null){
+					current = new StringBuilder();
+				}
+			}else if (Character.isWhitespace(c) && quoted == false){
+				if (current != null){
+					tokens.add(current.toString());
+					current = null;
+				}
+			}else{
+				if (current == null){
+					current = new StringBuilder();
+				}
+				current.append(c);
+			}
+		}
+		if (quoted == true){
+			throw new IllegalArgumentException("Unbalanced double quotes in '" + line + "'.");
+		}
+		if (current != null){
+			tokens.add(current.toString());
+		}
+		return tokens;
+	}
+	
+	/**
+	 * Get the value of an option of the probe, as given in its arguments ('-s VALUE', '--long VALUE' or '--long=VALUE').
+	 * @param shortname short name of the option.
+	 * @param longname long name of the option.
+	 * @return the value, or null if the option is not given. */
+	public String getOption(String shortname, String longname){
+		for (int i = 0; i < args.length; i++){
+			if ((args[i].equals("-" + shortname) || args[i].equals("--" + longname)) && i + 1 < args.length){
+				return args[i + 1];
+			}
+			if (args[i].startsWith("--" + longname + "=")){
+				return args[i].substring(longname.length() + 3);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the ProActive configuration the probe needs in the batch JVM (see PAEnvironmentInitializer). 
+	 * The pamr probe runs in its own JVM (see BatchProber), so it needs none.
+	 * @return the description of the configuration, or null if the probe does not use ProActive in the batch JVM. */
+	public String getPAConfiguration(){
+		if (PA_PROBES.contains(probe) == false){
+			return null;
+		}
+		return PAEnvironmentInitializer.describeConfiguration(
+				getOption("f", "paconf"), getOption("H", "hostname"), getOption("x", "port"));
+	}
+	
+	/**
+	 * Get the critical timeout of the probe (its --critical argument).
+	 * @return the timeout (ms), or -1 if not given or not valid. */
+	public long getCriticalTimeoutMs(){
+		try{
+			return Integer.parseInt(getOption("c", "critical")) * 1000L;
+		}catch(NumberFormatException e){
+			return -1;
+		}
+	}
+	
+	public String getHost(){
+		return host;
+	}
+	
+	public String getService(){
+		return service;
+	}
+	
+	public String getProbe(){
+		return probe;
+	}
+	
+	public String[] getArgs(){
+		return args;
+	}
+	
+	public String toString(){
+		return host + "/" + service + " (" + probe + " " + Arrays.toString(args) + ")";
+	}
+}
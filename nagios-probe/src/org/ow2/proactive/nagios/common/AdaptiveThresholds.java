@@ -0,0 +1,101 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.ow2.proactive.nagios.history.PhaseBaselines;
+
+/**
+ * Adaptive time thresholds: instead of comparing the duration of the probe with a fixed --warning value, 
+ * the duration of each phase is compared with its usual duration (EWMA of the previous executions kept 
+ * in the history). A phase that took more than SIGMAS standard deviations above its usual duration raises 
+ * a warning. The threshold of each phase is added to the perfdata (for instance time_all_adaptive_threshold=...). */
+public class AdaptiveThresholds implements NagiosMiniStatusSource {
+	
+	public static final int MIN_SAMPLES = 10;				// Executions needed before a phase is checked.
+	public static final double MIN_MARGIN = 0.2;			// Minimum tolerated margin above the usual duration (relative to it).
+	
+	private PhaseBaselines baselines;						// Usual duration of each phase.
+	private TimedStatusTracer tracer;						// Tracer of the current execution.
+	private double sigmas;									// Standard deviations tolerated above the usual duration.
+	
+	/**
+	 * Constructor.
+	 * @param baselines usual duration of each phase, computed from the history.
+	 * @param tracer tracer of the current execution.
+	 * @param sigmas amount of standard deviations tolerated above the usual duration. */
+	public AdaptiveThresholds(PhaseBaselines baselines, TimedStatusTracer tracer, double sigmas){
+		this.baselines = baselines;
+		this.tracer = tracer;
+		this.sigmas = sigmas;
+	}
+	
+	/**
+	 * Compare the duration of the whole probe (time_all) and of each one of its phases with their thresholds.
+	 * @return a warning per phase above its threshold. */
+	public List<NagiosMiniStatus> getMiniStatuses(){
+		List<NagiosMiniStatus> ret = new ArrayList<NagiosMiniStatus>();
+		check("time_all", tracer.getTotal(), ret);
+		for (Map.Entry<String, Double> entry: tracer.getMeasurements().entrySet()){
+			check(entry.getKey(), entry.getValue(), ret);
+		}
+		return ret;
+	}
+	
+	private void check(String phase, double duration, List<NagiosMiniStatus> statuses){
+		PhaseBaselines.Baseline baseline = baselines.get(phase);
+		if (baseline == null || baseline.getSamples() < MIN_SAMPLES){
+			return;
+		}
+		double threshold = baseline.getThreshold(sigmas, MIN_MARGIN);
+		tracer.addNewReference(phase + "_adaptive_threshold", threshold);
+		if (duration > threshold){
+			statuses.add(new NagiosMiniStatus(ElementalNagiosPlugin.RESULT_1_WARNING, 
+					phase + " slower than usual (" + format(duration) + " s, usual " + format(baseline.getMean()) + 
+					" s, threshold " + format(threshold) + " s)"));
+		}
+	}
+	
+	private static String format(double value){
+		return String.format(Locale.ENGLISH, "%1.03f", value);
+	}
+}
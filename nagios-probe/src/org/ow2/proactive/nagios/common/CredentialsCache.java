@@ -0,0 +1,295 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.security.KeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.HashMap;
+
+import javax.security.auth.login.LoginException;
+
+import org.apache.log4j.Logger;
+import org.ow2.proactive.authentication.Authentication;
+import org.ow2.proactive.authentication.crypto.CredData;
+import org.ow2.proactive.authentication.crypto.Credentials;
+
+/**
+ * Cache of the encrypted credentials used to login to the RM and the Scheduler, per url and user. 
+ * Logging in normally needs to get the public key of the server (remote call) and to encrypt the 
+ * credentials with it (RSA); with the cache, the credentials encrypted last time are given directly to the login. 
+ * If the server rejects them (its key changed), the key is got again and the credentials are encrypted again. 
+ * Each entry keeps the fingerprint of the key used, and a salted hash of the password (an entry is only 
+ * used with the same password). 
+ * The entries can be persisted in a directory (one file per url and user, readable only by its owner), 
+ * otherwise they are kept while the JVM lives. Caches are shared by all the probes of the same JVM. */
+public class CredentialsCache {
+	private static Logger logger = Logger.getLogger(CredentialsCache.class.getName());	// Logger.
+	private static final String FILE_PREFIX = "credentials-";				// Prefix of the files of the entries.
+	private static final HashMap<String, CredentialsCache> caches = 		// Caches of this JVM, by directory.
+			new HashMap<String, CredentialsCache>();
+	private static final Charset UTF8 = Charset.forName("UTF-8");			// Encoding of the data hashed.
+	private static final SecureRandom random = new SecureRandom();			// Generator of the salts.
+	
+	private final File directory;											// Directory where the entries are persisted (null if not persisted).
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();	// Entries, by url and user.
+	private final HashMap<String, Long> saved = new HashMap<String, Long>();	// Time saved by the last login (ns), by url and user.
+	
+	/**
+	 * Login to a server with the given credentials. */
+	public interface Login<T, E extends Exception> {
+		/**
+		 * Login with the given credentials.
+		 * @param cred the encrypted credentials.
+		 * @return the stub of the server.
+		 * @throws LoginException if the server rejects the credentials. */
+		T login(Credentials cred) throws E, LoginException;
+	}
+	
+	/**
+	 * Entry of the cache. */
+	private static class Entry {
+		String fingerprint;			// Fingerprint of the public key used to encrypt the credentials.
+		String salt;				// Salt of the hash of the password.
+		String passHash;			// Salted hash of the password.
+		long costNanos;				// Time it took to get the key and encrypt the credentials (ns).
+		String credentials;			// Encrypted credentials (base64).
+	}
+	
+	/**
+	 * Get the cache that persists its entries in the given directory.
+	 * @param directory directory where to persist the entries (null not to persist them).
+	 * @return the cache. */
+	public static CredentialsCache get(String directory){
+		synchronized(caches){
+			CredentialsCache cache = caches.get(directory);
+			if (cache == null){
+				cache = new CredentialsCache(directory == null?null:new File(directory));
+				caches.put(directory, cache);
+			}
+			return cache;
+		}
+	}
+	
+	private CredentialsCache(File directory){
+		this.directory = directory;
+	}
+	
+	/**
+	 * Login using the cached credentials of the given url and user if possible, otherwise (or if they 
+	 * are rejected) getting the public key of the server and encrypting the credentials again.
+	 * @param url url of the server.
+	 * @param user user.
+	 * @param pass password.
+	 * @param auth authentication object of the server (already joined).
+	 * @param login login to perform with the credentials.
+	 * @return the stub given by the login. */
+	public <T, E extends Exception> T login(String url, String user, String pass, Authentication auth, Login<T, E> login) throws E, LoginException, KeyException{
+		String key = url + "\t" + user;
+		Entry entry = lookup(key, pass);
+		if (entry != null){
+			try{
+				logger.info("Logging in with cached credentials...");
+				T ret = login.login(Credentials.getCredentialsBase64(entry.credentials.getBytes("UTF-8")));
+				setSaved(key, entry.costNanos);
+				return ret;
+			}catch(LoginException e){
+				logger.info("Cached credentials rejected (" + e.getMessage() + "), encrypting them again...");
+			}catch(KeyException e){
+				logger.info("Cached credentials not valid (" + e.getMessage() + "), encrypting them again...");
+			}catch(IOException e){
+				logger.info("Cached credentials not valid (" + e.getMessage() + "), encrypting them again...");
+			}
+		}
+		
+		logger.info("Creating credentials...");
+		long start = System.nanoTime();
+		PublicKey publicKey = auth.getPublicKey();
+		Credentials cred = Credentials.createCredentials(new CredData(user, pass), publicKey);
+		long cost = System.nanoTime() - start;
+		logger.info("Done.");
+		
+		T ret = login.login(cred);										// Only credentials accepted by the server are cached.
+		
+		Entry fresh = new Entry();
+		fresh.fingerprint = fingerprint(publicKey.getEncoded());
+		fresh.salt = hex(newSalt());
+		fresh.passHash = hashOf(fresh.salt, pass);
+		fresh.costNanos = cost;
+		try{
+			fresh.credentials = new String(cred.getBase64(), "UTF-8");
+			if (entry != null && entry.fingerprint.equals(fresh.fingerprint) == false){
+				logger.info("The public key of '" + url + "' changed, cached credentials replaced.");
+			}
+			store(key, fresh);
+		}catch(IOException e){
+			logger.warn("Issue caching credentials: " + e.getMessage());
+		}
+		setSaved(key, 0);
+		return ret;
+	}
+	
+	/**
+	 * Get the time saved by the last login to the given url with the given user (time that would have 
+	 * been needed to get the key of the server and encrypt the credentials).
+	 * @param url url of the server.
+	 * @param user user.
+	 * @return the time saved (s, 0 if the credentials had to be encrypted), or null if no login was done. */
+	public synchronized Double getTimeSaved(String url, String user){
+		Long ns = saved.get(url + "\t" + user);
+		return (ns == null?null:ns / 1000000000.0);
+	}
+	
+	private synchronized void setSaved(String key, long ns){
+		saved.put(key, ns);
+	}
+	
+	/**
+	 * Get the entry of the given url and user if it was created with the given password. */
+	private synchronized Entry lookup(String key, String pass){
+		Entry entry = entries.get(key);
+		if (entry == null && directory != null){
+			File file = fileOf(key);
+			if (file.exists()){
+				try{
+					entry = load(file);
+					entries.put(key, entry);
+				}catch(Exception e){
+					logger.warn("Ignoring cached credentials '" + file + "': " + e.getMessage());
+				}
+			}
+		}
+		if (entry == null || entry.passHash.equals(hashOf(entry.salt, pass)) == false){
+			return null;
+		}
+		return entry;
+	}
+	
+	private synchronized void store(String key, Entry entry) throws IOException{
+		entries.put(key, entry);
+		if (directory == null){
+			return;
+		}
+		if (directory.exists() == false && directory.mkdirs() == false){
+			throw new IOException("cannot create directory " + directory);
+		}
+		File file = fileOf(key);
+		File temp = new File(file.getPath() + ".tmp");
+		temp.delete();
+		temp.createNewFile();
+		temp.setReadable(false, false);											// Only readable by its owner.
+		temp.setReadable(true, true);
+		temp.setWritable(false, false);
+		temp.setWritable(true, true);
+		BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+		try{
+			w.write(entry.fingerprint + "\n");
+			w.write(entry.salt + "\n");
+			w.write(entry.passHash + "\n");
+			w.write(entry.costNanos + "\n");
+			w.write(entry.credentials + "\n");
+		}finally{
+			w.close();
+		}
+		if (file.exists() && file.delete() == false || temp.renameTo(file) == false){
+			throw new IOException("cannot replace the file " + file);
+		}
+	}
+	
+	private static Entry load(File file) throws IOException{
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try{
+			Entry entry = new Entry();
+			entry.fingerprint = r.readLine();
+			entry.salt = r.readLine();
+			entry.passHash = r.readLine();
+			String cost = r.readLine();
+			entry.credentials = r.readLine();
+			if (entry.credentials == null){
+				throw new IOException("truncated file");
+			}
+			entry.costNanos = Long.parseLong(cost.trim());
+			return entry;
+		}catch(NumberFormatException e){
+			throw new IOException("invalid cost");
+		}finally{
+			r.close();
+		}
+	}
+	
+	private File fileOf(String key){
+		return new File(directory, FILE_PREFIX + fingerprint(key.getBytes(UTF8)).substring(0, 32));
+	}
+	
+	private static byte[] newSalt(){
+		byte[] salt = new byte[16];
+		random.nextBytes(salt);
+		return salt;
+	}
+	
+	private static String hashOf(String salt, String pass){
+		return fingerprint((salt + "\t" + pass).getBytes(UTF8));
+	}
+	
+	private static String fingerprint(byte[] data){
+		try{
+			return hex(MessageDigest.getInstance("SHA-256").digest(data));
+		}catch(NoSuchAlgorithmException e){
+			throw new RuntimeException("SHA-256 not available", e);
+		}
+	}
+	
+	private static String hex(byte[] data){
+		StringBuilder s = new StringBuilder(data.length * 2);
+		for (byte b: data){
+			s.append(String.format("%02x", b & 0xff));
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+package org.ow2.proactive.nagios.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Dispatcher of calls to a stub (Scheduler, RM, etc.) with a deadline for each call. 
+ * Once a session is started with the Scheduler or the RM, only the Thread that started the connection can make 
+ * calls with it, so all the calls (the disconnection included) are made on the same thread, the lane. 
+ * A call that reaches its deadline is cancelled (its thread is interrupted); if the thread does not come back 
+ * soon (blocked in a remote call that ignores interruptions), the call is abandoned together with the session 
+ * kept by its thread: the next calls go to a new lane, that first logs in again with the session opener 
+ * (see setSessionOpener). If there is no session opener, or if it fails, the calls of the new lane fail right 
+ * away instead of being made outside of any session. Whatever was held by the abandoned session (nodes of the RM 
+ * for instance) is left to the server, that releases it once that session expires. 
+ * The disconnection is put at the head of the lane (see submitFirst), so it does not wait behind the calls queued. 
+ * No login is made again once the abandoned call is the disconnection, or once the dispatcher is shut down. 
+ * Calls can also be submitted without waiting (submit) and awaited later (await), so independent calls to 
+ * different stubs can run at the same time. 
+ * The depth of the queue of calls and the amount of abandoned calls are kept. */
+public class DeadlineDispatcher {
+	private static Logger logger = Logger.getLogger(DeadlineDispatcher.class.getName()); // Logger.
+	public static final long ABANDON_GRACE_MS = 200;				// Time given to a cancelled call to come back before abandoning its thread.
+	
+	private final String name;										// Name of the dispatcher (for the threads and the spans).
+	private final TimedStatusTracer tracer;							// Tracer where each call is traced as a span (null if none).
+	private volatile ThreadPoolExecutor lane;						// Lane of the calls (the thread that keeps the session).
+	private volatile Callable<?> sessionOpener;						// Call that logs in again on a new lane (null if none).
+	private volatile Exception sessionLost;							// Why the calls of the current lane cannot be made (null if they can).
+	private volatile boolean shutdown = false;						// The dispatcher was shut down (no login again).
+	private final AtomicInteger queued = new AtomicInteger();		// Calls submitted but not finished yet.
+	private final AtomicInteger maxQueued = new AtomicInteger();	// Max amount of calls submitted but not finished at the same time.
+	private final AtomicInteger abandoned = new AtomicInteger();	// Calls abandoned (their threads could not be recovered).
+	private final AtomicInteger cancelled = new AtomicInteger();	// Calls that reached their deadline.
+	
+	/**
+	 * Constructor.
+	 * @param name name of the dispatcher (used to name its thread). */
+	public DeadlineDispatcher(String name){
+		this(name, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param name name of the dispatcher (used to name its thread and the spans of the calls). 
+	 * @param tracer tracer where each call is traced as a span (null if none). */
+	public DeadlineDispatcher(String name, TimedStatusTracer tracer){
+		this.name = name;
+		this.tracer = tracer;
+		this.lane = newLane();
+	}
+	
+	/**
+	 * Set the call that logs in again once the lane (and its session) is abandoned. It is usually set by 
+	 * the login call itself once it went okay. 
+	 * @param opener the call, made on the new lane before the calls waiting for it. */
+	public void setSessionOpener(Callable<?> opener){
+		this.sessionOpener = opener;
+	}
+	
+	/**
+	 * Make the given call on the lane, and wait for its result until the deadline. 
+	 * @param timeoutms max time to wait for the result (ms).
+	 * @param method name of the call (used for the span and the logs).
+	 * @param task the call itself.
+	 * @return the value returned by the call.
+	 * @throws ExecutionException if the call threw an exception (as cause).
+	 * @throws TimeoutException if the deadline was reached (the call is cancelled). */
+	public <T> T call(long timeoutms, String method, Callable<T> task) throws InterruptedException, ExecutionException, TimeoutException{
+		return await(submit(method, task), timeoutms);
+	}
+	
+	/**
+	 * Make the given call at the head of the lane (before the calls queued), and wait for its result until the deadline. 
+	 * @see #call(long, String, Callable) */
+	public <T> T callFirst(long timeoutms, String method, Callable<T> task) throws InterruptedException, ExecutionException, TimeoutException{
+		return await(submitFirst(method, task), timeoutms);
+	}
+	
+	/**
+	 * Submit the given call to the lane, without waiting for it. 
+	 * Several dispatchers (one per stub) let independent calls run at the same time.
+	 * @param method name of the call (used for the span and the logs).
+	 * @param task the call itself.
+	 * @return the call, to be awaited with await. */
+	public <T> Call<T> submit(String method, Callable<T> task){
+		return submitTo(method, task, false);
+	}
+	
+	/**
+	 * Submit the call that ends the session (the disconnection) at the head of the lane, before the calls queued, 
+	 * without waiting for it. If it has to be abandoned, no login is made again on the new lane. 
+	 * @see #submit(String, Callable) */
+	public <T> Call<T> submitFirst(String method, Callable<T> task){
+		return submitTo(method, task, true);
+	}
+	
+	/**
+	 * Wait for the result of a call submitted to this dispatcher until the deadline. 
+	 * @param call the call.
+	 * @param timeoutms max time to wait for the result (ms).
+	 * @return the value returned by the call.
+	 * @throws ExecutionException if the call threw an exception (as cause).
+	 * @throws TimeoutException if the deadline was reached (the call is cancelled). */
+	public <T> T await(Call<T> call, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		try{
+			return call.get(Math.max(0, timeoutms), TimeUnit.MILLISECONDS);
+		}catch(TimeoutException e){
+			cancelled.incrementAndGet();
+			if (call.cancel(true)){
+				abandonIfStillBusy(call);
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Get the amount of calls submitted and not finished yet (running or waiting for the lane).
+	 * @return the amount of calls. */
+	public int getQueueDepth(){
+		return queued.get();
+	}
+	
+	/**
+	 * Get the max amount of calls submitted and not finished at the same time. 
+	 * @return the amount of calls. */
+	public int getMaxQueueDepth(){
+		return maxQueued.get();
+	}
+	
+	/**
+	 * Get the amount of calls abandoned so far (the calls cancelled whose thread did not come back).
+	 * @return the amount of calls. */
+	public int getAbandonedCalls(){
+		return abandoned.get();
+	}
+	
+	/**
+	 * Get the amount of calls cancelled so far (they reached their deadline).
+	 * @return the amount of calls. */
+	public int getCancelledCalls(){
+		return cancelled.get();
+	}
+	
+	/**
+	 * Add the counters of the dispatcher to the references of the given tracer 
+	 * (calls_queue_max, calls_cancelled and calls_abandoned).
+	 * @param tracer tracer of the probe. */
+	public void addReferences(TimedStatusTracer tracer){
+		tracer.addNewReference("calls_queue_max", getMaxQueueDepth());
+		tracer.addNewReference("calls_cancelled", getCancelledCalls());
+		tracer.addNewReference("calls_abandoned", getAbandonedCalls());
+	}
+	
+	/**
+	 * Release the thread of the lane once the calls already submitted are done. */
+	public synchronized void shutdown(){
+		shutdown = true;
+		lane.shutdown();
+	}
+	
+	private synchronized <T> Call<T> submitTo(String method, Callable<T> task, boolean first){
+		Call<T> call = new Call<T>(lane, method, task, first, false);
+		if (lane.isShutdown()){
+			throw new RejectedExecutionException("Dispatcher " + name + " already shut down");
+		}
+		int depth = queued.incrementAndGet();
+		int max = maxQueued.get();
+		while (depth > max && maxQueued.compareAndSet(max, depth) == false){
+			max = maxQueued.get();
+		}
+		if (first){
+			((LinkedBlockingDeque<Runnable>)lane.getQueue()).offerFirst(call);	// The thread of the lane is always started.
+		}else{
+			lane.execute(call);
+		}
+		return call;
+	}
+	
+	/**
+	 * Once a call was cancelled, check whether it comes back; otherwise its lane is abandoned 
+	 * (without interrupting it again, its thread ends whenever its call comes back) and replaced by a new one, 
+	 * that logs in again before making the calls that were waiting. A call cancelled before being started 
+	 * never blocked its lane, so there is nothing to abandon. */
+	private void abandonIfStillBusy(final Call<?> call) throws InterruptedException{
+		if (call.started == false || call.returned.await(ABANDON_GRACE_MS, TimeUnit.MILLISECONDS)){
+			return;
+		}
+		abandoned.incrementAndGet();
+		logger.warn("Call " + name + "." + call.method + " did not come back after being cancelled, abandoning it together with its session.");
+		synchronized(this){
+			ThreadPoolExecutor old = call.lane;
+			if (old == lane){
+				List<Runnable> waiting = new ArrayList<Runnable>();
+				old.getQueue().drainTo(waiting);
+				old.shutdown();
+				lane = newLane();
+				final Callable<?> opener = sessionOpener;
+				if (call.sessionEnd == true || shutdown == true){
+					sessionLost = new IllegalStateException("Session of " + name + " ended with the abandoned call " + call.method);
+				}else if (opener == null){
+					sessionLost = new IllegalStateException("Session of " + name + " lost with the abandoned call " + call.method);
+				}else{
+					sessionLost = null;
+					lane.execute(new Call<Object>(lane, "relogin", new Callable<Object>(){
+						public Object call() throws Exception{
+							try{
+								return opener.call();
+							}catch(Exception e){
+								sessionLost = new IllegalStateException("Session of " + name + " lost with the abandoned call " + call.method + ", could not login again", e);
+								throw e;
+							}
+						}
+					}, false, true));
+				}
+				for (Runnable r: waiting){						// The calls waiting behind the hung call go to the new lane (they fail at once without session).
+					((Call<?>)r).lane = lane;
+					lane.execute(r);
+				}
+				if (shutdown == true){
+					lane.shutdown();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Call made through the dispatcher, whose result can be awaited later. 
+	 * The time the call took on its lane is kept, and traced as a span (named 'dispatcher.method') 
+	 * if the dispatcher has a tracer. */
+	public class Call<T> extends FutureTask<T>{
+		private volatile ThreadPoolExecutor lane;					// Lane where the call is made.
+		private final String method;								// Name of the call.
+		private final boolean sessionEnd;							// Whether it ends the session (the disconnection).
+		private final boolean relogin;								// Whether it is the login made on a new lane.
+		private final AtomicBoolean claimed = new AtomicBoolean();	// Started, or cancelled before being started.
+		private volatile boolean started = false;					// The call was started on its lane.
+		private final CountDownLatch returned = new CountDownLatch(1);	// Released once the started call came back.
+		private volatile long startNanos = 0;						// Start of the call (ns).
+		private volatile long endNanos = 0;							// End of the call (ns, 0 if not finished).
+		
+		private Call(ThreadPoolExecutor lane, String method, Callable<T> task, boolean sessionEnd, boolean relogin){
+			super(task);
+			this.lane = lane;
+			this.method = method;
+			this.sessionEnd = sessionEnd;
+			this.relogin = relogin;
+			if (relogin){
+				queued.incrementAndGet();
+			}
+		}
+		
+		/**
+		 * Get the time the call took on its lane (waiting for the lane is not included).
+		 * @return the time (s), or null if the call did not finish. */
+		public Double getElapsed(){
+			return (endNanos == 0?null:(endNanos - startNanos) / 1000000000.0);
+		}
+		
+		public void run(){
+			if (claimed.compareAndSet(false, true) == false){	// Cancelled before being started.
+				return;
+			}
+			started = true;
+			startNanos = System.nanoTime();
+			try{
+				Exception lost = (relogin?null:sessionLost);
+				if (lost != null){								// No session on this lane: fail right away.
+					setException(lost);
+					return;
+				}
+				int span = (tracer == null?TimedStatusTracer.NO_SPAN:tracer.startSpan(name + "." + method));
+				try{
+					super.run();
+				}finally{
+					endNanos = System.nanoTime();
+					if (tracer != null){
+						tracer.finishSpan(span);
+					}
+				}
+			}finally{
+				queued.decrementAndGet();
+				returned.countDown();
+			}
+		}
+		
+		protected void done(){
+			if (claimed.compareAndSet(false, true)){			// Cancelled before being started.
+				queued.decrementAndGet();
+			}
+		}
+	}
+	
+	private ThreadPoolExecutor newLane(){
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(), new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, name + "-session");
+				t.setDaemon(true);							// An abandoned call must not keep the JVM alive.
+				return t;
+			}
+		});
+		ret.prestartCoreThread();							// Needed to put calls at the head of the queue.
+		return ret;
+	}
+}
@@ -37,12 +37,30 @@
 
 package org.ow2.proactive.nagios.common;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.*;
 
 import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.UnrecognizedOptionException;
 import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.exceptions.ProbeExitException;
+import org.ow2.proactive.nagios.history.HistoryDataManager;
+import org.ow2.proactive.nagios.history.LatencyHistogram;
+import org.ow2.proactive.nagios.history.PhaseBaselines;
+import org.ow2.proactive.nagios.history.PhaseHistograms;
+import org.ow2.proactive.nagios.history.ProbeRecord;
+import org.ow2.proactive.nagios.history.ProbeRecordCodec;
 import org.ow2.proactive.nagios.misc.Misc;
 
 /**
@@ -75,13 +93,23 @@ public abstract class ElementalNagiosPlugin {
 	public static final int DEBUG_LEVEL_2_VERBOSE	= 2;	// Debug level, similar to the previous one.
 	public static final int DEBUG_LEVEL_3_USER		= 3;	// Debug level, debugging only.
 	
+	public static final int DEFAULT_HISTORY_RUNS = 100;		// Default amount of runs considered in the latency histograms.
+	public static final int DEFAULT_HISTORY_CAPACITY = 1024;// Default amount of runs kept in a new history file.
+	
 	public static final String RESOURCES_PATH =				// Path of the directories where all the resources are. 
 			"/org/ow2/proactive/nagios/common/resources/";
 	
 	protected static Logger logger =						// Logger. 
 			Logger.getLogger(ElementalNagiosPlugin.class.getName()); 
 	protected Arguments arguments; 							// Arguments given to the prober. 
-	protected static String probeID;						// ID of the current probe (RM, Scheduler, etc.).
+	protected String probeID;								// ID of the current probe (RM, Scheduler, etc.).
+	
+	private boolean resident = false;						// If true, the probe runs inside a long-running JVM (no System.exit, no shutdown hooks).
+	private File residentDataDir = null;					// Directory where a resident probe can write its files (null if none).
+	private PrintStream out = System.out;					// Where the Nagios output is written.
+	private PrintStream err = System.err;					// Where the usage and version messages are written.
+	private ArrayList<Runnable> cleanups =					// Cleanup tasks to be run once the probe finished (resident mode only).
+			new ArrayList<Runnable>();
 	
 	
 	/** 
@@ -99,6 +127,11 @@ public abstract class ElementalNagiosPlugin {
 		args.addNewOption("S", "dump-script" , true);											// Script to be executed in case of any problem. 
 		args.addNewOption("O", "logconf", true);												// Configuration file for log4j. 
 		args.addNewOption("W", "timeout-is-warning", false);									// If true, a timeout will raise a warning (not a critical status).
+		args.addNewOption("T", "trace-file", true);												// File where to dump the trace of slow or failed executions.
+		args.addNewOption("Y", "history", true);												// File where to keep the latency histograms of the phases.
+		args.addNewOption("N", "history-runs", true, new Integer(DEFAULT_HISTORY_RUNS));		// Amount of runs considered by the histograms.
+		args.addNewOption("K", "adaptive-sigmas", true);										// Standard deviations tolerated above the usual duration of each phase.
+		args.addNewOption("F", "pass-file", true);												// File with the password (instead of --pass).
 	}
 	
 	/**
@@ -115,8 +148,13 @@ public abstract class ElementalNagiosPlugin {
 
 		
 		this.validateArguments(getArgs());				// Validate its arguments. In case of problems, it throws an IllegalArgumentException.
+		if (resident == true){
+			this.validateResidentArguments(getArgs());
+		}
 		
-		Misc.log4jConfiguration(getArgs().getInt("debug"), getArgs().getStr("logconf"));	// Loading log4j configuration. 
+		if (resident == false){							// A resident JVM configures log4j only once, for all the probes it hosts.
+			Misc.log4jConfiguration(getArgs().getInt("debug"), getArgs().getStr("logconf"));	// Loading log4j configuration. 
+		}
 		
 		logger.info(".");								// Print the date in the logs.
 		logger.info(".");								// Print the date in the logs.
@@ -127,7 +165,81 @@ public abstract class ElementalNagiosPlugin {
 		if (getArgs().getBoo("help") == true)	
 			this.printMessageUsageAndExit("");
 		if (getArgs().getBoo("version") == true)
-			ElementalNagiosPlugin.printVersionAndExit();
+			this.printVersionAndExit();
+	}
+	
+	/**
+	 * Make this probe run inside a long-running JVM (for instance the probe daemon). 
+	 * In this mode the probe never calls System.exit (a ProbeExitException is thrown instead), 
+	 * all its messages are written to the given stream, and the cleanup tasks are executed 
+	 * right after the probe finishes instead of being registered as JVM shutdown hooks.
+	 * As the arguments may come from another user, no dump script is accepted, and the files written by the 
+	 * probe (see getWrittenFileOptions) must be in the given data directory.
+	 * @param output stream where to write the Nagios output of the probe. 
+	 * @param dataDir directory where the probe can write its files (null if it cannot write any). */
+	public void setResidentMode(PrintStream output, File dataDir){
+		resident = true;
+		residentDataDir = dataDir;
+		out = output;
+		err = output;
+	}
+	
+	/**
+	 * Get the options of this probe giving a file (or directory) where the probe writes. 
+	 * This method can be overwritten, but the options of the superclass must be kept.
+	 * @return long names of the options. */
+	protected List<String> getWrittenFileOptions(){
+		List<String> ret = new ArrayList<String>();
+		ret.add("trace-file");
+		ret.add("history");
+		return ret;
+	}
+	
+	/**
+	 * Tell whether this probe runs inside a long-running JVM (see setResidentMode).
+	 * @return true if the probe is resident. */
+	protected boolean isResidentMode(){
+		return resident;
+	}
+	
+	/**
+	 * Tell whether the timeout of this probe is handled by the probe(...) method itself (so the probe 
+	 * must be started through startProbeAndExitManualTimeout) or not (startProbeAndExit).
+	 * @return true if the probe handles its own timeout. */
+	public boolean isTimeoutManagedByProbe(){
+		return false;
+	}
+	
+	/**
+	 * Register a task that must be executed once the probe finished (typically to release remote resources).
+	 * In a standalone JVM the task is run as a shutdown hook, in resident mode it is run as soon as the 
+	 * result of the probe has been printed.
+	 * @param task task to execute. */
+	protected void registerCleanup(Runnable task){
+		if (resident == true){
+			synchronized(cleanups){
+				cleanups.add(task);
+			}
+		}else{
+			Runtime.getRuntime().addShutdownHook(new Thread(task));
+		}
+	}
+	
+	/**
+	 * Run (and forget) all the cleanup tasks registered so far (resident mode only). */
+	private void runCleanups(){
+		ArrayList<Runnable> tasks;
+		synchronized(cleanups){
+			tasks = new ArrayList<Runnable>(cleanups);
+			cleanups.clear();
+		}
+		for (Runnable task: tasks){
+			try{
+				task.run();
+			}catch(Exception e){
+				logger.warn("Problem while executing cleanup task: " + e.getMessage(), e);
+			}
+		}
 	}
 	
 	/** 
@@ -145,6 +257,52 @@ public abstract class ElementalNagiosPlugin {
 		args.checkIsValidInt("warning", 0, Integer.MAX_VALUE);
 		args.checkIsGiven("critical");
 		args.checkIsValidInt("critical", 0, Integer.MAX_VALUE);
+		args.checkIsValidInt("history-runs", 2, Integer.MAX_VALUE);
+		if (args.isGiven("adaptive-sigmas")){
+			args.checkIsGiven("history");
+			double sigmas;
+			try{
+				sigmas = Double.parseDouble(args.getStr("adaptive-sigmas"));
+			}catch(NumberFormatException e){
+				throw new IllegalArgumentException("'adaptive-sigmas' must be a number.");
+			}
+			if (sigmas <= 0){
+				throw new IllegalArgumentException("'adaptive-sigmas' must be positive.");
+			}
+		}
+	}
+	
+	/** 
+	 * Validate the arguments given to a resident probe (see setResidentMode).
+	 * @param args arguments to be validated.
+	 * @throws IllegalArgumentException in case an argument is not accepted in resident mode. */
+	private void validateResidentArguments(Arguments args) throws IllegalArgumentException{
+		if (args.isGiven("help") || args.isGiven("version")){
+			return;
+		}
+		if (args.isGiven("dump-script")){
+			throw new IllegalArgumentException("The argument 'dump-script' is not accepted in resident mode.");
+		}
+		for (String key: getWrittenFileOptions()){
+			if (args.isGiven(key) == false){
+				continue;
+			}
+			if (residentDataDir == null){
+				throw new IllegalArgumentException("The argument '" + key + "' is not accepted in resident mode without data directory.");
+			}
+			try{
+				File dir = residentDataDir.getCanonicalFile();
+				File file = new File(args.getStr(key)).getCanonicalFile();
+				while (file != null && file.equals(dir) == false){
+					file = file.getParentFile();
+				}
+				if (file == null){
+					throw new IllegalArgumentException("The argument '" + key + "' must be in the directory '" + dir + "' in resident mode.");
+				}
+			}catch(IOException e){
+				throw new IllegalArgumentException("The argument '" + key + "' is not correct. " + e.getMessage());
+			}
+		}
 	}
 	
 	/**
@@ -155,6 +313,24 @@ public abstract class ElementalNagiosPlugin {
 	 * @return NagiosReturnObject with Nagios code error and a descriptive message of the test. */	 
 	public abstract NagiosReturnObject probe(TimedStatusTracer tracer) throws Exception;
 	
+	/**
+	 * Create the summary maker to be used by the probe to build its result.
+	 * If adaptive thresholds were asked (--adaptive-sigmas), the duration of the phases of the probe 
+	 * will be compared with their usual duration (computed from the history) when the summary is built.
+	 * @param tracer tracer used during the probe.
+	 * @return the summary maker. */
+	protected NagiosReturnObjectSummaryMaker newSummaryMaker(TimedStatusTracer tracer){
+		NagiosReturnObjectSummaryMaker summary = new NagiosReturnObjectSummaryMaker();
+		if (arguments.isGiven("adaptive-sigmas")){
+			PhaseBaselines baselines = loadBaselines();
+			if (baselines != null){
+				double sigmas = Double.parseDouble(arguments.getStr("adaptive-sigmas"));
+				summary.addMiniStatusSource(new AdaptiveThresholds(baselines, tracer, sigmas));
+			}
+		}
+		return summary;
+	}
+	
 	/**
 	 * Get set of arguments given by the user.
 	 * @return arguments. */
@@ -171,9 +347,19 @@ public abstract class ElementalNagiosPlugin {
 	 * method will execute the probe(...) in such a way that an execution longer than the threshold will be automatically 
 	 * stopped and a TimeoutException will be thrown. */
 	final public void startProbeAndExit(){
+		startProbeAndExit(false);
+	}
+	
+	/**
+	 * Start with the probing session.
+	 * Same as startProbeAndExit(), but if test is true the Java process is not killed and the 
+	 * result of the probe is returned.
+	 * @param test if true, do not exit once the result is obtained. 
+	 * @return the result of the probe. */
+	final public NagiosReturnObject startProbeAndExit(boolean test){
 		/* We prepare now our probe to run it in a different thread. The probe consists in a job submission done to the Scheduler. */
 		
-		final TimedStatusTracer tracer = TimedStatusTracer.getInstance();	// We want to get last status memory, and timing measurements.
+		final TimedStatusTracer tracer = new TimedStatusTracer();			// We want to get last status memory, and timing measurements.
 		
 		ExecutorService executor = Executors.newFixedThreadPool(1);
 		Callable<NagiosReturnObject> proberCallable = new Callable<NagiosReturnObject>(){
@@ -200,8 +386,12 @@ public abstract class ElementalNagiosPlugin {
 			logger.warn("Unknown Exception:" + Misc.getStackTrace(e));
 			res = new NagiosReturnObject(RESULT_2_CRITICAL, "CRITICAL ERROR: " + e.getMessage(), e);
 			res.addCurvesSection(tracer, null);
+		}finally{
+			executor.shutdownNow();			// Do not keep a possibly stuck prober thread alive.
 		}
-		printDumpAndExit(res, arguments.getInt("debug"), probeID, false);
+		dumpTraceIfNeeded(res, tracer);
+		updateHistory(res, tracer);
+		return printDumpAndExit(res, arguments.getInt("debug"), probeID, test);
 	}
 	
 	/**
@@ -214,7 +404,7 @@ public abstract class ElementalNagiosPlugin {
 	final public NagiosReturnObject startProbeAndExitManualTimeout(boolean test){
 		/* We prepare now our probe to run it in a different thread. The probe consists in a job submission done to the Scheduler. */
 		
-		final TimedStatusTracer tracer = TimedStatusTracer.getInstance();	// We want to get last status memory, and timing measurements.
+		final TimedStatusTracer tracer = new TimedStatusTracer();			// We want to get last status memory, and timing measurements.
 		
 		NagiosReturnObject res = null;
 
@@ -233,6 +423,8 @@ public abstract class ElementalNagiosPlugin {
 			res = new NagiosReturnObject(RESULT_2_CRITICAL, "CRITICAL ERROR: " + e.getMessage(), e);
 			res.addCurvesSection(tracer, null);
 		}
+		dumpTraceIfNeeded(res, tracer);
+		updateHistory(res, tracer);
 		return printDumpAndExit(res, arguments.getInt("debug"), probeID, test);
 	}
 	
@@ -260,6 +452,157 @@ public abstract class ElementalNagiosPlugin {
 		return ret;
 	}
 	
+    /**
+     * Write the trace (spans) of this execution in the trace-event JSON format if the user asked for it 
+     * (--trace-file) and the execution was not okay (timeout, error) or was too slow (--warning exceeded).
+     * @param res result of the probe.
+     * @param tracer tracer used during the probe. */
+    private void dumpTraceIfNeeded(NagiosReturnObject res, TimedStatusTracer tracer){
+    	if (arguments.isGiven("trace-file") == false){
+    		return;
+    	}
+    	boolean slow = arguments.isGiven("warning") && tracer.getTotal() > arguments.getInt("warning");
+    	if (res.getErrorCode() == RESULT_0_OK && slow == false){
+    		return;
+    	}
+    	String path = arguments.getStr("trace-file");
+    	try{
+    		Writer w = new OutputStreamWriter(new FileOutputStream(path), "UTF-8");
+    		try{
+    			tracer.writeTraceEvents(w);
+    		}finally{
+    			w.close();
+    		}
+    		logger.info("Trace written to '" + path + "'.");
+    	}catch(Exception e){
+    		logger.warn("Issue writing trace file '" + path + "': " + e.getMessage(), e);
+    	}
+    }
+    
+    /**
+     * Append the record of this execution (exit code and duration of each phase) to the history file 
+     * (if given with --history), and add to the perfdata the percentiles of the phases over the last 
+     * executions (for instance time_execution_p95=...). 
+     * Only executions that reached their end (okay or warning) are counted in the percentiles, as the phases 
+     * of a timed out or failed execution are incomplete.
+     * @param res result of the probe.
+     * @param tracer tracer used during the probe. */
+    private void updateHistory(NagiosReturnObject res, TimedStatusTracer tracer){
+    	if (arguments.isGiven("history") == false){
+    		return;
+    	}
+    	String path = arguments.getStr("history");
+    	int runs = arguments.getInt("history-runs");
+    	HistoryDataManager<ProbeRecord> manager = openHistory();
+    	if (manager == null){
+    		return;
+    	}
+    	try{
+    		manager.append(ProbeRecord.fromTracer(tracer, res.getErrorCode()));
+    		PhaseHistograms histograms = new PhaseHistograms();
+    		manager.readLast(runs, histograms, new ProbeRecord());
+    		res.appendCurvesSection(histograms.getPercentilesSummary());
+    	}catch(Exception e){
+    		logger.warn("Issue updating history file '" + path + "': " + e.getMessage(), e);
+    	}finally{
+    		releaseHistory(manager);
+    	}
+    }
+    
+    /**
+     * Check that the password is given, either through --pass or through --pass-file.
+     * @param args arguments of the probe.
+     * @throws IllegalArgumentException if the password is not given. */
+    protected void checkPasswordIsGiven(Arguments args) throws IllegalArgumentException{
+    	if (args.isGiven("pass-file") == false){
+    		args.checkIsGiven("pass");
+    	}else if (new File(args.getStr("pass-file")).canRead() == false){
+    		throw new IllegalArgumentException("The file given as 'pass-file' can't be read: " + args.getStr("pass-file"));
+    	}
+    }
+    
+    /**
+     * Get the password to login, either given through --pass or read from the first line of the file 
+     * given through --pass-file (so that it does not appear in the command line).
+     * @return the password.
+     * @throws IOException if the password file can't be read. */
+    protected String getPassword() throws IOException{
+    	if (getArgs().isGiven("pass-file") == false){
+    		return getArgs().getStr("pass");
+    	}
+    	BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(getArgs().getStr("pass-file")), "UTF-8"));
+    	try{
+    		String pass = r.readLine();
+    		return (pass == null?"":pass);
+    	}finally{
+    		r.close();
+    	}
+    }
+    
+    /**
+     * Get the usual duration of a phase of the probe (median over the last complete executions kept in the history).
+     * @param phase name of the phase (for instance time_execution).
+     * @return the usual duration (s), or null if there is no history (or the phase was never measured). */
+    protected Double getUsualPhaseDuration(String phase){
+    	if (arguments.isGiven("history") == false){
+    		return null;
+    	}
+    	HistoryDataManager<ProbeRecord> manager = openHistory();
+    	if (manager == null){
+    		return null;
+    	}
+    	try{
+    		PhaseHistograms histograms = new PhaseHistograms();
+    		manager.readLast(arguments.getInt("history-runs"), histograms, new ProbeRecord());
+    		LatencyHistogram histogram = histograms.get(phase);
+    		return (histogram == null?null:histogram.getPercentile(50));
+    	}finally{
+    		releaseHistory(manager);
+    	}
+    }
+    
+    /**
+     * Compute the usual duration of the phases of the probe from the last executions kept in the history.
+     * @return the baselines, or null if the history could not be read. */
+    private PhaseBaselines loadBaselines(){
+    	HistoryDataManager<ProbeRecord> manager = openHistory();
+    	if (manager == null){
+    		return null;
+    	}
+    	try{
+    		int runs = arguments.getInt("history-runs");
+    		PhaseBaselines baselines = new PhaseBaselines(runs);
+    		manager.readLast(runs, baselines, new ProbeRecord());
+    		return baselines;
+    	}finally{
+    		releaseHistory(manager);
+    	}
+    }
+    
+    /**
+     * Open (and lock) the history file given with --history.
+     * @return the history, or null if it could not be opened. */
+    private HistoryDataManager<ProbeRecord> openHistory(){
+    	String path = arguments.getStr("history");
+    	int runs = arguments.getInt("history-runs");
+    	try{
+    		return new HistoryDataManager<ProbeRecord>(path, new ProbeRecordCodec(), Math.max(runs, DEFAULT_HISTORY_CAPACITY));
+    	}catch(Exception e){
+    		logger.warn("Issue opening history file '" + path + "': " + e.getMessage());
+    		return null;
+    	}
+    }
+    
+    /**
+     * Release the history file. */
+    private void releaseHistory(HistoryDataManager<ProbeRecord> manager){
+    	try{
+    		manager.release();
+    	}catch(Exception e){
+    		logger.warn("Issue releasing history file '" + arguments.getStr("history") + "': " + e.getMessage());
+    	}
+    }
+    
     /** 
      * Print a message in the stdout (for Nagios to use it) and return with the given error code. 
      * Print a back-trace later only if the debug-level is appropriate. 
@@ -295,26 +638,43 @@ public abstract class ElementalNagiosPlugin {
         
         logger.info(ret);
         logger.info(">>>> EXIT CODE: " + obj.getErrorCode());
-        System.out.print(ret);
+        out.print(ret);
+        out.flush();
+        
+        if (resident == true){
+        	runCleanups();
+        }
         
         if (test == false) {
-            System.exit(obj.getErrorCode());
+            exit(obj.getErrorCode());
         }
         
         return obj;
     }
     
+    /**
+     * Terminate the probe with the given exit code. 
+     * In a standalone JVM the Java process exits, in resident mode a ProbeExitException is thrown.
+     * @param code exit code. */
+    protected void exit(int code){
+    	if (resident == true){
+    		runCleanups();
+    		throw new ProbeExitException(code);
+    	}
+    	System.exit(code);
+    }
+    
 	/**
 	 * Print the version of the plugin and the exits the application. */
-	private static void printVersionAndExit(){
+	private void printVersionAndExit(){
 		String usage = null;
 		try {
 			usage = Misc.readAllTextResource(RESOURCES_PATH + "version-" + probeID + ".txt");
-			System.err.println(usage);
+			err.println(usage);
 		} catch (Exception e) {
 			logger.warn("Issue with usage message. Error: '"+e.getMessage()+"'.", e); 
 		}
-	    System.exit(RESULT_0_OK);
+	    exit(RESULT_0_OK);
 	}
 	
 	/**
@@ -323,18 +683,32 @@ public abstract class ElementalNagiosPlugin {
 	 * @param errormessage message of error to be shown to the user (through Nagios). */
 	public void printMessageUsageAndExit(String errormessage){
 		if (errormessage!=null){
-			System.out.println(errormessage);
+			getOut().println(errormessage);
 		}
 		String usage = ""; 
 		try {
 			usage = usage + Misc.readAllTextResource(RESOURCES_PATH + "usage-" + probeID + ".txt");
 			usage = usage + Misc.readAllTextResource(RESOURCES_PATH + "usage-core.txt");
-			System.err.println(usage);
+			getErr().println(usage);
 		} catch (Exception e) {
 			logger.warn("Issue with usage message. Error: '"+e.getMessage()+"'.", e); 
 		}
 	
-	    System.exit(RESULT_2_CRITICAL);
+	    exit(RESULT_2_CRITICAL);
+	}
+	
+	/**
+	 * Get the stream where the Nagios output of this probe is written.
+	 * @return the stream. */
+	protected PrintStream getOut(){
+		return out;
+	}
+	
+	/**
+	 * Get the stream where the usage and version messages of this probe are written.
+	 * @return the stream. */
+	protected PrintStream getErr(){
+		return err;
 	}
 	
 }
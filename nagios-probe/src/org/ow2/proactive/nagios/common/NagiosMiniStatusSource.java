@@ -35,23 +35,17 @@
  * $$PROACTIVE_INITIAL_DEV$$
  */
 
-package org.ow2.proactive.nagios.probes.debugger;
+package org.ow2.proactive.nagios.common;
 
-import java.io.Serializable;
+import java.util.List;
 
 /**
- * Class that works as the pattern where to save history data regarding previous
- * executions of the probe. */
-public class HistoryElement implements Serializable {
-	private static final long serialVersionUID = 1L;
+ * Source of NagiosMiniStatus objects that are computed only when the summary of the probe 
+ * is built (for instance checks that need all the phases of the probe to be finished). */
+public interface NagiosMiniStatusSource {
 	
-	private Integer data;
-	
-	public HistoryElement(Integer data){
-		this.data = data;
-	}
-	
-	public Integer getData(){
-		return data;
-	}
+	/**
+	 * Get the statuses regarding the current situation of the probe.
+	 * @return the list of statuses (empty if there is nothing to tell). */
+	public List<NagiosMiniStatus> getMiniStatuses();
 }
@@ -88,6 +88,13 @@ public class NagiosReturnObject {
 		curvesSection = tst.getMeasurementsSummary(all_time_label);
 	}
 	
+	/**
+	 * Append the given entries (format 'key1=value1 key2=value2 ') to the section of curves.
+	 * @param curves entries to append. */
+	public void appendCurvesSection(String curves){
+		curvesSection = curvesSection + curves;
+	}
+	
 	/**
 	 * Get the whole message with the format 'errorMessage | curves_section_string'.
 	 * If there is not curves section, then the format is 'errorMessage'.
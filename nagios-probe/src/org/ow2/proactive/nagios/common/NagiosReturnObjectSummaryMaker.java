@@ -38,6 +38,7 @@
 package org.ow2.proactive.nagios.common;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class that builds a summary NagiosReturnObject from all the collected 
@@ -46,12 +47,14 @@ public class NagiosReturnObjectSummaryMaker{
 	
 	private ArrayList<NagiosMiniStatus> miniStatusList;
 	private ArrayList<String> facts;
+	private ArrayList<NagiosMiniStatusSource> sources;
 
 	/**
 	 * Main constructor. */
 	public NagiosReturnObjectSummaryMaker(){
 		miniStatusList = new ArrayList<NagiosMiniStatus>();
 		facts = new ArrayList<String>();
+		sources = new ArrayList<NagiosMiniStatusSource>();
 	}
 	
 	/**
@@ -65,6 +68,15 @@ public class NagiosReturnObjectSummaryMaker{
 		miniStatusList.add(nrobj);
 	}
 	
+	/**
+	 * Add a source of information regarding the current situation of the probe.
+	 * The source is asked for its NagiosMiniStatus objects each time the summary is built, 
+	 * so it can take into account everything that happened until then (for instance the duration of all the phases).
+	 * @param source source of NagiosMiniStatus objects. */
+	public void addMiniStatusSource(NagiosMiniStatusSource source){
+		sources.add(source);
+	}
+	
 	/**
 	 * Add one fact statement to the output of this Nagios probe.
 	 * This will unconditionally appear on the output-line of the Nagios probe.
@@ -80,7 +92,7 @@ public class NagiosReturnObjectSummaryMaker{
 	 * @return true if everything is okay. */
 	public Boolean isAllOkay(){
 		Integer code = ElementalNagiosPlugin.RESULT_0_OK;
-		for (NagiosMiniStatus o: miniStatusList){
+		for (NagiosMiniStatus o: getAllMiniStatuses()){
 			code = mostRelevantNagiosCode(code, o.getErrorCode());
 		}	
 		return code.equals(ElementalNagiosPlugin.RESULT_0_OK);
@@ -95,7 +107,7 @@ public class NagiosReturnObjectSummaryMaker{
 		for (String o: facts){
 			message = (message.isEmpty()?"":message + ", ") + o;
 		}	
-		for (NagiosMiniStatus o: miniStatusList){
+		for (NagiosMiniStatus o: getAllMiniStatuses()){
 			message = (message.isEmpty()?"":message + ", ") + o.getErrorMessage();
 			code = mostRelevantNagiosCode(code, o.getErrorCode());
 		}	
@@ -113,7 +125,7 @@ public class NagiosReturnObjectSummaryMaker{
 		for (String o: facts){
 			message = (message.isEmpty()?"":message + ", ") + o;
 		}	
-		for (NagiosMiniStatus o: miniStatusList){
+		for (NagiosMiniStatus o: getAllMiniStatuses()){
 			message = (message.isEmpty()?"":message + ", ") + o.getErrorMessage();
 			code = mostRelevantNagiosCode(code, o.getErrorCode());
 		}	
@@ -121,6 +133,17 @@ public class NagiosReturnObjectSummaryMaker{
 		ret.addCurvesSection(tracer, "time_all");
 		return ret;
 	}
+	
+	/**
+	 * Get the NagiosMiniStatus objects given, followed by the ones of the sources. */
+	private List<NagiosMiniStatus> getAllMiniStatuses(){
+		List<NagiosMiniStatus> ret = new ArrayList<NagiosMiniStatus>(miniStatusList);
+		for (NagiosMiniStatusSource source: sources){
+			ret.addAll(source.getMiniStatuses());
+		}
+		return ret;
+	}
+	
 	/**
 	 * Retrieve the most important NagiosCode between the two provided.
 	 * The definition of important is in increasing order, as follows:
@@ -45,17 +45,26 @@ import org.objectweb.proactive.core.config.ProActiveConfiguration;
 
 /**
  * Class that helps initializing the ProActive environment, specially when referred to the PAMR router
- * connection parameters. */
+ * connection parameters. 
+ * The ProActive configuration is global to the JVM (and ignored once the ProActive runtime is started), so all 
+ * the probes executed by the same JVM (resident daemon, batch) must use the same one: the first probe sets it, 
+ * and a probe that asks for a different one is rejected (it must be executed by another JVM). */
 public class PAEnvironmentInitializer {
 
 	public static final String COMMUNICATION_PROTOCOL = "pamr";									// Default protocol to be used to get connected to the RM.
 	public static Logger logger = Logger.getLogger(PAEnvironmentInitializer.class.getName());	// Logger.
 	
 	private static Boolean usePAConfFile = null;
+	private static String configuration = null;				// ProActive configuration already set in this JVM (null if none).
+	private static String policyPath = null;					// Path of the security policy file already loaded (if any).
 	
     /** 
-	 * Create a java.policy file to grant permissions, and load it for the current JVM. */
-	public static void createPolicyAndLoadIt() throws Exception{
+	 * Create a java.policy file to grant permissions, and load it for the current JVM. 
+	 * The file is created only once per JVM, even if several probes are executed by it. */
+	public static synchronized void createPolicyAndLoadIt() throws Exception{
+		if (policyPath != null){
+			return;
+		}
 		try{
 		    File temp = File.createTempFile("javapolicy", ".policy"); // Create temp file.
 		    temp.deleteOnExit(); // Delete temp file when program exits.
@@ -66,6 +75,7 @@ public class PAEnvironmentInitializer {
 		    out.close();
 		    String policypath = temp.getAbsolutePath(); 
 		    System.setProperty("java.security.policy", policypath); // Load security policy.
+		    policyPath = policypath;
 		}catch(Exception e){
 			throw new Exception("Error while creating the security policy file. " + e.getMessage());
 		}
@@ -73,11 +83,20 @@ public class PAEnvironmentInitializer {
 
 	/**
 	 * Initialize the ProActive configuration. It handles the PAMR router configuration.
+	 * It is done only once per JVM: further calls with the same parameters do nothing.
 	 * @param paconf ProActive configuration file (if needed).
 	 * @param host host where the PAMR router is.
 	 * @param port port where the PAMR router service is exposed.
-	 * @throws Exception */
-	public static void initPAConfiguration(String paconf, String host, String port) throws Exception{
+	 * @throws Exception if the parameters differ from the ones this JVM already uses, or if the file is not found. */
+	public static synchronized void initPAConfiguration(String paconf, String host, String port) throws Exception{
+		String conf = describeConfiguration(paconf, host, port);
+		if (configuration != null){
+			if (configuration.equals(conf) == false){
+				throw new Exception("This JVM already uses another ProActive configuration (" + configuration + 
+						"), the probe needs its own JVM (" + conf + ").");
+			}
+			return;
+		}
 		/* Load ProActive configuration. */
 		boolean usepaconffilee = false;
 		/* Check whether to use or not the ProActive configuration file. */
@@ -108,6 +127,17 @@ public class PAEnvironmentInitializer {
 				logger.info("Avoiding 'hostname' and 'port' provided for PAMR router...");
 			}
 		}
+		configuration = conf;
+	}
+	
+	/**
+	 * Describe the given ProActive configuration parameters (to compare them and to tell them to the user). 
+	 * @param paconf ProActive configuration file.
+	 * @param host host where the PAMR router is.
+	 * @param port port where the PAMR router service is exposed.
+	 * @return the description. */
+	public static String describeConfiguration(String paconf, String host, String port){
+		return "paconf=" + paconf + " hostname=" + host + " port=" + port;
 	}
 
 	public static Boolean usingPAConfigurationFile(){
@@ -37,6 +37,7 @@
 
 package org.ow2.proactive.nagios.common;
 
+import java.util.List;
 import org.apache.log4j.Logger;
 import org.ow2.proactive.nagios.misc.Misc;
 
@@ -57,7 +58,13 @@ public abstract class PANagiosPlugin extends ElementalNagiosPlugin {
 		args.addNewOption("f", "paconf", true);													// Path of the ProActive xml configuration file.
 		args.addNewOption("H", "hostname", true);												// Host to be tested. 
 		args.addNewOption("x", "port"    , true);												// Port of the host to be tested. 
-		
+		args.addNewOption("C", "cred-cache", true);												// Directory where to cache the encrypted credentials.
+	}
+	
+	protected List<String> getWrittenFileOptions(){
+		List<String> ret = super.getWrittenFileOptions();
+		ret.add("cred-cache");
+		return ret;
 	}
 	
 	/**
@@ -73,6 +80,27 @@ public abstract class PANagiosPlugin extends ElementalNagiosPlugin {
 			getArgs().getStr("port"));
 	}
 	
+	/**
+	 * Get the cache of the encrypted credentials (persisted in the directory given through --cred-cache, 
+	 * otherwise kept in memory).
+	 * @return the cache. */
+	protected CredentialsCache getCredentialsCache(){
+		return CredentialsCache.get(getArgs().getStr("cred-cache"));
+	}
+	
+	/**
+	 * Add to the perfdata the time saved in the connection thanks to the cached credentials 
+	 * (time_connection_saved), if a login to the given url was done.
+	 * @param tracer tracer of the probe.
+	 * @param url url of the server.
+	 * @param user user. */
+	protected void addConnectionTimeSaved(TimedStatusTracer tracer, String url, String user){
+		Double saved = getCredentialsCache().getTimeSaved(url, user);
+		if (saved != null){
+			tracer.addNewReference("time_connection_saved", saved);
+		}
+	}
+	
 	/** 
 	 * Validate all the arguments given to this probe. 
 	 * @param args arguments to be validated.
@@ -90,18 +118,18 @@ public abstract class PANagiosPlugin extends ElementalNagiosPlugin {
 	 * @param errormessage message of error to be shown to the user (through Nagios). */
 	public void printMessageUsageAndExit(String errormessage){
 		if (errormessage!=null){
-			System.out.println(errormessage);
+			getOut().println(errormessage);
 		}
 		String usage = ""; 
 		try {
 			usage = usage + Misc.readAllTextResource(RESOURCES_PATH + "usage-" + probeID + ".txt");
 			usage = usage + Misc.readAllTextResource(RESOURCES_PATH + "usage-pa.txt");
 			usage = usage + Misc.readAllTextResource(RESOURCES_PATH + "usage-core.txt");
-			System.err.println(usage);
+			getErr().println(usage);
 		} catch (Exception e) {
 			logger.warn("Issue with usage message. Error: '"+e.getMessage()+"'.", e); 
 		}
 	
-	    System.exit(RESULT_2_CRITICAL);
+	    exit(RESULT_2_CRITICAL);
 	}
 }
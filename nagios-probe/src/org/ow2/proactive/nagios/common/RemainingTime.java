@@ -37,7 +37,6 @@
 
 package org.ow2.proactive.nagios.common;
 
-import java.util.Date;
 import java.util.concurrent.TimeoutException;
 
 /** 
@@ -79,7 +78,9 @@ public class RemainingTime{
 		}
 	}
 	
+	/**
+	 * Current time in ms, from the monotonic clock (not affected by system clock changes). */
 	private long getTimeNow(){
-		return (new Date()).getTime();
+		return System.nanoTime() / 1000000;
 	}
 }
@@ -37,10 +37,8 @@
 
 package org.ow2.proactive.nagios.common;
 
-import java.util.Date;
-
 /** 
- * Class to get the time elapsed between events/ticks. */
+ * Class to get the time elapsed between events/ticks (monotonic clock). */
 public class TimeTick {
 	private long init;		// Timestamp of the last tick.
 
@@ -53,17 +51,17 @@ public class TimeTick {
 	/**
 	 * Get the time elapsed between this tick/call and the previous one. */
 	public double tickSec(){
-		long now = (new Date()).getTime();
-		double interval = ((double)((double)now - (double)init)) / 1000;
-		init = gettime();
+		long now = gettime();
+		double interval = ((double)(now - init)) / 1000000000;
+		init = now;
 		return interval;
 	}
 	
 	/**
-	 * Get the current time in ms since the epoch.
+	 * Get the current value of the monotonic clock in ns (only meaningful to compute intervals).
 	 * @return the value. */
 	private long gettime(){
-		return (new Date()).getTime();
+		return System.nanoTime();
 	}
 	
 	/**
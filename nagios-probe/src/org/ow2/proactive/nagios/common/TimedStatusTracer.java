@@ -37,25 +37,48 @@
 
 package org.ow2.proactive.nagios.common;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
 import java.util.Locale;
-import java.util.Properties;
+import java.util.Map;
 import org.apache.log4j.Logger;
 import org.ow2.proactive.nagios.misc.Misc;
 
 /** 
  * Class that provides support for measuring execution time of certain calls, and, for saving last status information
- * which is shown in case of timeout (to let the user know where the process got stuck before the timeout). */
+ * which is shown in case of timeout (to let the user know where the process got stuck before the timeout). 
+ * Each probe execution uses its own tracer. Times are taken from the monotonic clock (System.nanoTime), and 
+ * measurements are kept (and reported) in the order in which they were first done. 
+ * Besides the flat measurements (phases), the tracer keeps a tree of spans: each phase is a root span, and
+ * sub-operations (possibly done by other threads) can be traced with startSpan/finishSpan. The spans can be 
+ * exported in the trace-event JSON format (chrome://tracing, Perfetto) to see where the time went. */
 public class TimedStatusTracer {
-	private static TimedStatusTracer instance;				// Singleton.
-	private TimeTick timetick;								// Timing measurement object.
-	private Properties timingMeasurements;					// Entries with measurements.
-	private Properties timingMeasurementsReference;			// Entries with references. 
+	private static final int INITIAL_CAPACITY = 16;			// Initial amount of measurements/references (arrays grow if needed).
+	private static final double NS_PER_SEC = 1000000000.0;	// Nanoseconds in a second.
+	private static final int MAX_SPANS = 4096;				// Max amount of spans kept (further spans are ignored).
+	public static final int NO_SPAN = -1;					// Span id returned when the span is not recorded.
+	
+	private String[] measurementLabels;						// Labels of the measurements (insertion order).
+	private long[] measurementNanos;						// Duration (ns) of each measurement.
+	private int measurementCount = 0;						// Amount of measurements done.
+	private String[] referenceLabels;						// Labels of the references (insertion order).
+	private double[] referenceValues;						// Value of each reference.
+	private int referenceCount = 0;							// Amount of references added.
+	private long lastStartNanos;							// Start (ns) of the current measurement.
 	private String lastStatusDescription = null;			// Holds a message representative of the current status of the test. 
 															// It is used in case of TIMEOUT, to help the administrator guess 
 															// where the problem is.
-	private String lastLabel = null;						// Holds a message representative of the current status of the test. 
-															// It is used in case of TIMEOUT, to help the administrator guess. 
-															// where the problem is.
+	private String lastLabel = null;						// Label of the current measurement.
+	private long originNanos;								// Creation time (ns) of the tracer, origin of the spans.
+	private String[] spanNames;								// Name of each span.
+	private String[] spanThreadNames;						// Name of the thread that started each span.
+	private long[] spanThreadIds;							// Id of the thread that started each span.
+	private long[] spanStartNanos;							// Start (ns) of each span.
+	private long[] spanEndNanos;							// End (ns) of each span (-1 if not finished).
+	private int[] spanParents;								// Parent of each span (NO_SPAN for phases).
+	private int spanCount = 0;								// Amount of spans recorded.
+	private int phaseSpan = NO_SPAN;						// Span of the current phase (measurement).
 	public static Logger logger =							// Logger. 
 			Logger.getLogger(TimedStatusTracer.class.getName()); 
 
@@ -76,20 +99,20 @@ public class TimedStatusTracer {
 	}
 	
 	/** 
-	 * This class follows a singleton pattern. */
-	public static TimedStatusTracer getInstance(){
-		if (instance==null){
-			instance = new TimedStatusTracer();
-		}
-		return instance;
-	}
-
-	/** 
-	 * Private class constructor. */
-	private TimedStatusTracer(){
-		timingMeasurements = new Properties();
-		timingMeasurementsReference = new Properties();
-		timetick = new TimeTick();
+	 * Class constructor. Each probe execution should use its own tracer. */
+	public TimedStatusTracer(){
+		measurementLabels = new String[INITIAL_CAPACITY];
+		measurementNanos = new long[INITIAL_CAPACITY];
+		referenceLabels = new String[INITIAL_CAPACITY];
+		referenceValues = new double[INITIAL_CAPACITY];
+		spanNames = new String[INITIAL_CAPACITY];
+		spanThreadNames = new String[INITIAL_CAPACITY];
+		spanThreadIds = new long[INITIAL_CAPACITY];
+		spanStartNanos = new long[INITIAL_CAPACITY];
+		spanEndNanos = new long[INITIAL_CAPACITY];
+		spanParents = new int[INITIAL_CAPACITY];
+		originNanos = System.nanoTime();
+		lastStartNanos = originNanos;
 	}
 	
 	/**
@@ -98,7 +121,9 @@ public class TimedStatusTracer {
 	 * @param label label to be used for this measurement. */
 	public synchronized void startNewMeasurement(String label){
 		lastLabel = label;
-		timetick.tickSec();
+		lastStartNanos = System.nanoTime();
+		closeSpan(phaseSpan, lastStartNanos);
+		phaseSpan = openSpan(label, NO_SPAN, lastStartNanos);
 		logger.info("Started new measurement '"+label+"'.");
 	}
 	
@@ -106,11 +131,14 @@ public class TimedStatusTracer {
 	 * Finish previous started measurement. It adds to the list of measurements
 	 * done an entry following the format label=time. */
 	public synchronized void finishLastMeasurement(){
+		long now = System.nanoTime();
 		if (lastLabel != null){
-			Double time = new Double(timetick.tickSec());
-			timingMeasurements.put(lastLabel, time);
+			putMeasurement(lastLabel, now - lastStartNanos);
 			logger.info("Finished last measurement '"+lastLabel+"'.");
 		}	
+		closeSpan(phaseSpan, now);
+		phaseSpan = NO_SPAN;
+		lastStartNanos = now;
 	}
 	
 	/**
@@ -145,7 +173,18 @@ public class TimedStatusTracer {
 	 * @param label label of the new entry.
 	 * @param time_sec value of the new entry. */
 	public synchronized void addNewReference(String label, Number time_sec){
-		timingMeasurementsReference.put((String)label, new Double(time_sec.doubleValue()));
+		int i = indexOf(referenceLabels, referenceCount, label);
+		if (i == -1){
+			if (referenceCount == referenceLabels.length){
+				referenceLabels = grow(referenceLabels);
+				double[] values = new double[referenceValues.length * 2];
+				System.arraycopy(referenceValues, 0, values, 0, referenceCount);
+				referenceValues = values;
+			}
+			i = referenceCount++;
+			referenceLabels[i] = label;
+		}
+		referenceValues[i] = time_sec.doubleValue();
 	}
 	
 	/**
@@ -154,40 +193,50 @@ public class TimedStatusTracer {
 	 * by the sum of all the measurements (not including the references).
 	 * @return a string with the summary. */
 	public synchronized String getMeasurementsSummary(String totalLabel){
-		String ret_measurements = "";
-		String ret_total = "";
-		String ret_references = "";
-		Double total = new Double(0.0);
+		StringBuilder ret = new StringBuilder();
 		
-		for (Object key: timingMeasurements.keySet()){
-			Double timing = (Double)timingMeasurements.get(key.toString());
-			total += timing;
-			ret_measurements = key + "=" + String.format(Locale.ENGLISH, "%1.03f", timing) + " " + ret_measurements;
+		if (totalLabel != null){
+			appendEntry(ret, totalLabel, getTotal());
 		}
-		
-		if (totalLabel == null){
-			ret_total = "";
-		}else{
-			ret_total = totalLabel + "=" + String.format(Locale.ENGLISH, "%1.03f", total) + " ";
+		for (int i = 0; i < measurementCount; i++){
+			appendEntry(ret, measurementLabels[i], measurementNanos[i] / NS_PER_SEC);
 		}
-		
-		for (Object key: timingMeasurementsReference.keySet()){
-			ret_references = key + "=" + String.format(Locale.ENGLISH, "%1.03f", timingMeasurementsReference.get(key.toString())) + " " + ret_references;
+		for (int i = 0; i < referenceCount; i++){
+			appendEntry(ret, referenceLabels[i], referenceValues[i]);
 		}
 		
-		return ret_total + ret_measurements + ret_references;
+		return ret.toString();
 	}
 
 	/**
 	 * Get the sum of all the measurements (not including references added).
 	 * @return the sum. */
 	public synchronized Double getTotal(){
-		Double total = new Double(0.0);
-		for (Object key: timingMeasurements.keySet()){
-			Double timing = (Double)timingMeasurements.get(key.toString());
-			total += timing;
+		long total = 0;
+		for (int i = 0; i < measurementCount; i++){
+			total += measurementNanos[i];
+		}
+		return total / NS_PER_SEC;
+	}
+	
+	/**
+	 * Get all the measurements done (not including references).
+	 * @return the label and duration (s) of each measurement, in the order in which they were first done. */
+	public synchronized Map<String, Double> getMeasurements(){
+		Map<String, Double> ret = new LinkedHashMap<String, Double>();
+		for (int i = 0; i < measurementCount; i++){
+			ret.put(measurementLabels[i], measurementNanos[i] / NS_PER_SEC);
 		}
-		return total;
+		return ret;
+	}
+	
+	/**
+	 * Get the value of a reference added with addNewReference.
+	 * @param label label of the reference.
+	 * @return its value, or null if there is no such reference. */
+	public synchronized Double getReference(String label){
+		int i = indexOf(referenceLabels, referenceCount, label);
+		return (i == -1?null:referenceValues[i]);
 	}
 	
 	/** 
@@ -207,4 +256,155 @@ public class TimedStatusTracer {
 	public synchronized String getLastStatusDescription(){
 		return lastStatusDescription;
 	}
+	
+	/**
+	 * Start a span (sub-operation) that will be shown as part of the trace of this probe. 
+	 * Its parent is the last span started (and not finished) by the same thread, or the current phase. 
+	 * @param name name of the span (for instance 'kill_and_remove 123').
+	 * @return id of the span, to be given to finishSpan. */
+	public synchronized int startSpan(String name){
+		long now = System.nanoTime();
+		long thread = Thread.currentThread().getId();
+		int parent = phaseSpan;
+		for (int i = spanCount - 1; i > phaseSpan; i--){
+			if (spanEndNanos[i] == -1 && spanThreadIds[i] == thread){
+				parent = i;
+				break;
+			}
+		}
+		return openSpan(name, parent, now);
+	}
+	
+	/**
+	 * Finish a span started with startSpan.
+	 * @param span id of the span. */
+	public synchronized void finishSpan(int span){
+		closeSpan(span, System.nanoTime());
+	}
+	
+	/**
+	 * Write all the spans in the trace-event JSON format (complete 'X' events, times in microseconds 
+	 * since the creation of this tracer). Spans not finished yet (for instance because of a timeout) 
+	 * are written up to now, and marked as unfinished. 
+	 * @param w where to write the trace.
+	 * @throws IOException if any problem writing. */
+	public synchronized void writeTraceEvents(Writer w) throws IOException{
+		long now = System.nanoTime();
+		w.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+		for (int i = 0; i < spanCount; i++){
+			boolean finished = spanEndNanos[i] != -1;
+			long end = (finished?spanEndNanos[i]:now);
+			w.write(i == 0?"\n":",\n");
+			w.write("{\"name\":" + quote(spanNames[i]) + ",\"cat\":\"" + (spanParents[i] == NO_SPAN?"phase":"span") + "\"" +
+					",\"ph\":\"X\",\"pid\":1,\"tid\":" + spanThreadIds[i] + 
+					",\"ts\":" + ((spanStartNanos[i] - originNanos) / 1000) + ",\"dur\":" + ((end - spanStartNanos[i]) / 1000) + 
+					",\"args\":{\"thread\":" + quote(spanThreadNames[i]) + 
+					(spanParents[i] == NO_SPAN?"":",\"parent\":" + quote(spanNames[spanParents[i]])) + 
+					(finished?"":",\"unfinished\":true") + "}}");
+			boolean firstOfThread = true;
+			for (int j = 0; j < i; j++){
+				if (spanThreadIds[j] == spanThreadIds[i]){
+					firstOfThread = false;
+					break;
+				}
+			}
+			if (firstOfThread == true){							// Name the thread in the viewer.
+				w.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + spanThreadIds[i] + 
+						",\"args\":{\"name\":" + quote(spanThreadNames[i]) + "}}");
+			}
+		}
+		w.write("\n]}\n");
+		w.flush();
+	}
+	
+	/**
+	 * Record a new span. */
+	private int openSpan(String name, int parent, long now){
+		if (spanCount == MAX_SPANS){
+			return NO_SPAN;
+		}
+		if (spanCount == spanNames.length){
+			spanNames = grow(spanNames);
+			spanThreadNames = grow(spanThreadNames);
+			long[] threads = new long[spanCount * 2];
+			long[] starts = new long[spanCount * 2];
+			long[] ends = new long[spanCount * 2];
+			int[] parents = new int[spanCount * 2];
+			System.arraycopy(spanThreadIds, 0, threads, 0, spanCount);
+			System.arraycopy(spanStartNanos, 0, starts, 0, spanCount);
+			System.arraycopy(spanEndNanos, 0, ends, 0, spanCount);
+			System.arraycopy(spanParents, 0, parents, 0, spanCount);
+			spanThreadIds = threads;
+			spanStartNanos = starts;
+			spanEndNanos = ends;
+			spanParents = parents;
+		}
+		int i = spanCount++;
+		Thread thread = Thread.currentThread();
+		spanNames[i] = name;
+		spanThreadNames[i] = thread.getName();
+		spanThreadIds[i] = thread.getId();
+		spanStartNanos[i] = now;
+		spanEndNanos[i] = -1;
+		spanParents[i] = parent;
+		return i;
+	}
+	
+	/**
+	 * Finish a span (if not finished yet). */
+	private void closeSpan(int span, long now){
+		if (span >= 0 && span < spanCount && spanEndNanos[span] == -1){
+			spanEndNanos[span] = now;
+		}
+	}
+	
+	private static String quote(String str){
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c: String.valueOf(str).toCharArray()){
+			if (c == '"' || c == '\\'){
+				sb.append('\\').append(c);
+			}else if (c < 0x20){
+				sb.append(String.format("\\u%04x", (int)c));
+			}else{
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+	
+	/**
+	 * Store the duration of a measurement (a measurement done twice keeps its original position and its last value). */
+	private void putMeasurement(String label, long nanos){
+		int i = indexOf(measurementLabels, measurementCount, label);
+		if (i == -1){
+			if (measurementCount == measurementLabels.length){
+				measurementLabels = grow(measurementLabels);
+				long[] values = new long[measurementNanos.length * 2];
+				System.arraycopy(measurementNanos, 0, values, 0, measurementCount);
+				measurementNanos = values;
+			}
+			i = measurementCount++;
+			measurementLabels[i] = label;
+		}
+		measurementNanos[i] = nanos;
+	}
+	
+	private static int indexOf(String[] labels, int count, String label){
+		for (int i = 0; i < count; i++){
+			if (labels[i].equals(label)){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static String[] grow(String[] array){
+		String[] ret = new String[array.length * 2];
+		System.arraycopy(array, 0, ret, 0, array.length);
+		return ret;
+	}
+	
+	private static void appendEntry(StringBuilder sb, String label, double value){
+		sb.append(label).append('=').append(String.format(Locale.ENGLISH, "%1.03f", value)).append(' ');
+	}
 }
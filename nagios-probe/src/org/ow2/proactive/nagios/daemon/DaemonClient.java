@@ -0,0 +1,213 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Lightweight client of the probe daemon. 
+ * It only depends on the JDK (no ProActive, no log4j), so it starts in a few milliseconds: it sends the 
+ * arguments to the daemon (with the secret shared with it), copies the Nagios output of the probe to the standard output and exits with 
+ * the exit code of the probe.  
+ * If the daemon is not reachable or cannot host the probe (pamr), the probe can be executed by a new JVM (fallback), with the jars given in 
+ * the pa.daemon.fallback.classpath property (this client runs with a heap too small for the probe). 
+ * 
+ * Usage: java -cp proactive-nagios-probes.jar org.ow2.proactive.nagios.daemon.DaemonClient PROBE [PROBE ARGUMENTS]
+ * 
+ * System properties:
+ *  - pa.daemon.port: local port of the daemon (default 18765).
+ *  - pa.daemon.connect.timeout: timeout in ms to get connected to the daemon (default 1000).
+ *  - pa.daemon.secret.file: file with the secret shared with the daemon (default ~/.pa_probe_daemon.secret).
+ *  - pa.daemon.fallback: true to run the probe in a new JVM if the daemon is not reachable (default true).
+ *  - pa.daemon.fallback.classpath: classpath (ProActive jars) used to run the probe in a new JVM.
+ *  - pa.daemon.fallback.heap: max heap of the new JVM (default 1024m). */
+public class DaemonClient {
+	
+	public static final int RESULT_3_UNKNOWN = 3;		// Nagios code. Unknown state of the tested entity.
+	public static final String DEFAULT_HEAP = "1024m";	// Default max heap of a JVM running a probe.
+	
+	private int port;									// Local port of the daemon.
+	private int connectTimeout;							// Timeout (ms) to get connected to the daemon.
+	private String secretFile;							// File with the secret shared with the daemon.
+	
+	/**
+	 * Constructor. 
+	 * @param port local port of the daemon.
+	 * @param connectTimeout timeout (ms) to get connected to the daemon. 
+	 * @param secretFile file with the secret shared with the daemon. */
+	public DaemonClient(int port, int connectTimeout, String secretFile){
+		this.port = port;
+		this.connectTimeout = connectTimeout;
+		this.secretFile = secretFile;
+	}
+	
+	/**
+	 * Run the given probe in the daemon, copying its output to the standard output.
+	 * @param probe name of the probe.
+	 * @param args arguments of the probe.
+	 * @return the exit code of the probe.
+	 * @throws IOException if the daemon is not reachable, the secret cannot be read, or the daemon cannot 
+	 * host the probe (DaemonProtocol.UnsupportedProbeException): nothing was run. */
+	public int runRemotely(String probe, String[] args) throws IOException{
+		String secret = DaemonProtocol.readSecret(secretFile);
+		Socket socket = new Socket();
+		try{
+			socket.connect(new InetSocketAddress("127.0.0.1", port), connectTimeout);
+		}catch(IOException e){
+			socket.close();
+			throw e;
+		}
+		try{
+			DaemonProtocol.writeRequest(socket.getOutputStream(), secret, probe, args);
+			return DaemonProtocol.readResponse(socket.getInputStream(), System.out);
+		}catch(DaemonProtocol.UnsupportedProbeException e){
+			throw e;
+		}catch(IOException e){							// Connected, but the conversation failed.
+			System.out.println("PROBE DAEMON ERROR: " + e.getMessage());
+			return RESULT_3_UNKNOWN;
+		}finally{
+			socket.close();
+		}
+	}
+	
+	/**
+	 * Run the given probe in a new JVM, as the standalone probe would do (this client runs with a small heap, 
+	 * not enough for the probe and ProActive). The output of the probe goes to the standard output.
+	 * @param probe name of the probe.
+	 * @param args arguments of the probe.
+	 * @param classpath classpath needed by the probe (ProActive jars).
+	 * @param heap max heap of the new JVM (for instance 1024m).
+	 * @return the exit code of the probe. */
+	public static int runInNewJvm(String probe, String[] args, String classpath, String heap){
+		if (DaemonProtocol.getProbeClassName(probe) == null){
+			System.out.println("UNKNOWN PROBE '" + probe + "'");
+			return RESULT_3_UNKNOWN;
+		}
+		try{
+			return execInNewJvm(probe, args, classpath, heap, System.out);
+		}catch(Exception e){
+			System.out.println("PROBE ERROR: cannot run probe in a new JVM: " + e);
+			return RESULT_3_UNKNOWN;
+		}
+	}
+	
+	/**
+	 * Run the given probe in a new JVM, copying its output (standard output and error) to the given stream. 
+	 * The JVM is destroyed if copying its output or waiting for its end fails (for instance if the current thread 
+	 * is interrupted while waiting); otherwise the probe ends by its own timeout (--critical).
+	 * @param probe name of the probe (must be known).
+	 * @param args arguments of the probe.
+	 * @param classpath classpath needed by the probe (ProActive jars).
+	 * @param heap max heap of the new JVM (for instance 1024m).
+	 * @param output where to copy the output of the probe.
+	 * @return the exit code of the probe. 
+	 * @throws Exception if the JVM cannot be started, or the current thread is interrupted. */
+	public static int execInNewJvm(String probe, String[] args, String classpath, String heap, OutputStream output) throws Exception{
+		String cp = new File(DaemonClient.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+		if (classpath != null && classpath.trim().length() > 0){
+			cp = cp + File.pathSeparator + classpath;
+		}
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-Xmx" + heap);
+		command.add("-cp");
+		command.add(cp);
+		command.add(DaemonProtocol.getProbeClassName(probe));
+		command.addAll(Arrays.asList(args));
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		boolean ended = false;
+		try{
+			InputStream is = process.getInputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = is.read(buffer)) != -1){
+				output.write(buffer, 0, n);
+			}
+			output.flush();
+			int code = process.waitFor();
+			ended = true;
+			return code;
+		}finally{
+			if (ended == false){
+				process.destroy();
+			}
+		}
+	}
+	
+	/**
+	 * Starting point.
+	 * @param args name of the probe followed by its arguments. */
+	public static void main(String[] args){
+		if (args.length == 0){
+			System.out.println("Usage: DaemonClient PROBE [PROBE ARGUMENTS]");
+			System.exit(RESULT_3_UNKNOWN);
+		}
+		String probe = args[0];
+		String[] probeargs = Arrays.copyOfRange(args, 1, args.length);
+		
+		int port = Integer.getInteger("pa.daemon.port", DaemonProtocol.DEFAULT_PORT);
+		int timeout = Integer.getInteger("pa.daemon.connect.timeout", 1000);
+		String secretfile = System.getProperty("pa.daemon.secret.file", DaemonProtocol.DEFAULT_SECRET_FILE);
+		boolean fallback = !"false".equalsIgnoreCase(System.getProperty("pa.daemon.fallback", "true"));
+		
+		int code;
+		try{
+			code = new DaemonClient(port, timeout, secretfile).runRemotely(probe, probeargs);
+		}catch(IOException e){
+			if (fallback == true){
+				code = runInNewJvm(probe, probeargs, System.getProperty("pa.daemon.fallback.classpath"), 
+						System.getProperty("pa.daemon.fallback.heap", DEFAULT_HEAP));
+			}else{
+				if (e instanceof DaemonProtocol.UnsupportedProbeException){
+					System.out.println("PROBE NOT SUPPORTED BY THE DAEMON: " + e.getMessage());
+				}else{
+					System.out.println("PROBE DAEMON NOT REACHABLE (port " + port + "): " + e.getMessage());
+				}
+				code = RESULT_3_UNKNOWN;
+			}
+		}
+		System.exit(code);
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Definition of the (text based) protocol used between the probe daemon and its clients. 
+ * This class must only depend on the JDK, so that clients can use it without having ProActive in their classpath.
+ * 
+ * A request looks like:
+ *   SECRET 4f3c...
+ *   PROBE rm
+ *   ARG --url
+ *   ARG pamr://0
+ *   END
+ * and its response like:
+ *   0
+ *   OK | time_all=1.231 ...
+ * that is, the exit code of the probe in the first line, and the output of the probe (as it would
+ * have been printed by a standalone probe) in the remaining lines. A probe that the daemon cannot host 
+ * (pamr) gets UNSUPPORTED instead of the exit code, so the client can run it in its own JVM. 
+ * The secret is shared by the daemon and its clients through a file only readable by the user running them 
+ * (see readSecret): the daemon listens on a local port any local user can connect to, so it only runs the 
+ * requests that carry it. */
+public class DaemonProtocol {
+	
+	public static final int DEFAULT_PORT = 18765;					// Default (local) port where the daemon listens.
+	public static final String DEFAULT_SECRET_FILE = 				// Default file with the secret shared by the daemon and its clients.
+			System.getProperty("user.home") + File.separator + ".pa_probe_daemon.secret";
+	public static final String ENCODING = "UTF-8";					// Encoding of the exchanged messages.
+	
+	public static final String PROBE = "PROBE";					// Request keyword, name of the probe to run.
+	public static final String ARG = "ARG";							// Request keyword, one argument of the probe.
+	public static final String END = "END";							// Request keyword, end of the request.
+	public static final String SECRET = "SECRET";					// Request keyword, secret shared with the daemon.
+	public static final String UNSUPPORTED = "UNSUPPORTED";			// Response keyword, probe not hosted by the daemon.
+	
+	private static final Map<String, String> PROBES =				// Probe names (as used by the bin/check_pa_* scripts) and their classes.
+			new LinkedHashMap<String, String>();
+	static {
+		PROBES.put("rm", 		"org.ow2.proactive.nagios.probes.rm.RMProber");
+		PROBES.put("scheduler", "org.ow2.proactive.nagios.probes.scheduler.JobProber");
+		PROBES.put("rest", 		"org.ow2.proactive.nagios.probes.rest.RESTProber");
+		PROBES.put("debugger", 	"org.ow2.proactive.nagios.probes.debugger.DebugProber");
+		PROBES.put("pamr", 		"org.ow2.proactive.nagios.probes.pamr.PAMRProber");
+	}
+	
+	private DaemonProtocol(){}
+	
+	/**
+	 * Get the class implementing the given probe.
+	 * @param probe name of the probe (rm, scheduler, etc.).
+	 * @return the name of the class, or null if the probe is unknown. */
+	public static String getProbeClassName(String probe){
+		return PROBES.get(probe);
+	}
+	
+	/**
+	 * Tell whether the given probe can run inside a resident JVM (daemon or batch). The pamr probe 
+	 * launches another JVM and registers a server by name, so it needs its own JVM.
+	 * @param probe name of the probe (rm, scheduler, etc.).
+	 * @return true if the probe is known and can be resident. */
+	public static boolean isResidentProbe(String probe){
+		return PROBES.containsKey(probe) && probe.equals("pamr") == false;
+	}
+	
+	/**
+	 * Read the secret shared with the daemon (first line of the given file).
+	 * @param filename file containing the secret.
+	 * @return the secret.
+	 * @throws IOException if the file cannot be read or is empty. */
+	public static String readSecret(String filename) throws IOException{
+		if (filename == null){
+			throw new IOException("No secret file given.");
+		}
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(filename), ENCODING));
+		try{
+			String line = br.readLine();
+			if (line == null || line.trim().length() == 0){
+				throw new IOException("Empty secret file '" + filename + "'.");
+			}
+			return line.trim();
+		}finally{
+			br.close();
+		}
+	}
+	
+	/**
+	 * Write a request for the daemon.
+	 * @param os stream where to write the request.
+	 * @param secret secret shared with the daemon.
+	 * @param probe name of the probe to run.
+	 * @param args arguments of the probe. 
+	 * @throws IOException if any problem writing. */
+	public static void writeRequest(OutputStream os, String secret, String probe, String[] args) throws IOException{
+		Writer w = new OutputStreamWriter(os, ENCODING);
+		w.write(SECRET + " " + secret + "\n");
+		w.write(PROBE + " " + probe + "\n");
+		for (String arg: args){
+			if (arg.indexOf('\n') != -1){
+				throw new IOException("Arguments containing line breaks are not supported: '" + arg + "'.");
+			}
+			w.write(ARG + " " + arg + "\n");
+		}
+		w.write(END + "\n");
+		w.flush();
+	}
+	
+	/**
+	 * Read a request written by writeRequest.
+	 * @param is stream where to read the request from.
+	 * @return the request. 
+	 * @throws IOException if the request is malformed or incomplete. */
+	public static Request readRequest(InputStream is) throws IOException{
+		BufferedReader br = new BufferedReader(new InputStreamReader(is, ENCODING));
+		String secret = null;
+		String probe = null;
+		ArrayList<String> args = new ArrayList<String>();
+		String line;
+		while ((line = br.readLine()) != null){
+			if (line.equals(END)){
+				if (probe == null){
+					throw new IOException("Request without probe name.");
+				}
+				return new Request(secret, probe, args.toArray(new String[args.size()]));
+			}else if (line.startsWith(SECRET + " ")){
+				secret = line.substring(SECRET.length() + 1).trim();
+			}else if (line.startsWith(PROBE + " ")){
+				probe = line.substring(PROBE.length() + 1).trim();
+			}else if (line.startsWith(ARG + " ")){
+				args.add(line.substring(ARG.length() + 1));
+			}else{
+				throw new IOException("Unexpected request line: '" + line + "'.");
+			}
+		}
+		throw new IOException("Incomplete request (no '" + END + "' line).");
+	}
+	
+	/**
+	 * Write the response of the daemon.
+	 * @param os stream where to write the response.
+	 * @param response response to write.
+	 * @throws IOException if any problem writing. */
+	public static void writeResponse(OutputStream os, Response response) throws IOException{
+		Writer w = new OutputStreamWriter(os, ENCODING);
+		w.write((response.isSupported() ? String.valueOf(response.getExitCode()) : UNSUPPORTED) + "\n");
+		w.write(response.getOutput());
+		w.flush();
+	}
+	
+	/**
+	 * Read the response written by writeResponse. The output of the probe is copied to the given 
+	 * stream as soon as it arrives.
+	 * @param is stream where to read the response from.
+	 * @param output stream where to copy the output of the probe.
+	 * @return the exit code of the probe.
+	 * @throws UnsupportedProbeException if the daemon cannot host the probe (nothing was run, nor copied).
+	 * @throws IOException if the response is malformed or incomplete. */
+	public static int readResponse(InputStream is, OutputStream output) throws IOException{
+		StringBuilder code = new StringBuilder();
+		int c;
+		while ((c = is.read()) != -1 && c != '\n'){
+			code.append((char)c);
+		}
+		if (c == -1){
+			throw new IOException("Incomplete response from the daemon.");
+		}
+		if (code.toString().trim().equals(UNSUPPORTED)){
+			BufferedReader br = new BufferedReader(new InputStreamReader(is, ENCODING));
+			String line = br.readLine();
+			throw new UnsupportedProbeException(line == null ? "Probe not supported by the daemon." : line);
+		}
+		int exitcode;
+		try{
+			exitcode = Integer.parseInt(code.toString().trim());
+		}catch(NumberFormatException e){
+			throw new IOException("Unexpected exit code in response: '" + code + "'.");
+		}
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = is.read(buffer)) != -1){
+			output.write(buffer, 0, read);
+		}
+		output.flush();
+		return exitcode;
+	}
+	
+	/**
+	 * Request of execution of a probe. */
+	public static class Request {
+		private String secret;			// Secret shared with the daemon (null if not given).
+		private String probe;			// Name of the probe to run.
+		private String[] args;			// Arguments of the probe.
+		
+		public Request(String secret, String probe, String[] args){
+			this.secret = secret;
+			this.probe = probe;
+			this.args = args;
+		}
+		
+		public String getSecret(){
+			return secret;
+		}
+		
+		public String getProbe(){
+			return probe;
+		}
+		
+		public String[] getArgs(){
+			return args;
+		}
+	}
+	
+	/**
+	 * Result of the execution of a probe. */
+	public static class Response {
+		private int exitCode;			// Exit code of the probe.
+		private String output;			// Output of the probe.
+		private boolean supported;		// False if the daemon cannot host the probe (output is the reason).
+		
+		public Response(int exitCode, String output){
+			this(exitCode, output, true);
+		}
+		
+		private Response(int exitCode, String output, boolean supported){
+			this.exitCode = exitCode;
+			this.output = output;
+			this.supported = supported;
+		}
+		
+		/**
+		 * Create the response telling that the probe cannot be hosted by the daemon.
+		 * @param exitCode exit code for the clients that cannot run the probe themselves.
+		 * @param reason reason (one line).
+		 * @return the response. */
+		public static Response unsupported(int exitCode, String reason){
+			return new Response(exitCode, reason + "\n", false);
+		}
+		
+		public boolean isSupported(){
+			return supported;
+		}
+		
+		public int getExitCode(){
+			return exitCode;
+		}
+		
+		public String getOutput(){
+			return output;
+		}
+	}
+	
+	/**
+	 * Thrown when the daemon cannot host the probe asked (nothing was run). */
+	public static class UnsupportedProbeException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		public UnsupportedProbeException(String message){
+			super(message);
+		}
+	}
+}
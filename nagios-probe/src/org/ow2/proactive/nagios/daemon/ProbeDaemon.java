@@ -0,0 +1,268 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.common.Arguments;
+import org.ow2.proactive.nagios.common.ElementalNagiosPlugin;
+import org.ow2.proactive.nagios.misc.Misc;
+
+/**
+ * Long-running JVM that hosts the probes. 
+ * Instead of paying the JVM (and ProActive) startup for every single check, Nagios calls a tiny launcher
+ * (bin/check_pa_resident) that forwards the arguments of the check to this daemon through a local socket, 
+ * and gets back the exit code and the output of the probe. Each request is served by a new instance of 
+ * the probe, with its own arguments and its own tracer. 
+ * Any local user can connect to the port of the daemon, so only the requests carrying the secret kept in 
+ * a file readable only by the user running the daemon (mode 0600) are served, and the probes cannot be 
+ * given files to write outside the data directory of the daemon (see ResidentProbeRunner). */
+public class ProbeDaemon {
+	
+	private static Logger logger = Logger.getLogger(ProbeDaemon.class.getName()); // Logger.
+	
+	private static final int REQUEST_READ_TIMEOUT_MS = 5000;	// Max time to wait for a client to send its request.
+	
+	private ServerSocket server;						// Socket where the requests are received.
+	private ThreadPoolExecutor executor;				// Executor of the probes.
+	private ResidentProbeRunner runner;					// Runner of the probes.
+	private byte[] secret;								// Secret that the requests must carry.
+	
+	/**
+	 * Constructor. 
+	 * @param port local port where to listen.
+	 * @param threads max amount of probes running at the same time. 
+	 * @param queue max amount of requests waiting for a thread. 
+	 * @param secretFile file with the secret shared with the clients (created if it does not exist).
+	 * @param dataDir directory where the probes can write their files (null if they cannot write any). 
+	 * @throws IOException if the secret file cannot be read or is readable by other users. */
+	public ProbeDaemon(int port, int threads, int queue, String secretFile, File dataDir) throws IOException{
+		secret = loadSecret(new File(secretFile)).getBytes(DaemonProtocol.ENCODING);
+		server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));	// Local clients only.
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(queue));
+		runner = new ResidentProbeRunner(dataDir);
+	}
+	
+	/**
+	 * Read the secret shared with the clients, creating the file (mode 0600) with a random secret if it does not exist. 
+	 * @param file file with the secret.
+	 * @return the secret.
+	 * @throws IOException if the file cannot be read, or if users other than its owner can access it. */
+	private static String loadSecret(File file) throws IOException{
+		Path path = file.toPath();
+		if (file.exists() == false){
+			byte[] random = new byte[16];
+			new SecureRandom().nextBytes(random);
+			StringBuilder sb = new StringBuilder();
+			for (byte b: random){
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+			Writer w = new OutputStreamWriter(Files.newOutputStream(path), DaemonProtocol.ENCODING);
+			try{
+				w.write(sb.toString() + "\n");
+			}finally{
+				w.close();
+			}
+			logger.info("Secret of the daemon written in '" + file + "'.");
+		}
+		Set<PosixFilePermission> perms = Files.getPosixFilePermissions(path);
+		perms.remove(PosixFilePermission.OWNER_READ);
+		perms.remove(PosixFilePermission.OWNER_WRITE);
+		perms.remove(PosixFilePermission.OWNER_EXECUTE);
+		if (perms.isEmpty() == false){
+			throw new IOException("Secret file '" + file + "' can be accessed by other users, it must have mode 0600.");
+		}
+		return DaemonProtocol.readSecret(file.getPath());
+	}
+	
+	/**
+	 * Accept requests until the daemon is stopped. */
+	public void serve(){
+		logger.info("Probe daemon listening on " + server.getLocalSocketAddress() + "...");
+		while (server.isClosed() == false){
+			final Socket client;
+			try{
+				client = server.accept();
+			}catch(IOException e){
+				if (server.isClosed() == false){
+					logger.warn("Problem accepting connection: " + e.getMessage());
+				}
+				continue;
+			}
+			try{
+				executor.execute(new Runnable(){
+					public void run(){
+						serveClient(client);
+					}
+				});
+			}catch(RejectedExecutionException e){
+				reply(client, new DaemonProtocol.Response(ElementalNagiosPlugin.RESULT_3_UNKNOWN, 
+						"PROBE DAEMON BUSY: too many probes running, try again later\n"));
+			}
+		}
+	}
+	
+	/**
+	 * Stop accepting requests and wait for the running probes to finish. */
+	public void stop(){
+		try{
+			server.close();
+		}catch(IOException e){
+			logger.warn("Problem closing server socket: " + e.getMessage());
+		}
+		executor.shutdown();
+		try{
+			executor.awaitTermination(60, TimeUnit.SECONDS);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Read the request of the client, run the probe and send back its result. 
+	 * @param client connection with the client. */
+	private void serveClient(Socket client){
+		DaemonProtocol.Response response;
+		try{
+			client.setSoTimeout(REQUEST_READ_TIMEOUT_MS);
+			DaemonProtocol.Request request = DaemonProtocol.readRequest(client.getInputStream());
+			if (isAuthorized(request) == false){
+				logger.warn("Request without the right secret from " + client.getRemoteSocketAddress() + " rejected.");
+				reply(client, new DaemonProtocol.Response(ElementalNagiosPlugin.RESULT_3_UNKNOWN, 
+						"PROBE DAEMON ERROR: wrong or missing secret\n"));
+				return;
+			}
+			logger.info("Running probe '" + request.getProbe() + "'...");
+			response = runner.run(request.getProbe(), request.getArgs());
+			logger.info("Probe '" + request.getProbe() + "' finished with code " + response.getExitCode() + ".");
+		}catch(SocketTimeoutException e){
+			response = new DaemonProtocol.Response(ElementalNagiosPlugin.RESULT_3_UNKNOWN, 
+					"PROBE DAEMON ERROR: timeout reading the request\n");
+		}catch(IOException e){
+			response = new DaemonProtocol.Response(ElementalNagiosPlugin.RESULT_3_UNKNOWN, 
+					"PROBE DAEMON ERROR: " + e.getMessage() + "\n");
+		}
+		reply(client, response);
+	}
+	
+	/**
+	 * Tell whether the request carries the secret of the daemon (compared in constant time).
+	 * @param request request received.
+	 * @return true if the request can be served. */
+	private boolean isAuthorized(DaemonProtocol.Request request) throws IOException{
+		if (request.getSecret() == null){
+			return false;
+		}
+		return MessageDigest.isEqual(secret, request.getSecret().getBytes(DaemonProtocol.ENCODING));
+	}
+	
+	/**
+	 * Send the response to the client and close the connection.
+	 * @param client connection with the client.
+	 * @param response response to send. */
+	private void reply(Socket client, DaemonProtocol.Response response){
+		try{
+			DaemonProtocol.writeResponse(client.getOutputStream(), response);
+		}catch(IOException e){
+			logger.warn("Problem sending response to client: " + e.getMessage());
+		}finally{
+			try{
+				client.close();
+			}catch(IOException e){
+				// Nothing to do.
+			}
+		}
+	}
+	
+	/**
+	 * Starting point.
+	 * @param args arguments for this daemon. */
+	public static void main(String[] args) throws Exception{
+		Arguments options = new Arguments(args);
+		options.addNewOption("h", "help", false);											// Help message.
+		options.addNewOption("v", "debug", true, new Integer(ElementalNagiosPlugin.DEBUG_LEVEL_1_EXTENDED)); // Level of verbosity.
+		options.addNewOption("O", "logconf", true);											// Configuration file for log4j.
+		options.addNewOption("x", "port", true, new Integer(DaemonProtocol.DEFAULT_PORT));	// Local port where to listen.
+		options.addNewOption("t", "threads", true, new Integer(8));						// Max amount of probes running concurrently.
+		options.addNewOption("q", "queue", true, new Integer(16));							// Max amount of requests waiting.
+		options.addNewOption("k", "secret-file", true, DaemonProtocol.DEFAULT_SECRET_FILE);	// File with the secret shared with the clients.
+		options.addNewOption("D", "data-dir", true);										// Directory where the probes can write their files.
+		options.parseAll();
+		
+		if (options.getBoo("help") == true){
+			System.out.println(Misc.readAllTextResource(ElementalNagiosPlugin.RESOURCES_PATH + "usage-DAEMON.txt"));
+			System.exit(ElementalNagiosPlugin.RESULT_0_OK);
+		}
+		
+		options.checkIsValidInt("port", 1, 65535);
+		options.checkIsValidInt("threads", 1, 1024);
+		options.checkIsValidInt("queue", 0, 65536);
+		
+		Misc.log4jConfiguration(options.getInt("debug"), options.getStr("logconf"));
+		
+		File datadir = (options.getStr("data-dir") == null ? null : new File(options.getStr("data-dir")));
+		final ProbeDaemon daemon = new ProbeDaemon(options.getInt("port"), options.getInt("threads"), options.getInt("queue"), 
+				options.getStr("secret-file"), datadir);
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				daemon.stop();
+			}
+		});
+		daemon.serve();
+	}
+}
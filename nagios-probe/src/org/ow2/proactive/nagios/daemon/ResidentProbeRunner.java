@@ -0,0 +1,139 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.daemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.common.Arguments;
+import org.ow2.proactive.nagios.common.ElementalNagiosPlugin;
+import org.ow2.proactive.nagios.common.NagiosReturnObject;
+import org.ow2.proactive.nagios.exceptions.ProbeExitException;
+import org.ow2.proactive.nagios.misc.Misc;
+
+/**
+ * Runs probes (ElementalNagiosPlugin subclasses) inside the current JVM, without ever exiting it. 
+ * Each execution gets its own plugin instance, its own Arguments and its own TimedStatusTracer, so 
+ * several probes can be executed concurrently. 
+ * The probes never execute a dump script (--dump-script), and only write their files (--trace-file, 
+ * --history, etc.) in the data directory of the runner. */
+public class ResidentProbeRunner {
+	
+	private static Logger logger = Logger.getLogger(ResidentProbeRunner.class.getName()); // Logger.
+	
+	private File dataDir;								// Directory where the probes can write their files (null if none).
+	
+	/**
+	 * Constructor.
+	 * @param dataDir directory where the probes can write their files (null if they cannot write any). */
+	public ResidentProbeRunner(File dataDir){
+		this.dataDir = dataDir;
+	}
+	
+	/**
+	 * Run the given probe and collect its result.
+	 * @param probe name of the probe (rm, scheduler, etc.).
+	 * @param args arguments of the probe, as they would be given to its main method.
+	 * @return exit code and output of the probe (unsupported response if the probe cannot be resident, see 
+	 * DaemonProtocol.isResidentProbe). */
+	public DaemonProtocol.Response run(String probe, String[] args){
+		if (DaemonProtocol.getProbeClassName(probe) != null && DaemonProtocol.isResidentProbe(probe) == false){
+			return DaemonProtocol.Response.unsupported(ElementalNagiosPlugin.RESULT_3_UNKNOWN, 
+					"The probe '" + probe + "' cannot be executed in resident mode.");
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream output;
+		try{
+			output = new PrintStream(buffer, true, DaemonProtocol.ENCODING);
+		}catch(UnsupportedEncodingException e){
+			throw new RuntimeException(e);
+		}
+		
+		int code;
+		try{
+			ElementalNagiosPlugin plugin = createPlugin(probe, args);
+			plugin.setResidentMode(output, dataDir);
+			plugin.initializeProber();
+			NagiosReturnObject res;
+			if (plugin.isTimeoutManagedByProbe() == true){
+				res = plugin.startProbeAndExitManualTimeout(true);
+			}else{
+				res = plugin.startProbeAndExit(true);
+			}
+			code = res.getErrorCode();
+		}catch(ProbeExitException e){			// Help, version, wrong usage... 
+			code = e.getExitCode();
+		}catch(Exception e){					// Problem that would have killed a standalone probe.
+			logger.warn("Problem running probe '" + probe + "': " + Misc.getStackTrace(e));
+			code = ElementalNagiosPlugin.RESULT_3_UNKNOWN;
+			output.print("PROBE ERROR: " + e.getMessage() + "\n");
+		}
+		output.flush();
+		
+		try{
+			return new DaemonProtocol.Response(code, buffer.toString(DaemonProtocol.ENCODING));
+		}catch(UnsupportedEncodingException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Create a new instance of the given probe.
+	 * @param probe name of the probe.
+	 * @param args arguments of the probe.
+	 * @return the probe.
+	 * @throws Exception if the probe is unknown or cannot be created. */
+	private ElementalNagiosPlugin createPlugin(String probe, String[] args) throws Exception{
+		String classname = DaemonProtocol.getProbeClassName(probe);
+		if (classname == null){
+			throw new IllegalArgumentException("Unknown probe '" + probe + "'.");
+		}
+		try{
+			Class<?> clazz = Class.forName(classname);
+			return (ElementalNagiosPlugin)clazz.getConstructor(Arguments.class).newInstance(new Arguments(args));
+		}catch(InvocationTargetException e){
+			if (e.getCause() instanceof Exception){
+				throw (Exception)e.getCause();
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the history records of a probe from/to their fixed-size binary representation. */
+public interface HistoryCodec <T>{
+	
+	/**
+	 * Size (bytes) of every encoded record.
+	 * @return the size. */
+	public int getRecordSize();
+	
+	/**
+	 * Encode the record in the given buffer, from its current position. 
+	 * Exactly getRecordSize() bytes must be written.
+	 * @param record record to encode.
+	 * @param dst where to write the record. */
+	public void encode(T record, ByteBuffer dst);
+	
+	/**
+	 * Decode a record from the given buffer, from its current position. 
+	 * @param src where to read the record from.
+	 * @param reuse object to fill with the decoded record (to avoid allocations), or null to create a new one.
+	 * @return the decoded record.
+	 * @throws IllegalArgumentException if the content is not a valid record. */
+	public T decode(ByteBuffer src, T reuse) throws IllegalArgumentException;
+}
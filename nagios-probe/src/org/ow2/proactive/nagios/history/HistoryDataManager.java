@@ -37,42 +37,68 @@
 
 package org.ow2.proactive.nagios.history;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 
 import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.exceptions.FileNotLockedException;
 import org.ow2.proactive.nagios.exceptions.InvalidFileContentException;
 
 
 /**
  * Class that manages historical information regarding previous executions of the current probe.
- * It can save a serialized object containing attributes regarding the data obtained during the current execution of the probe.
- * It can also load the information obtained before by another execution of the probe. 
- * The storage entity is a file which content is a serialized object. */
+ * Each execution of the probe appends one record, and can read the records of the previous executions.
+ * The storage entity is a memory-mapped file with a header and a ring of fixed-size records: once the ring
+ * is full, the oldest record is overwritten. Appending a record never rewrites the rest of the history, 
+ * and reading the last records does not need to deserialize the whole history. 
+ * The file works as a lock as well: only one probe can use it at a time.
+ * 
+ * Layout of the header (HEADER_SIZE bytes): 
+ *   magic (int), layout version (int), record size (int), capacity (int), amount of records ever appended (long). */
 public class HistoryDataManager <T>{
 	
 	protected static Logger logger =						// Logger. 
 			Logger.getLogger(HistoryDataManager.class.getName()); 
-	private static final int MAX_BUFFER_SIZE = 1024 * 8;
+	
+	public static final int MAGIC = 0x50414852;				// "PAHR".
+	public static final int LAYOUT_VERSION = 1;				// Version of the file layout.
+	public static final int HEADER_SIZE = 64;				// Size of the header (bytes).
+	private static final int COUNT_OFFSET = 16;				// Position in the header of the amount of records appended.
 	
 	private FileLock lock = null;
 	private FileChannel channel = null; 
+	private MappedByteBuffer map = null;					// Mapping of the whole file.
+	private ByteBuffer view = null;							// View of the mapping used to access the records (reused).
+	private HistoryCodec<T> codec;							// Encoder/decoder of the records.
+	private int recordSize;									// Size of each record (bytes).
+	private int capacity;									// Max amount of records kept.
+	
+	/**
+	 * Visitor of the records read from the history. */
+	public interface RecordVisitor <T>{
+		/**
+		 * Called once per record read.
+		 * @param record the record (the same object may be reused for the next record). */
+		public void visit(T record);
+	}
 	
 	/**
-	 * Take the lock of the given file.
-	 * If the file does not exist, it will be created.
-	 * @param filename file to use as a lock.
-	 * @throws Exception in case the lock was already taken. */
-	public HistoryDataManager(String filename) throws Exception{
+	 * Take the lock of the given file and map it.
+	 * If the file does not exist (or is empty), it will be created with room for the given amount of records.
+	 * @param filename file to use as history (and lock).
+	 * @param codec encoder/decoder of the records.
+	 * @param capacity max amount of records to keep (only used when creating the file). 
+	 * @throws FileNotLockedException in case the lock was already taken. 
+	 * @throws InvalidFileContentException if the file is not a history file of the same kind of records. */
+	public HistoryDataManager(String filename, HistoryCodec<T> codec, int capacity) throws FileNotLockedException, InvalidFileContentException, IOException{
+		this.codec = codec;
+		this.recordSize = codec.getRecordSize();
+		
 	    // Get a file channel for the file.
 	    File file = new File(filename);
 	    channel = new RandomAccessFile(file, "rw").getChannel();
@@ -88,55 +114,139 @@ public class HistoryDataManager <T>{
 	    if (lock == null){ // If any problem getting the lock...
 			logger.info("File not locked... There was a problem...");
 	    	channel.close();
-	    	throw new Exception("Lock file '" + filename + "' already locked by another process...");
+	    	throw new FileNotLockedException("Lock file '" + filename + "' already locked by another process...");
+	    }
+	    
+	    try{
+	    	if (channel.size() == 0){
+	    		this.capacity = Math.max(capacity, 1);
+	    		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)this.capacity * recordSize);
+	    		map.putInt(0, MAGIC);
+	    		map.putInt(4, LAYOUT_VERSION);
+	    		map.putInt(8, recordSize);
+	    		map.putInt(12, this.capacity);
+	    		map.putLong(COUNT_OFFSET, 0);
+	    		view = map.duplicate();
+	    	}else{
+	    		readHeader(filename);
+	    	}
+	    }catch(InvalidFileContentException e){
+	    	release();
+	    	throw e;
+	    }catch(IOException e){
+	    	release();
+	    	throw e;
 	    }
 		logger.info("Done.");
 	}
-
+	
 	/**
-	 * Dump a serialized object to the file already given (which works as a lock as well).
-	 * @param obj object to dump.
-	 * @throws IOException if a problem while writing the file. */
-	public void set(T obj) throws IOException {
-		// Serialize to a byte array.
-	    ByteArrayOutputStream bos = new ByteArrayOutputStream() ;
-		ObjectOutput out;
-	    out = new ObjectOutputStream(bos) ;
-	    out.writeObject(obj);
-	    out.close();
+	 * Check the header of an existing file and map it. */
+	private void readHeader(String filename) throws InvalidFileContentException, IOException{
+		if (channel.size() < HEADER_SIZE){
+			throw new InvalidFileContentException("File '" + filename + "' is not a history file (too short).");
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != LAYOUT_VERSION){
+			throw new InvalidFileContentException("File '" + filename + "' is not a history file (or has an old format), remove it.");
+		}
+		if (header.getInt(8) != recordSize){
+			throw new InvalidFileContentException("File '" + filename + "' has records of " + header.getInt(8) + " bytes, expected " + recordSize + ".");
+		}
+		capacity = header.getInt(12);
+		long size = HEADER_SIZE + (long)capacity * recordSize;
+		if (capacity <= 0 || channel.size() < size){
+			throw new InvalidFileContentException("File '" + filename + "' is truncated.");
+		}
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		view = map.duplicate();
+	}
 
-	    // Get the bytes of the serialized object and dump it into the file.
-	    byte[] buf = bos.toByteArray();
-		channel.write(ByteBuffer.wrap(buf));
+	/**
+	 * Append a record to the history (overwriting the oldest one if the history is full).
+	 * @param record record to append. */
+	public void append(T record){
+		long count = getCount();
+		ByteBuffer slot = getSlot(count);
+		codec.encode(record, slot);
+		map.putLong(COUNT_OFFSET, count + 1);		// The record is visible only once completely written.
+	}
+	
+	/**
+	 * Read the last records of the history, from the oldest to the newest one.
+	 * No buffer is allocated, and the records are decoded in the given object (if not null).
+	 * Records that cannot be decoded (for instance partially written by a killed probe) are skipped.
+	 * @param k max amount of records to read.
+	 * @param visitor visitor that receives each record.
+	 * @param reuse object where to decode each record (can be null).
+	 * @return the amount of records read. */
+	public int readLast(int k, RecordVisitor<T> visitor, T reuse){
+		long count = getCount();
+		long n = Math.min(Math.min(k, count), capacity);
+		int read = 0;
+		for (long seq = count - n; seq < count; seq++){
+			T record;
+			try{
+				record = codec.decode(getSlot(seq), reuse);
+			}catch(RuntimeException e){
+				logger.warn("Skipping invalid record " + seq + ": " + e.getMessage());
+				continue;
+			}
+			visitor.visit(record);
+			read++;
+		}
+		return read;
 	}
 	
 	/**
-	 * Get the object from the already given file.
-	 * @return the object representing the history of the probe.
-	 * @throws InvalidFileContentException if any problem with the file's content. */
-	@SuppressWarnings("unchecked")
+	 * Get the last record of the history.
+	 * @param defaultObject object to return if the history is empty.
+	 * @return the last record appended, or the default object.
+	 * @throws InvalidFileContentException if the record cannot be decoded. */
 	public T get(T defaultObject) throws InvalidFileContentException {
-		T ret;
-		ByteBuffer buffer = ByteBuffer.allocate(MAX_BUFFER_SIZE);
-		try{
-			channel.read(buffer,0);
-			byte[] bytes = buffer.array();
-
-			ObjectInputStream in;
-		    // Deserialize from a byte array.
-		    in = new ObjectInputStream(new ByteArrayInputStream(bytes));
-		    ret = (T)in.readObject();
-		    in.close();
-		    return ret;
-		}catch(Exception e){
+		long count = getCount();
+		if (count == 0){
 			return defaultObject;
 		}
+		try{
+			return codec.decode(getSlot(count - 1), null);
+		}catch(RuntimeException e){
+			throw new InvalidFileContentException("Invalid record " + (count - 1) + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Get the amount of records appended since the creation of the history (including the overwritten ones).
+	 * @return the amount. */
+	public long getCount(){
+		return map.getLong(COUNT_OFFSET);
+	}
+	
+	/**
+	 * Get the max amount of records kept.
+	 * @return the capacity. */
+	public int getCapacity(){
+		return capacity;
 	}
 	
 	/**
-	 * Release the token.
+	 * Get the view positioned on the slot of the record with the given sequence number. */
+	private ByteBuffer getSlot(long seq){
+		int position = HEADER_SIZE + (int)(seq % capacity) * recordSize;
+		view.limit(view.capacity());
+		view.position(position);
+		view.limit(position + recordSize);
+		return view;
+	}
+	
+	/**
+	 * Flush the changes and release the token.
 	 * @throws IOException if any problem. */
 	public void release() throws IOException{
+		if (map != null){
+			map.force();
+		}
 	    // Release the lock.
 	    lock.release();
 	    // Close the file.
@@ -146,11 +256,14 @@ public class HistoryDataManager <T>{
 	public static void main(String[] args) throws Exception{
 		// Test.
 		System.out.println("Creating...");
-		HistoryDataManager<Integer> h = new HistoryDataManager<Integer>("data");
-		System.out.println("Setting...");
-//		h.set(new Integer(1));
+		HistoryDataManager<ProbeRecord> h = new HistoryDataManager<ProbeRecord>("data", new ProbeRecordCodec(), 10);
+		System.out.println("Appending...");
+		ProbeRecord r = new ProbeRecord();
+		r.setTimestamp(System.currentTimeMillis());
+		r.addPhase("time_all", 1000);
+		h.append(r);
 		System.out.println("Getting...");
-		System.out.println((Integer)h.get(1));
+		System.out.println(h.get(null).getPhaseNanos("time_all") + " (" + h.getCount() + " records)");
 		System.out.println("Releasing...");
 		h.release();
 		System.out.println("Done.");
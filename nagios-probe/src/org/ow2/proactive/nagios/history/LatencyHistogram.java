@@ -0,0 +1,113 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.history;
+
+/**
+ * Fixed-memory latency histogram. 
+ * Values (in seconds) are counted in logarithmic buckets: the bucket i holds values between 
+ * MIN_SEC*GROWTH^(i-1) and MIN_SEC*GROWTH^i, so any percentile is known with a relative error 
+ * smaller than (GROWTH-1)/2 (4%), from 1 ms up to more than one hour. 
+ * The counts never age: to follow recent behaviour, the histogram is rebuilt from the last runs kept 
+ * in the history (see PhaseHistograms). */
+public class LatencyHistogram {
+	
+	public static final int BUCKETS = 200;					// Amount of buckets.
+	public static final double MIN_SEC = 0.001;				// Upper bound of the first bucket (s).
+	public static final double GROWTH = 1.08;				// Ratio between the bounds of two consecutive buckets.
+	private static final double LOG_GROWTH = Math.log(GROWTH);
+	
+	private int[] counts;									// Amount of values in each bucket.
+	private int total;										// Amount of values in all buckets.
+	
+	/**
+	 * Constructor. */
+	public LatencyHistogram(){
+		this.counts = new int[BUCKETS];
+		this.total = 0;
+	}
+	
+	/**
+	 * Count a new value.
+	 * @param sec value (seconds). */
+	public void record(double sec){
+		counts[getBucket(sec)]++;
+		total++;
+	}
+	
+	/**
+	 * Get the given percentile.
+	 * @param percentile percentile (0 < percentile <= 100).
+	 * @return the value (s) of the percentile (middle of its bucket), or null if the histogram is empty. */
+	public Double getPercentile(double percentile){
+		if (total == 0){
+			return null;
+		}
+		long rank = (long)Math.ceil(percentile / 100.0 * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++){
+			seen += counts[i];
+			if (seen >= Math.max(rank, 1)){
+				return getBucketMiddle(i);
+			}
+		}
+		return getBucketMiddle(BUCKETS - 1);
+	}
+	
+	/**
+	 * Get the amount of values counted.
+	 * @return the amount. */
+	public int getCount(){
+		return total;
+	}
+	
+	private static int getBucket(double sec){
+		if (sec <= MIN_SEC){
+			return 0;
+		}
+		int bucket = 1 + (int)(Math.log(sec / MIN_SEC) / LOG_GROWTH);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+	
+	private static double getBucketMiddle(int bucket){
+		if (bucket == 0){
+			return MIN_SEC / 2;
+		}
+		double low = MIN_SEC * Math.pow(GROWTH, bucket - 1);
+		return low * (1 + GROWTH) / 2;
+	}
+}
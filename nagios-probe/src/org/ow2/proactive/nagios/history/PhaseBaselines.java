@@ -0,0 +1,127 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.history;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Baseline of the duration of each phase of a probe, built from the records of the last executions kept 
+ * in the history: exponentially weighted moving average (EWMA) and variance of the duration of each phase. 
+ * Recent executions weigh more than older ones, so the baseline follows slow changes of the target 
+ * (bigger cluster, new hardware) while a sudden slowdown is still detected. */
+public class PhaseBaselines implements HistoryDataManager.RecordVisitor<ProbeRecord> {
+	
+	private double alpha;									// Weight of the newest sample (0 < alpha <= 1).
+	private LinkedHashMap<String, Baseline> baselines;		// Baseline of each phase (phases in order of appearance).
+	
+	/**
+	 * Baseline of one phase. */
+	public static class Baseline {
+		private double mean = 0;							// EWMA of the duration (s).
+		private double variance = 0;						// Exponentially weighted variance of the duration (s^2).
+		private int samples = 0;							// Amount of samples seen.
+		
+		void add(double value, double alpha){
+			if (samples == 0){
+				mean = value;
+			}else{
+				double diff = value - mean;
+				double incr = alpha * diff;
+				mean = mean + incr;
+				variance = (1 - alpha) * (variance + diff * incr);
+			}
+			samples++;
+		}
+		
+		public double getMean(){
+			return mean;
+		}
+		
+		public double getStdDev(){
+			return Math.sqrt(variance);
+		}
+		
+		public int getSamples(){
+			return samples;
+		}
+		
+		/**
+		 * Get the duration above which a sample is considered abnormal.
+		 * @param sigmas amount of standard deviations tolerated above the mean.
+		 * @param minMargin minimum margin tolerated above the mean, relative to the mean 
+		 * (avoids false alarms when the duration barely varies).
+		 * @return the threshold (s). */
+		public double getThreshold(double sigmas, double minMargin){
+			return mean + Math.max(sigmas * getStdDev(), minMargin * mean);
+		}
+	}
+	
+	/**
+	 * Constructor.
+	 * @param runs approximate amount of executions the baseline remembers (the weight of the newest 
+	 * sample is 2/(runs+1), as in a moving average of runs samples). */
+	public PhaseBaselines(int runs){
+		alpha = 2.0 / (Math.max(runs, 1) + 1);
+		baselines = new LinkedHashMap<String, Baseline>();
+	}
+	
+	/**
+	 * Count the phases of one execution of the probe (only if the execution was complete).
+	 * @param record record of the execution. */
+	public void visit(ProbeRecord record){
+		if (record.isComplete() == false){
+			return;
+		}
+		for (int i = 0; i < record.getPhaseCount(); i++){
+			Baseline b = baselines.get(record.getPhaseName(i));
+			if (b == null){
+				b = new Baseline();
+				baselines.put(record.getPhaseName(i), b);
+			}
+			b.add(record.getPhaseNanos(i) / 1000000000.0, alpha);
+		}
+	}
+	
+	/**
+	 * Get the baseline of the given phase.
+	 * @param phase name of the phase.
+	 * @return the baseline, or null if the phase was never measured. */
+	public Baseline get(String phase){
+		return baselines.get(phase);
+	}
+}
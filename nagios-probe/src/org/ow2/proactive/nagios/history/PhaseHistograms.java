@@ -0,0 +1,101 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.history;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latency histograms of the phases of a probe (time_connection, time_submission, etc.), 
+ * built from the records of the last executions kept in the history. */
+public class PhaseHistograms implements HistoryDataManager.RecordVisitor<ProbeRecord> {
+	
+	public static final double[] PERCENTILES = {50, 95, 99};	// Percentiles given as perfdata.
+	
+	private LinkedHashMap<String, LatencyHistogram> histograms;	// Histogram of each phase (phases in order of appearance).
+	
+	/**
+	 * Constructor. */
+	public PhaseHistograms(){
+		histograms = new LinkedHashMap<String, LatencyHistogram>();
+	}
+	
+	/**
+	 * Count the phases of one execution of the probe (only if the execution was complete).
+	 * @param record record of the execution. */
+	public void visit(ProbeRecord record){
+		if (record.isComplete() == false){
+			return;
+		}
+		for (int i = 0; i < record.getPhaseCount(); i++){
+			LatencyHistogram h = histograms.get(record.getPhaseName(i));
+			if (h == null){
+				h = new LatencyHistogram();
+				histograms.put(record.getPhaseName(i), h);
+			}
+			h.record(record.getPhaseNanos(i) / 1000000000.0);
+		}
+	}
+	
+	/**
+	 * Get the histogram of the given phase.
+	 * @param phase name of the phase.
+	 * @return the histogram, or null if the phase was never measured. */
+	public LatencyHistogram get(String phase){
+		return histograms.get(phase);
+	}
+	
+	/**
+	 * Get the percentiles of all the phases in the perfdata format, for instance 
+	 * 'time_execution_p50=1.234 time_execution_p95=2.345 time_execution_p99=3.456 '.
+	 * @return the perfdata. */
+	public String getPercentilesSummary(){
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> entry: histograms.entrySet()){
+			for (double p: PERCENTILES){
+				Double value = entry.getValue().getPercentile(p);
+				if (value != null){
+					sb.append(entry.getKey()).append("_p").append((int)p).append('=');
+					sb.append(String.format(Locale.ENGLISH, "%1.03f", value)).append(' ');
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.history;
+
+import java.util.Map;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
+
+/**
+ * Record kept in the history for every execution of a probe: when it was executed, 
+ * its exit code, the duration of each one of its phases, and the amount of nodes seen (RM probe). */
+public class ProbeRecord {
+	
+	public static final int MAX_PHASES = 16;				// Max amount of phases kept per record.
+	
+	private long timestamp;									// Time of the execution (ms since the epoch).
+	private int exitCode;									// Nagios exit code of the execution.
+	private String[] phaseNames = new String[MAX_PHASES];	// Name of each phase.
+	private long[] phaseNanos = new long[MAX_PHASES];		// Duration (ns) of each phase.
+	private int phaseCount = 0;								// Amount of phases.
+	private int nodesFree = -1;								// Free nodes in the RM (-1 if unknown).
+	private int nodesObtained = -1;							// Nodes obtained from the RM (-1 if unknown).
+	
+	/**
+	 * Create the record of the current execution of a probe.
+	 * @param tracer tracer of the execution (the total is kept as the phase 'time_all', and the 
+	 * references 'nodes_free' and 'nodes_obtained' as node counts).
+	 * @param exitCode exit code of the execution.
+	 * @return the record. */
+	public static ProbeRecord fromTracer(TimedStatusTracer tracer, int exitCode){
+		ProbeRecord record = new ProbeRecord();
+		record.setTimestamp(System.currentTimeMillis());
+		record.setExitCode(exitCode);
+		record.addPhase("time_all", toNanos(tracer.getTotal()));
+		for (Map.Entry<String, Double> entry: tracer.getMeasurements().entrySet()){
+			record.addPhase(entry.getKey(), toNanos(entry.getValue()));
+		}
+		record.setNodesFree(toCount(tracer.getReference("nodes_free")));
+		record.setNodesObtained(toCount(tracer.getReference("nodes_obtained")));
+		return record;
+	}
+	
+	/**
+	 * Remove all the phases and node counts. */
+	public void clear(){
+		phaseCount = 0;
+		nodesFree = -1;
+		nodesObtained = -1;
+	}
+	
+	/**
+	 * Add a phase to this record (ignored if there are already MAX_PHASES phases).
+	 * @param name name of the phase.
+	 * @param nanos duration (ns). */
+	public void addPhase(String name, long nanos){
+		if (phaseCount < MAX_PHASES){
+			phaseNames[phaseCount] = name;
+			phaseNanos[phaseCount] = nanos;
+			phaseCount++;
+		}
+	}
+	
+	/**
+	 * Get the duration of the given phase.
+	 * @param name name of the phase.
+	 * @return the duration (ns), or -1 if the phase is not in this record. */
+	public long getPhaseNanos(String name){
+		for (int i = 0; i < phaseCount; i++){
+			if (phaseNames[i].equals(name)){
+				return phaseNanos[i];
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Tell whether the execution reached its end (okay or warning), so all its phases are complete.
+	 * @return true if the execution was complete. */
+	public boolean isComplete(){
+		return exitCode == 0 || exitCode == 1;
+	}
+	
+	public int getPhaseCount(){
+		return phaseCount;
+	}
+	
+	public String getPhaseName(int i){
+		return phaseNames[i];
+	}
+	
+	public long getPhaseNanos(int i){
+		return phaseNanos[i];
+	}
+	
+	/**
+	 * Set the name of the phase i, used while decoding (the phase must already exist or be the next one). */
+	void setPhase(int i, String name, long nanos){
+		phaseNames[i] = name;
+		phaseNanos[i] = nanos;
+		phaseCount = Math.max(phaseCount, i + 1);
+	}
+	
+	public long getTimestamp(){
+		return timestamp;
+	}
+	
+	public void setTimestamp(long timestamp){
+		this.timestamp = timestamp;
+	}
+	
+	public int getExitCode(){
+		return exitCode;
+	}
+	
+	public void setExitCode(int exitCode){
+		this.exitCode = exitCode;
+	}
+	
+	public int getNodesFree(){
+		return nodesFree;
+	}
+	
+	public void setNodesFree(int nodesFree){
+		this.nodesFree = nodesFree;
+	}
+	
+	public int getNodesObtained(){
+		return nodesObtained;
+	}
+	
+	public void setNodesObtained(int nodesObtained){
+		this.nodesObtained = nodesObtained;
+	}
+	
+	private static int toCount(Double value){
+		return (value == null?-1:value.intValue());
+	}
+	
+	private static long toNanos(double sec){
+		return Math.round(sec * 1000000000.0);
+	}
+}
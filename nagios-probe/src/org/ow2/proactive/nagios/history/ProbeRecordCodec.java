@@ -0,0 +1,174 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+
+package org.ow2.proactive.nagios.history;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Compact, schema-versioned binary layout of a ProbeRecord. Every record takes RECORD_SIZE bytes:
+ *   schema version (short), payload length (short), payload, padding, CRC32 of the version, length and payload (int, last 4 bytes).
+ * Payload of the schema 1: 
+ *   timestamp (long), exit code (int), amount of phases (byte), 
+ *   for each phase [name length (byte), name (ASCII), duration in ns (long)], 
+ *   free nodes (int), obtained nodes (int).
+ * Rules to keep the history readable by any version of the probe: a new schema only appends fields at the end 
+ * of the payload (the padding leaves room for them), the fields are read in order while the payload contains them 
+ * (missing fields keep their default value, unknown trailing fields are ignored), and the layout of existing 
+ * fields never changes. 
+ * An instance is not thread-safe (it reuses its buffers to avoid allocations). */
+public class ProbeRecordCodec implements HistoryCodec<ProbeRecord> {
+	
+	public static final short SCHEMA_VERSION = 1;			// Version of the payload written.
+	public static final int NAME_BYTES = 32;				// Max length of the name of a phase.
+	public static final int RECORD_SIZE = 768;				// Size of every record (bytes).
+	private static final int PREFIX_SIZE = 4;				// Schema version and payload length.
+	private static final int CRC_OFFSET = RECORD_SIZE - 4;	// Position of the CRC in the record.
+	
+	private byte[] bytes = new byte[RECORD_SIZE];			// Record being encoded/decoded.
+	private ByteBuffer buffer = ByteBuffer.wrap(bytes);		// View of the record being encoded/decoded.
+	private CRC32 crc = new CRC32();						// Checksum of the record.
+	
+	public int getRecordSize(){
+		return RECORD_SIZE;
+	}
+	
+	public void encode(ProbeRecord record, ByteBuffer dst){
+		buffer.clear();
+		buffer.position(PREFIX_SIZE);
+		buffer.putLong(record.getTimestamp());
+		buffer.putInt(record.getExitCode());
+		buffer.put((byte)record.getPhaseCount());
+		for (int i = 0; i < record.getPhaseCount(); i++){
+			writeName(record.getPhaseName(i), buffer);
+			buffer.putLong(record.getPhaseNanos(i));
+		}
+		buffer.putInt(record.getNodesFree());
+		buffer.putInt(record.getNodesObtained());
+		int end = buffer.position();
+		buffer.putShort(0, SCHEMA_VERSION);
+		buffer.putShort(2, (short)(end - PREFIX_SIZE));
+		for (int i = end; i < CRC_OFFSET; i++){				// Padding.
+			bytes[i] = 0;
+		}
+		buffer.putInt(CRC_OFFSET, checksum(end));
+		dst.put(bytes, 0, RECORD_SIZE);
+	}
+	
+	public ProbeRecord decode(ByteBuffer src, ProbeRecord reuse) throws IllegalArgumentException{
+		src.get(bytes, 0, RECORD_SIZE);
+		int version = buffer.getShort(0);
+		int length = buffer.getShort(2);
+		if (version <= 0){
+			throw new IllegalArgumentException("Empty record or invalid schema version: " + version);
+		}
+		if (length < 0 || PREFIX_SIZE + length > CRC_OFFSET){
+			throw new IllegalArgumentException("Invalid payload length: " + length);
+		}
+		int end = PREFIX_SIZE + length;
+		if (buffer.getInt(CRC_OFFSET) != checksum(end)){
+			throw new IllegalArgumentException("Bad checksum (record partially written or corrupted)");
+		}
+		
+		ProbeRecord record = (reuse == null?new ProbeRecord():reuse);
+		buffer.clear();
+		buffer.position(PREFIX_SIZE);
+		buffer.limit(end);
+		int previousCount = (reuse == null?0:reuse.getPhaseCount());	// Names of the previous record are reused.
+		record.clear();
+		record.setTimestamp(buffer.getLong());
+		record.setExitCode(buffer.getInt());
+		int phases = buffer.get();
+		if (phases < 0 || phases > ProbeRecord.MAX_PHASES){
+			throw new IllegalArgumentException("Invalid amount of phases: " + phases);
+		}
+		for (int i = 0; i < phases; i++){
+			String name = readName(buffer, (i < previousCount?record.getPhaseName(i):null));
+			record.setPhase(i, name, buffer.getLong());
+		}
+		if (buffer.remaining() >= 8){						// Node counts (schema 1).
+			record.setNodesFree(buffer.getInt());
+			record.setNodesObtained(buffer.getInt());
+		}
+		// Fields appended by newer schemas would be read here, if present.
+		buffer.clear();
+		return record;
+	}
+	
+	private int checksum(int end){
+		crc.reset();
+		crc.update(bytes, 0, end);
+		return (int)crc.getValue();
+	}
+	
+	private static void writeName(String name, ByteBuffer dst){
+		int len = Math.min(name.length(), NAME_BYTES);
+		dst.put((byte)len);
+		for (int i = 0; i < len; i++){
+			char c = name.charAt(i);
+			dst.put((byte)(c < 128?c:'?'));
+		}
+	}
+	
+	/**
+	 * Read a name, reusing the previous String if it has the same content (no allocation). */
+	private static String readName(ByteBuffer src, String previous){
+		int len = src.get();
+		if (len < 0 || len > NAME_BYTES || len > src.remaining()){
+			throw new IllegalArgumentException("Invalid length of phase name: " + len);
+		}
+		int start = src.position();
+		boolean same = (previous != null && previous.length() == len);
+		for (int i = 0; same && i < len; i++){
+			same = (previous.charAt(i) == (char)src.get(start + i));
+		}
+		String ret;
+		if (same){
+			ret = previous;
+		}else{
+			char[] chars = new char[len];
+			for (int i = 0; i < len; i++){
+				chars[i] = (char)src.get(start + i);
+			}
+			ret = new String(chars);
+		}
+		src.position(start + len);
+		return ret;
+	}
+}
@@ -37,14 +37,20 @@
 
 package org.ow2.proactive.nagios.probes.debugger;
 
+import java.util.concurrent.Callable;
+
 import org.ow2.proactive.nagios.common.Arguments;
+import org.ow2.proactive.nagios.common.DeadlineDispatcher;
+import org.ow2.proactive.nagios.common.DeadlineDispatcher.Call;
 import org.ow2.proactive.nagios.common.NagiosMiniStatus;
 import org.ow2.proactive.nagios.common.NagiosReturnObject;
 import org.ow2.proactive.nagios.common.NagiosReturnObjectSummaryMaker;
 import org.ow2.proactive.nagios.common.PANagiosPlugin;
+import org.ow2.proactive.nagios.common.RemainingTime;
 import org.ow2.proactive.nagios.common.TimedStatusTracer;
 import org.ow2.proactive.nagios.probes.debugger.misc.JsonRestRMStatus;
 import org.ow2.proactive.nagios.probes.rest.RestStubProber;
+import org.ow2.proactive.nagios.probes.rm.RMThroughSingleThread;
 import org.ow2.proactive.resourcemanager.common.RMState;
 //import qosprobercore.history.HistoryDataManager;
 
@@ -66,7 +72,6 @@ public class DebugProber extends PANagiosPlugin{
 		args.addNewOption("r", "url-sched", true);						// Url of the Scheduler.
 		args.addNewOption("R", "url-rm", true);							// Url of the RM.
 		args.addNewOption("Z", "url-rest-rm", true);					// Url of the REST API RM.
-		args.addNewOption("W", "history", true);						// History file. Ignored for now. 
 	}
 	
 	/**
@@ -84,66 +89,88 @@ public class DebugProber extends PANagiosPlugin{
 		arguments.checkIsGiven("url-rest-rm");
 		arguments.checkIsGiven("url-rm");
 		arguments.checkIsGiven("user");
-		arguments.checkIsGiven("pass");
-		// arguments.checkIsGiven("history");
+		checkPasswordIsGiven(arguments);
 	}
 	
 	/**
 	 * Probe both scheduler and RM to detect buggy situation.
 	 * @throws Exception */	 
 	public NagiosReturnObject probe(TimedStatusTracer tracer) throws Exception{
-//		HistoryDataManager <HistoryElement> historyManager; 
-//		try{
-//			historyManager = new HistoryDataManager<HistoryElement>(getArgs().getStr("history"));
-//		}catch(Exception e){
-//			return new NagiosReturnObject(RESULT_3_UNKNOWN, "Problem locking history file... " + e.getMessage());
-//		}
-		
-//		HistoryElement history = historyManager.get(new HistoryElement(0));
-
-//		logger.info("History element value: " + history.getData());
-//		historyManager.set(new HistoryElement(history.getData() + 1));
-//		historyManager.release();
-		
 		tracer.finishLastMeasurementAndStartNewOne("time_initializing", "initializing the probe...");
 		
-		RMStubProber rmstub = new RMStubProber();					// We get connected to the RM through this stub. 
-		//SchedulerStubProber schedstub = new SchedulerStubProber();	// We get connected to the Scheduler through this stub.
-		
-		tracer.finishLastMeasurementAndStartNewOne("time_connection_both", "connecting...");
-		rmstub.init(												// We get connected to the RM.
-				getArgs().getStr("url-rm"),  getArgs().getStr("user"), 
-				getArgs().getStr("pass"));	
+		RemainingTime rt = new RemainingTime(getArgs().getInt("critical") * 1000);
 		
-		//schedstub.init(												// We get connected to the Scheduler.
-		//		getArgs().getStr("url-sched"),  getArgs().getStr("user"), 
-		//		getArgs().getStr("pass"));	
-		RestStubProber restrm = new RestStubProber(true);
+		final RestStubProber restrm = new RestStubProber(true);
 		restrm.generateURI(getArgs().getStr("url-rest-rm"));
-		restrm.login(getArgs().getStr("user"), getArgs().getStr("pass"));
-		String rmstatus =  restrm.get("/state");
-		JsonRestRMStatus rmstatus2 = new JsonRestRMStatus(rmstatus);
 		
-		tracer.finishLastMeasurementAndStartNewOne("time_getting_rm_state", "getting RM state...");
-		
-		RMState rmstate = rmstub.getRMState();
-		int freenodes = rmstate.getFreeNodesNumber();	
-		int alivenodes = rmstate.getTotalAliveNodesNumber();	
-		int busynodes = alivenodes - freenodes;	
-		
-		tracer.finishLastMeasurementAndStartNewOne("time_getting_sched_state", "getting scheduler state...");
-		//SchedulerState schedstate = schedstub.getSchedulerState();
-		//int runningjobsnumber = schedstate.getRunningJobs().size();	// Get the list of running jobs.
-		//int pendingjobsnumber = schedstate.getPendingJobs().size();	// Get the list of pending jobs.
-		
-		tracer.finishLastMeasurementAndStartNewOne("time_disconnection", "disconnecting...");
+		RMThroughSingleThread rmstub = new RMThroughSingleThread(tracer);	// We get connected to the RM through this stub. 
+		rmstub.setCredentialsCache(getCredentialsCache());			// Encrypted credentials of previous executions.
+		DeadlineDispatcher restrmstub = 							// And to the RM REST API through this one (both at the same time).
+				new DeadlineDispatcher("rest-rm", tracer);
+		//SchedulerThroughSingleThread schedstub = new SchedulerThroughSingleThread(tracer);	// We get connected to the Scheduler through this stub.
+		
+		final String user = getArgs().getStr("user");
+		final String pass = getPassword();
+		
+		int freenodes, alivenodes, busynodes;
+		final JsonRestRMStatus rmstatus2 = new JsonRestRMStatus();		// Extracted while the state of the RM REST API is read.
+		try{
+			tracer.finishLastMeasurementAndStartNewOne("time_connection_both", "connecting...");
+			
+			Call<Object> rmlogin = rmstub.initAsync(			// We get connected to the RM.
+					getArgs().getStr("url-rm"), user, pass);	
+			Call<Object> restlogin = restrmstub.submit("login",	// And to the RM REST API.
+					new Callable<Object>(){
+						public Object call() throws Exception{
+							restrm.login(user, pass);
+							return null;
+						}
+					});
+			//schedstub.initAsync(								// We get connected to the Scheduler.
+			//		getArgs().getStr("url-sched"), user, pass, false, null);	
+			rmstub.await(rmlogin, rt.getRemainingTimeWE());
+			restrmstub.await(restlogin, rt.getRemainingTimeWE());
+			tracer.addNewReference("time_connection_rm", rmlogin.getElapsed());
+			tracer.addNewReference("time_connection_rest_rm", restlogin.getElapsed());
+			addConnectionTimeSaved(tracer, getArgs().getStr("url-rm"), getArgs().getStr("user"));
+			
+			tracer.finishLastMeasurementAndStartNewOne("time_getting_rm_state", "getting RM state...");
+			
+			Call<RMState> staterm = rmstub.getRMStateAsync();
+			Call<Object> staterestrm = restrmstub.submit("get",
+					new Callable<Object>(){
+						public Object call() throws Exception{
+							restrm.get("/state", rmstatus2.getConsumer());
+							return null;
+						}
+					});
+			RMState rmstate = rmstub.await(staterm, rt.getRemainingTimeWE());
+			restrmstub.await(staterestrm, rt.getRemainingTimeWE());
+			rmstatus2.check();
+			freenodes = rmstate.getFreeNodesNumber();	
+			alivenodes = rmstate.getTotalAliveNodesNumber();	
+			busynodes = alivenodes - freenodes;	
+			
+			tracer.finishLastMeasurementAndStartNewOne("time_getting_sched_state", "getting scheduler state...");
+			//SchedulerState schedstate = schedstub.getSchedulerState(rt.getRemainingTimeWE());
+			//int runningjobsnumber = schedstate.getRunningJobs().size();	// Get the list of running jobs.
+			//int pendingjobsnumber = schedstate.getPendingJobs().size();	// Get the list of pending jobs.
+			
+			tracer.finishLastMeasurementAndStartNewOne("time_disconnection", "disconnecting...");
+			
+			rmstub.disconnect(rt.getRemainingTimeWE());		// Disconnect from the Resource Manager.
+			//schedstub.disconnect(rt.getRemainingTimeWE());	// Disconnect from the Scheduler.
+		}finally{
+			rmstub.shutdown();
+			restrmstub.shutdown();
+			restrm.close();
+		}
+		restrm.addReferences(tracer);								// Connections opened/reused and TLS handshakes to the RM REST API.
+		restrm.addPhaseReferences(tracer, false);					// DNS, connect, TLS, time to first byte and body.
 		
-    	rmstub.disconnect();										// Disconnect from the Resource Manager.
-    	//schedstub.disconnect();										// Disconnect from the Scheduler.
-    				
 		tracer.finishLastMeasurement();
 		
-		NagiosReturnObjectSummaryMaker summary = new NagiosReturnObjectSummaryMaker();  
+		NagiosReturnObjectSummaryMaker summary = newSummaryMaker(tracer);  
 		
 		tracer.addNewReference("free_nodes", freenodes);
 		tracer.addNewReference("alive_nodes", alivenodes);
@@ -152,7 +179,6 @@ public class DebugProber extends PANagiosPlugin{
 		//tracer.addNewReference("running_jobs", pendingjobsnumber);
 		summary.addFact("nodesalive=" + alivenodes + " nodesfreejava=" + freenodes +  " nodesfreerest=" + rmstatus2.getFreeNodes());
 		
-		summary.addMiniStatus(new NagiosMiniStatus(RESULT_0_OK, rmstatus));
 		//if (runningjobsnumber == 0 && busynodes != 0){
 		//	summary.addMiniStatus(new NagiosMiniStatus(RESULT_2_CRITICAL, "no jobs running but " + busynodes + " busy nodes (busy doing what?)"));
 		//}
@@ -40,8 +40,8 @@ package org.ow2.proactive.nagios.probes.debugger;
 import java.security.KeyException;
 import javax.security.auth.login.LoginException;
 import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.common.CredentialsCache;
 import org.objectweb.proactive.core.util.wrapper.BooleanWrapper;
-import org.ow2.proactive.authentication.crypto.CredData;
 import org.ow2.proactive.authentication.crypto.Credentials;
 import org.ow2.proactive.resourcemanager.authentication.RMAuthentication;
 import org.ow2.proactive.resourcemanager.common.RMState;
@@ -55,22 +55,32 @@ public class RMStubProber {
 
 	public static Logger logger = Logger.getLogger(DebugProber.class.getName()); 	// Logger.
 	private ResourceManager rmStub; 											// ResourceManager locally.
+	private volatile CredentialsCache credentialsCache = CredentialsCache.get(null);	// Cache of the encrypted credentials.
 	
 	/**
 	 * Initialize the connection with the remote Resource Manager.
 	 * Uses the url of the RM, and the user/pass to login to it. */
 	public void init(String url, String user, String pass) throws RMException, KeyException, LoginException{
     	logger.info("Joining the Resource Manager at '" + url + "'...");
-        RMAuthentication auth = RMConnection.join(url); 	// Join the RM.
-        logger.info("Done.");
-        logger.info("Creating credentials...");
-        Credentials cred = Credentials.createCredentials(new CredData(user, pass), auth.getPublicKey());
+        final RMAuthentication auth = RMConnection.join(url); 	// Join the RM.
         logger.info("Done.");
         logger.info("Logging in...");
-        rmStub = auth.login(cred);								// Login against the RM.
+        rmStub = credentialsCache.login(url, user, pass, auth, 	// Login against the RM (with cached credentials if possible).
+        		new CredentialsCache.Login<ResourceManager, LoginException>(){
+        	public ResourceManager login(Credentials cred) throws LoginException{
+        		return auth.login(cred);
+        	}
+        });
         logger.info("Done.");
 	}
 	
+	/**
+	 * Set the cache of the encrypted credentials to use to login.
+	 * @param cache the cache. */
+	public void setCredentialsCache(CredentialsCache cache){
+		credentialsCache = cache;
+	}
+	
 	/**
 	 * Release the given set of nodes.
 	 * @return state of the RM. */
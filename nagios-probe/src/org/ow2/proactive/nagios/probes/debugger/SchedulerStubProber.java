@@ -40,17 +40,18 @@ package org.ow2.proactive.nagios.probes.debugger;
 import javax.security.auth.login.LoginException;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.common.CredentialsCache;
 import org.objectweb.proactive.ActiveObjectCreationException;
 import org.objectweb.proactive.core.node.NodeException;
 import org.ow2.proactive.scheduler.common.SchedulerConnection;
 import org.ow2.proactive.scheduler.common.SchedulerState;
+import org.ow2.proactive.scheduler.common.exception.AlreadyConnectedException;
 import org.ow2.proactive.scheduler.common.exception.NotConnectedException;
 import org.ow2.proactive.scheduler.common.exception.PermissionException;
 import org.ow2.proactive.scheduler.common.exception.SchedulerException;
 import org.ow2.proactive.scheduler.common.exception.UnknownJobException;
 import org.ow2.proactive.scheduler.common.job.*;
 import org.ow2.proactive.scheduler.common.Scheduler;
-import org.ow2.proactive.authentication.crypto.CredData;
 import org.ow2.proactive.scheduler.common.SchedulerAuthenticationInterface;
 import java.io.IOException;
 import java.security.KeyException;
@@ -64,6 +65,7 @@ public class SchedulerStubProber {
 	private static Logger logger =
 			Logger.getLogger(SchedulerStubProber.class.getName()); 		// Logger.
 	private Scheduler schedulerStub; 									// Stub to the scheduler.
+	private volatile CredentialsCache credentialsCache = CredentialsCache.get(null);	// Cache of the encrypted credentials.
 	
 	/**
 	 * Constructor method. */
@@ -76,14 +78,25 @@ public class SchedulerStubProber {
 	 * @param pass password to access the scheduler. */
 	public void init(String url, String user, String pass) throws IllegalArgumentException, LoginException, SchedulerException, KeyException, ActiveObjectCreationException, NodeException, HttpException, IOException{
 		logger.info("Joining the scheduler at '" + url + "'...");
-        SchedulerAuthenticationInterface auth = SchedulerConnection.join(url);
+        final SchedulerAuthenticationInterface auth = SchedulerConnection.join(url);
         logger.info("Done.");
         logger.info("Logging in...");
-        Credentials cred = Credentials.createCredentials(new CredData(user, pass), auth.getPublicKey());
-        schedulerStub = auth.login(cred);
+        schedulerStub = credentialsCache.login(url, user, pass, auth, 	// With cached credentials if possible.
+        		new CredentialsCache.Login<Scheduler, AlreadyConnectedException>(){
+        	public Scheduler login(Credentials cred) throws LoginException, AlreadyConnectedException{
+        		return auth.login(cred);
+        	}
+        });
         logger.info("Done.");
 	}
 	
+	/**
+	 * Set the cache of the encrypted credentials to use to login.
+	 * @param cache the cache. */
+	public void setCredentialsCache(CredentialsCache cache){
+		credentialsCache = cache;
+	}
+	
 	/** 
 	 * Return the status of the job (running, finished, etc.). 
 	 * @param jobId the ID of the job. 
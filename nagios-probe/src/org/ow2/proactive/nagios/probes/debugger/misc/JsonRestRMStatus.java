@@ -1,32 +1,61 @@
 package org.ow2.proactive.nagios.probes.debugger.misc;
 
 import java.text.ParseException;
-import java.util.regex.*;
+import org.ow2.proactive.nagios.probes.rest.BodyConsumer;
+import org.ow2.proactive.nagios.probes.rest.JsonNumberExtractor;
 
+/**
+ * Numbers of nodes told by the state of the RM REST API (/state), extracted while the state is read. */
 public class JsonRestRMStatus {
-	private int freeNodes;
+	public static final String FREE = "freeNodesNumber";
+	public static final String ALIVE = "totalAliveNodesNumber";
+	public static final String TOTAL = "totalNodesNumber";
 	
+	private final JsonNumberExtractor extractor = new JsonNumberExtractor(FREE, ALIVE, TOTAL);
+	
+	/**
+	 * Constructor, the state is then given to getConsumer() as it is read. */
+	public JsonRestRMStatus(){}
+	
+	/**
+	 * Constructor for a state already in memory. */
 	public JsonRestRMStatus(String json) throws ParseException{
-		freeNodes = this.parse(json, "\"freeNodesNumber\"");
+		extractor.consume(json);
+		check();
+	}
+	
+	/**
+	 * Get the consumer to give the state to. */
+	public BodyConsumer getConsumer(){
+		return extractor;
+	}
+	
+	/**
+	 * Check the state (once wholly given) tells the amount of free nodes. */
+	public void check() throws ParseException{
+		extractor.finish();
+		if (extractor.getValue(FREE) == null){
+			throw new ParseException("Could not find the field '" + FREE + "' in the state of the RM.", 0);
+		}
 	}
 	
 	public int getFreeNodes(){
-		return freeNodes;
-		
+		return extractor.getValue(FREE).intValue();
+	}
+	
+	/**
+	 * @return the amount of alive nodes, or null if not told. */
+	public Integer getAliveNodes(){
+		return toInteger(extractor.getValue(ALIVE));
+	}
+	
+	/**
+	 * @return the amount of nodes (alive or not), or null if not told. */
+	public Integer getTotalNodes(){
+		return toInteger(extractor.getValue(TOTAL));
 	}
 	
-	private int parse(String text, String key) throws ParseException{
-		// "freeNodesNumber":650		
-		String tocompile = key + ":(\\d+)";
-		Pattern strMatch = Pattern.compile(tocompile);
-        Matcher m = strMatch.matcher(text);
-        
-        if(m.find()){
-            String str = m.group(1);
-            return Integer.valueOf(str);
-        }
-        else{
-            throw new ParseException("Could not match the regex '" + tocompile + "' in text '" + text + "'.",0);
-        }
+	private static Integer toInteger(Double value){
+		return (value == null?null:value.intValue());
 	}
 }
@@ -149,7 +149,7 @@ public class PAMRProber extends PANagiosPlugin{
     	
 		
 		
-		NagiosReturnObjectSummaryMaker summary = new NagiosReturnObjectSummaryMaker();  
+		NagiosReturnObjectSummaryMaker summary = newSummaryMaker(tracer);  
 		
 		if (getArgs().isGiven("warning") && tracer.getTotal() > getArgs().getInt("warning")){ // If it took longer than timeoutwarnsec, throw a warning message.
 			summary.addMiniStatus(new NagiosMiniStatus(RESULT_1_WARNING, "PROBE TOO SLOW"));
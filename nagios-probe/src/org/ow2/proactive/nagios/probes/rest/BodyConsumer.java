@@ -0,0 +1,60 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.rest;
+
+import java.io.IOException;
+
+/**
+ * Consumer of the body of a response, given to it as it is read (so the body is never kept whole in memory 
+ * unless the consumer does it). Once the consumer is done, the rest of the body is only drained so the 
+ * connection can be reused. */
+public interface BodyConsumer {
+	
+	/**
+	 * Consume the next bytes of the body.
+	 * @param buffer buffer with the bytes.
+	 * @param offset offset of the first byte in the buffer.
+	 * @param length amount of bytes. */
+	public void consume(byte[] buffer, int offset, int length) throws IOException;
+	
+	/**
+	 * Tell whether the consumer needs no more bytes of the body (for instance a parser that already found 
+	 * what it looked for).
+	 * @return true if the rest of the body can be drained. */
+	public boolean isDone();
+}
@@ -0,0 +1,75 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.rest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Consumer that only computes the SHA-256 hash of the body (to check a resource without keeping its body). */
+public class HashingBodyConsumer implements BodyConsumer {
+	
+	private final MessageDigest digest;						// Digest of the bytes consumed so far.
+	
+	public HashingBodyConsumer(){
+		try{
+			digest = MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException e){					// Every JVM has SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	public void consume(byte[] buffer, int offset, int length){
+		digest.update(buffer, offset, length);
+	}
+	
+	public boolean isDone(){
+		return false;
+	}
+	
+	/**
+	 * Get the hash of the body (once consumed).
+	 * @return the hash in hexadecimal. */
+	public String getHash(){
+		StringBuilder ret = new StringBuilder();
+		for (byte b: digest.digest()){
+			ret.append(String.format("%02x", b & 0xff));
+		}
+		return ret.toString();
+	}
+}
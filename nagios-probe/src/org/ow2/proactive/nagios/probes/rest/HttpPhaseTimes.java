@@ -0,0 +1,97 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
+
+/**
+ * Network phases of the HTTP requests done by a prober (DNS lookup, TCP connect, TLS handshake, time to 
+ * first byte and body transfer), summed by request. A request that reuses a connection has no DNS, connect 
+ * or TLS time. */
+public class HttpPhaseTimes {
+	
+	public static final int DNS = 0;								// Index of the phases.
+	public static final int CONNECT = 1;
+	public static final int TLS = 2;
+	public static final int TTFB = 3;
+	public static final int BODY = 4;
+	public static final String[] PHASES = 							// Name of the phases in the perfdata.
+		{"dns", "connect", "tls", "ttfb", "body"};
+	
+	private final Map<String, long[]> requests = 					// Time of each phase (ns) by request.
+		new LinkedHashMap<String, long[]>();
+	
+	/**
+	 * Add the phases of a request.
+	 * @param request name of the request (the phases of requests with the same name are summed).
+	 * @param nanos time of each phase (ns), indexed as PHASES. */
+	public synchronized void add(String request, long[] nanos){
+		long[] sum = requests.get(request);
+		if (sum == null){
+			sum = new long[PHASES.length];
+			requests.put(request, sum);
+		}
+		for (int i = 0; i < PHASES.length; i++){
+			sum[i] += nanos[i];
+		}
+	}
+	
+	/**
+	 * Add the phases to the perfdata, either summed over all the requests (time_http_dns, ...) 
+	 * or by request (time_http_login_dns, ...).
+	 * @param tracer tracer of the probe.
+	 * @param perRequest if true, the phases are told for each request. */
+	public synchronized void addReferences(TimedStatusTracer tracer, boolean perRequest){
+		long[] total = new long[PHASES.length];
+		for (Map.Entry<String, long[]> request: requests.entrySet()){
+			for (int i = 0; i < PHASES.length; i++){
+				if (perRequest){
+					tracer.addNewReference("time_http_" + request.getKey() + "_" + PHASES[i], request.getValue()[i] / 1e9);
+				}
+				total[i] += request.getValue()[i];
+			}
+		}
+		if (perRequest == false){
+			for (int i = 0; i < PHASES.length; i++){
+				tracer.addNewReference("time_http_" + PHASES[i], total[i] / 1e9);
+			}
+		}
+	}
+}
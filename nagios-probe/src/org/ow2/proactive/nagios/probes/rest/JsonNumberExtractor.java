@@ -0,0 +1,235 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.rest;
+
+/**
+ * Streaming extractor of numeric fields of a JSON document. The document is given chunk by chunk (it is a 
+ * BodyConsumer), and read in a single pass without building it whole nor its tree: the value of the first 
+ * occurrence of each field looked for (at any depth, like "freeNodesNumber":650) is kept. Once all the 
+ * fields are found, it needs no more bytes. */
+public class JsonNumberExtractor implements BodyConsumer {
+	
+	private static final int SCANNING = 0;					// Outside strings, looking for the start of a string.
+	private static final int IN_STRING = 1;					// Inside a string (maybe a field name).
+	private static final int IN_ESCAPE = 2;					// After a backslash inside a string.
+	private static final int AFTER_STRING = 3;				// After a string, a colon makes it a field name.
+	private static final int BEFORE_VALUE = 4;				// After the colon of a field looked for.
+	private static final int IN_NUMBER = 5;					// Inside the value of a field looked for.
+	
+	private final String[] fields;							// Fields looked for.
+	private final Double[] values;							// Their value (null if not found yet).
+	private int missing;									// Amount of fields not found yet.
+	
+	private int state = SCANNING;
+	private final char[] string;							// Current string (if it may be a field looked for), as long as the longest field.
+	private int stringLength;								// Length of the current string.
+	private boolean stringTooLong;							// True if the current string cannot be a field looked for.
+	private int field;										// Index of the field whose value is being read.
+	private final StringBuilder number = new StringBuilder();	// Value being read.
+	
+	/**
+	 * Constructor.
+	 * @param fields name of the fields to extract. */
+	public JsonNumberExtractor(String... fields){
+		this.fields = fields.clone();
+		values = new Double[fields.length];
+		int max = 0;
+		for (String f: fields){
+			max = Math.max(max, f.length());
+		}
+		string = new char[max];
+		missing = fields.length;
+	}
+	
+	public void consume(byte[] buffer, int offset, int length){
+		int end = offset + length;
+		int i = offset;
+		while (i < end){
+			if (state == SCANNING){							// Fast paths: most of the bytes are skipped.
+				while (i < end && buffer[i] != '"'){
+					i++;
+				}
+			}else if (state == IN_STRING && stringTooLong){
+				while (i < end && buffer[i] != '"' && buffer[i] != '\\'){
+					i++;
+				}
+			}else if (state == IN_STRING){
+				while (i < end && buffer[i] != '"' && buffer[i] != '\\' && stringLength < string.length){
+					string[stringLength++] = (char)(buffer[i++] & 0xff);
+				}
+			}
+			if (i < end){
+				consume((char)(buffer[i] & 0xff));			// Field names are ASCII, the rest of the bytes (UTF-8) only go through strings.
+				i++;
+			}
+		}
+	}
+	
+	/**
+	 * Consume the given text (for a document already in memory).
+	 * @param text text of the document, or part of it. */
+	public void consume(String text){
+		int end = text.length();
+		int i = 0;
+		while (i < end){
+			if (state == SCANNING){							// Fast paths (as for the bytes).
+				i = text.indexOf('"', i);
+				if (i < 0){
+					return;
+				}
+			}
+			consume(text.charAt(i));
+			i++;
+		}
+	}
+	
+	private void consume(char c){
+		switch (state){
+		case IN_STRING:
+			if (c == '"'){
+				state = AFTER_STRING;
+			}else if (c == '\\'){
+				state = IN_ESCAPE;
+				stringTooLong = true;						// No field looked for has escapes.
+			}else if (stringTooLong == false){
+				if (stringLength < string.length){
+					string[stringLength++] = c;
+				}else{
+					stringTooLong = true;
+				}
+			}
+			return;
+		case IN_ESCAPE:
+			state = IN_STRING;
+			return;
+		case AFTER_STRING:
+			if (isWhitespace(c)){
+				return;
+			}
+			if (c == ':' && stringTooLong == false){
+				field = findMissingField();
+				if (field >= 0){
+					state = BEFORE_VALUE;
+					return;
+				}
+			}
+			state = SCANNING;
+			break;											// The character is scanned as any other.
+		case BEFORE_VALUE:
+			if (isWhitespace(c)){
+				return;
+			}
+			if (c == '-' || (c >= '0' && c <= '9')){
+				number.setLength(0);
+				number.append(c);
+				state = IN_NUMBER;
+				return;
+			}
+			state = SCANNING;								// Not a number (string, object...).
+			break;
+		case IN_NUMBER:
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-'){
+				number.append(c);
+				return;
+			}
+			finishNumber();
+			break;
+		}
+		if (c == '"'){										// SCANNING.
+			stringLength = 0;
+			stringTooLong = false;
+			state = IN_STRING;
+		}
+	}
+	
+	/**
+	 * Get the field looked for (and not found yet) named as the current string.
+	 * @return its index, or -1 if none. */
+	private int findMissingField(){
+		for (int f = 0; f < fields.length; f++){
+			if (values[f] == null && fields[f].length() == stringLength){
+				int i = 0;
+				while (i < stringLength && fields[f].charAt(i) == string[i]){
+					i++;
+				}
+				if (i == stringLength){
+					return f;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	private void finishNumber(){
+		state = SCANNING;
+		try{
+			values[field] = Double.parseDouble(number.toString());
+			missing--;
+		}catch(NumberFormatException e){					// Not a valid number, the field is still missing.
+		}
+	}
+	
+	private static boolean isWhitespace(char c){
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+	
+	public boolean isDone(){
+		return missing == 0;
+	}
+	
+	/**
+	 * Tell that the whole document was consumed (a number may end it).  */
+	public void finish(){
+		if (state == IN_NUMBER){
+			finishNumber();
+		}
+	}
+	
+	/**
+	 * Get the value of a field.
+	 * @param field name of the field.
+	 * @return its value, or null if it was not found. */
+	public Double getValue(String field){
+		for (int f = 0; f < fields.length; f++){
+			if (fields[f].equals(field)){
+				return values[f];
+			}
+		}
+		return null;
+	}
+}
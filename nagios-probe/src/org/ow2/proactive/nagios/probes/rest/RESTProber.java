@@ -42,6 +42,7 @@ import org.ow2.proactive.nagios.common.ElementalNagiosPlugin;
 import org.ow2.proactive.nagios.common.NagiosMiniStatus;
 import org.ow2.proactive.nagios.common.NagiosReturnObject;
 import org.ow2.proactive.nagios.common.NagiosReturnObjectSummaryMaker;
+import org.ow2.proactive.nagios.common.RemainingTime;
 import org.ow2.proactive.nagios.common.TimedStatusTracer;
 
 /**
@@ -50,10 +51,13 @@ import org.ow2.proactive.nagios.common.TimedStatusTracer;
  * - Login to the scheduler (if no --avoidlogin flag present). 
  * - Get the version of the REST API.
  * - Get the isconnected REST resource response (if no --avoidlogin flag present).
+ * - Request the resources of the sweep, all at the same time (if --sweep). 
  * - Logout from the scheduler (if no --avoidlogin flag present). 
  * - If everything was correctly obtained, then no problem is told. 
  */
 public class RESTProber extends ElementalNagiosPlugin{
+	public static final double SWEEP_BUDGET = 0.8;		// Fraction of the remaining time that the sweep can use (the rest is kept to disconnect).
+	
 	/** 
 	 * Constructor of the prober. The map contains all the arguments for the probe to be executed. 
 	 * @param args arguments to create this JobProber. 
@@ -66,6 +70,12 @@ public class RESTProber extends ElementalNagiosPlugin{
 		args.addNewOption("r", "url", true);			// Url of the Scheduler/RM.
 		args.addNewOption("A", "avoidlogin", false);	// Avoid login (result of the probe based only on the response of the REST API).  
 		args.addNewOption("k", "skipauth", false);		// Skip https authentication checking.
+		args.addNewOption("E", "http-phases-per-request", false);	// Tell the network phases of each request (not summed).
+		args.addNewOption("G", "sweep", true);			// Resources of the REST API to request at the same time.
+		args.addNewOption("D", "sweep-body", true, 
+				RestSweep.BODY_DISCARD);				// What to do with the bodies of the sweep (discard or hash).
+		args.addNewOption("M", "max-response-bytes", true, 
+				new Integer((int)RestStubProber.MAX_RESPONSE_BYTES_DEFAULT));	// Max size of the body of a response.
 	}
 	
 	/**
@@ -88,8 +98,13 @@ public class RESTProber extends ElementalNagiosPlugin{
 		
 		if (getArgs().getBoo("avoidlogin") == false){
 			arguments.checkIsGiven("user");
-			arguments.checkIsGiven("pass");
+			checkPasswordIsGiven(arguments);
+		}
+		if (arguments.isGiven("sweep")){
+			new RestSweep(arguments.getStr("sweep")).setBodyMode(	// Fails if the list of resources or the mode is not valid.
+					arguments.getStr("sweep-body"));
 		}
+		arguments.checkIsValidInt("max-response-bytes", 1, Integer.MAX_VALUE);
 	}
 	
 	/**
@@ -106,35 +121,60 @@ public class RESTProber extends ElementalNagiosPlugin{
 		tracer.finishLastMeasurementAndStartNewOne("time_initializing", "TIMEOUT reached while initializing the probe, no connection with REST API was attempted...");
 		
 		RestStubProber reststub = new RestStubProber(getArgs().getBoo("skipauth"));	// We create directly the stub prober.
+		reststub.setMaxResponseBytes(getArgs().getInt("max-response-bytes"));
 		
-		reststub.generateURI(											// We get connected to the server...
-				getArgs().getStr("url"));	
-		
-		if (getArgs().getBoo("avoidlogin") == false){
-			tracer.finishLastMeasurementAndStartNewOne("time_login", "TIMEOUT reached while performing LOGIN to the scheduler through REST API...");
-			reststub.login(											// We login in the Scheduler.
-					getArgs().getStr("user"), 
-					getArgs().getStr("pass"));	
+		RemainingTime rt = new RemainingTime(getArgs().getInt("critical") * 1000);
+		RestSweep sweep = null;
+		if (getArgs().isGiven("sweep")){
+			sweep = new RestSweep(getArgs().getStr("sweep"));
+			sweep.setBodyMode(getArgs().getStr("sweep-body"));
 		}
 		
-		tracer.finishLastMeasurementAndStartNewOne("time_transactions", "already logged in to the REST API, but TIMEOUT reached while asking [ISCONNECTED and] VERSION to the REST API...");
-		
 		Boolean connected = false; 
-		if (getArgs().getBoo("avoidlogin") == false){
-			connected = reststub.isConnected();						// Check whether we are connected or not to the scheduler.
-		}
-		
-		String version = reststub.getVersion();						// Get the version of the REST API.
-	    logger.info("Version: " + version);
-		
-		if (getArgs().getBoo("avoidlogin") == false){
-			tracer.finishLastMeasurementAndStartNewOne("time_disconnection", "already logged in to the REST API, but TIMEOUT reached while DISCONNECTING from it...");
-			reststub.disconnect();									// Getting disconnected from the Scheduler.
+		try{
+			reststub.generateURI(											// We get connected to the server...
+					getArgs().getStr("url"));	
+			
+			if (getArgs().getBoo("avoidlogin") == false){
+				tracer.finishLastMeasurementAndStartNewOne("time_login", "TIMEOUT reached while performing LOGIN to the scheduler through REST API...");
+				reststub.login(											// We login in the Scheduler.
+						getArgs().getStr("user"), 
+						getPassword());	
+			}
+			
+			tracer.finishLastMeasurementAndStartNewOne("time_transactions", "already logged in to the REST API, but TIMEOUT reached while asking [ISCONNECTED and] VERSION to the REST API...");
+			
+			if (getArgs().getBoo("avoidlogin") == false){
+				connected = reststub.isConnected();						// Check whether we are connected or not to the scheduler.
+			}
+			
+			String version = reststub.getVersion();						// Get the version of the REST API.
+		    logger.info("Version: " + version);
+			
+			if (sweep != null){
+				tracer.finishLastMeasurementAndStartNewOne("time_sweep", "already logged in to the REST API, but TIMEOUT reached while requesting the resources of the sweep...");
+				sweep.run(reststub, (long)(rt.getRemainingTimeWE() * SWEEP_BUDGET));	// All at the same time, through the same session.
+			}
+			
+			if (getArgs().getBoo("avoidlogin") == false){
+				tracer.finishLastMeasurementAndStartNewOne("time_disconnection", "already logged in to the REST API, but TIMEOUT reached while DISCONNECTING from it...");
+				reststub.disconnect();									// Getting disconnected from the Scheduler.
+			}
+		}finally{
+			reststub.close();										// Connections of the pool.
 		}
+		reststub.addReferences(tracer);								// Connections opened/reused and TLS handshakes.
+		reststub.addPhaseReferences(tracer, 						// DNS, connect, TLS, time to first byte and body.
+				getArgs().getBoo("http-phases-per-request"));
 		
 		tracer.finishLastMeasurement();
 	
-		NagiosReturnObjectSummaryMaker summary = new NagiosReturnObjectSummaryMaker();  
+		NagiosReturnObjectSummaryMaker summary = newSummaryMaker(tracer);  
+		
+		if (sweep != null){
+			sweep.addReferences(tracer);							// Latency, status and size of each resource.
+			summary.addMiniStatusSource(sweep);						// Each resource has its own status.
+		}
 		
 		if (getArgs().getBoo("avoidlogin") == false){
 			//summary.addFact("Connected:" + connected);
@@ -0,0 +1,84 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.rest;
+
+/**
+ * Response of a request done to the REST API: its status and its body. */
+public class RestResponse {
+	
+	private final int statusCode;							// HTTP status code.
+	private final String reason;							// Reason phrase of the status.
+	private final String body;								// Body of the response (null if not kept).
+	private final long bytes;								// Size of the body read (bytes).
+	private final boolean truncated;						// True if the body was larger than the size allowed (and not fully read).
+	
+	/**
+	 * Constructor.
+	 * @param statusCode HTTP status code.
+	 * @param reason reason phrase of the status.
+	 * @param body body of the response (null if not kept).
+	 * @param bytes size of the body read (bytes).
+	 * @param truncated true if the body was larger than the size allowed. */
+	public RestResponse(int statusCode, String reason, String body, long bytes, boolean truncated){
+		this.statusCode = statusCode;
+		this.reason = reason;
+		this.body = body;
+		this.bytes = bytes;
+		this.truncated = truncated;
+	}
+	
+	public int getStatusCode(){
+		return statusCode;
+	}
+	
+	public String getReason(){
+		return reason;
+	}
+	
+	public String getBody(){
+		return body;
+	}
+	
+	public long getBytes(){
+		return bytes;
+	}
+	
+	public boolean isTruncated(){
+		return truncated;
+	}
+}
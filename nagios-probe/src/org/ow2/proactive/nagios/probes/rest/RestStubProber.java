@@ -37,36 +37,46 @@
 
 package org.ow2.proactive.nagios.probes.rest;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.security.InvalidParameterException;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSocket;
 import org.apache.log4j.Logger;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.HttpInetSocketAddress;
+import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeLayeredSocketFactory;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SchemeSocketFactory;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.conn.ssl.TrustStrategy;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
 import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
 import org.apache.commons.codec.binary.StringUtils;
-import org.apache.commons.io.IOUtils;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
 
 /** 
  * Class that connects the test with the real scheduler, works as a stub. 
@@ -76,17 +86,34 @@ import org.apache.commons.io.IOUtils;
 public class RestStubProber{
 	private static final int OK = 200;
 	private static final int OKNONOTIF = 204;
+	private static final int BUFFER_SIZE = 8192;										// Size of the chunks the bodies are read by.
+	public static final long MAX_RESPONSE_BYTES_DEFAULT = 16 * 1024 * 1024;			// Default max size of the body of a response.
 	private static Logger logger = Logger.getLogger(RestStubProber.class.getName()); 	// Logger.
+	private static SSLSocketFactory insecureSocketFactory = null;						// SSL socket factory that trusts any certificate (built once).
 	
 	/** REST attributes. */
 	private String sessionId = null; 					// For the REST protocol, it defines the ID of the session.
 	private URI uri; 									// It defines the URI used as a suffix to get the final URL for the REST server.
-	private boolean skipauthentication;					// If true, no https authentication is checked.
+	private final DefaultHttpClient client;				// Client (with a pool of keep-alive connections) used for all the requests.
+	private final AtomicInteger requests = new AtomicInteger();			// Amount of requests executed.
+	private final AtomicInteger connectionsOpened = new AtomicInteger();	// Amount of connections opened (the rest of requests reused one).
+	private final AtomicInteger handshakes = new AtomicInteger();			// Amount of TLS handshakes.
+	private final HttpPhaseTimes phases = new HttpPhaseTimes();				// Network phases of the requests.
+	private final ThreadLocal<long[]> currentPhases = new ThreadLocal<long[]>();	// Phases of the request being executed by the thread.
+	private final AtomicLong bytesRead = new AtomicLong();					// Bytes of the bodies read.
+	private final AtomicLong drainNanos = new AtomicLong();					// Time spent reading bodies not needed (ns).
+	private volatile long maxResponseBytes = MAX_RESPONSE_BYTES_DEFAULT;	// Max size of a body (the request is aborted beyond).
 	
 	/**
-	 * Constructor method. */
-	public RestStubProber(boolean skipauthentication){
-		this.skipauthentication = skipauthentication;
+	 * Constructor method. 
+	 * @param skipauthentication if true, no https authentication is checked. */
+	public RestStubProber(boolean skipauthentication) throws Exception{
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", 80, 
+				new CountingSocketFactory(PlainSocketFactory.getSocketFactory())));
+		registry.register(new Scheme("https", 443, 
+				new CountingLayeredSocketFactory(skipauthentication?getInsecureSocketFactory():SSLSocketFactory.getSocketFactory())));
+		client = new DefaultHttpClient(new PoolingClientConnectionManager(registry, new TimingDnsResolver()));
 	}
 	
 	/** 
@@ -116,9 +143,7 @@ public class RestStubProber{
         HttpPost request = new HttpPost(loginurl);
         StringEntity entity = new StringEntity("username=" + user + "&password=" + pass, ContentType.APPLICATION_FORM_URLENCODED);
         request.setEntity(entity);
-        HttpResponse response = execute(request);
-        chechResponseIsOK(response, "Bad response for method POST on '" + request.getURI().toString() + "'.");
-        sessionId = getStringFromResponse(response);
+        sessionId = execute(request, "Bad response for method POST on '" + request.getURI().toString() + "'.");
 	    logger.info("Done.");
     }
 
@@ -129,9 +154,7 @@ public class RestStubProber{
 	public Boolean isConnected() throws Exception{
 	    logger.info("Checking if connected...");
         HttpGet request = new HttpGet(uri.toString() + "/isconnected");
-        HttpResponse response = execute(request);
-        String responsestr = getStringFromResponse(response);
-        chechResponseIsOK(response, "Bad response for method GET on '" + request.getURI().toString() + "'.");
+        String responsestr = execute(request, "Bad response for method GET on '" + request.getURI().toString() + "'.");
 	    logger.info("IsConnected result: " + responsestr);
 	    logger.info("Done.");
 		return Boolean.parseBoolean(responsestr);
@@ -144,9 +167,7 @@ public class RestStubProber{
 	public String getVersion() throws Exception{
 	    logger.info("Getting version...");
         HttpGet request = new HttpGet(uri.toString() + "/version");
-        HttpResponse response = execute(request);
-        chechResponseIsOK(response, "Bad response for method GET on '" + request.getURI().toString() + "'.");
-        String responsestr = getStringFromResponse(response);
+        String responsestr = execute(request, "Bad response for method GET on '" + request.getURI().toString() + "'.");
 	    logger.info("Version result: " + responsestr);
 	    logger.info("Done.");
 		return responsestr;
@@ -159,14 +180,75 @@ public class RestStubProber{
 	public String get(String resource) throws Exception{
 	    logger.info("Asking for " + uri.toString() + resource);
         HttpGet request = new HttpGet(uri.toString() + resource);
-        HttpResponse response = execute(request);
-        chechResponseIsOK(response, "Bad response for method GET on '" + request.getURI().toString() + "'.");
-        String responsestr = getStringFromResponse(response);
+        String responsestr = execute(request, "Bad response for method GET on '" + request.getURI().toString() + "'.");
 	    logger.info("Result: " + responsestr);
 	    logger.info("Done.");
 		return responsestr;
 	}
 
+	/**
+	 * Perform a standard GET, giving the body to the given consumer as it is read (the body is not kept). 
+	 * @param resource resource, relative to the URI of the API. 
+	 * @param consumer consumer of the body. 
+	 * @throws Exception if the response is not OK, or too large. */
+	public void get(String resource, BodyConsumer consumer) throws Exception{
+	    logger.info("Asking for " + uri.toString() + resource);
+        HttpGet request = new HttpGet(uri.toString() + resource);
+        String errormsg = "Bad response for method GET on '" + request.getURI().toString() + "'.";
+        RestResponse response = send(request, consumer);
+        chechResponseIsOK(response, errormsg);
+        if (response.isTruncated()){
+        	throw new IOException(errormsg + " Response larger than " + maxResponseBytes + " bytes.");
+        }
+	    logger.info("Done (" + response.getBytes() + " bytes).");
+	}
+
+	/**
+	 * Perform a GET, whatever the status of the response.
+	 * @param resource resource, relative to the URI of the API (or an absolute URL, for instance of the RM REST API). 
+	 * @return the response. 
+	 * @throws Exception */
+	public RestResponse fetch(String resource) throws Exception{
+	    logger.info("Fetching " + getURI(resource));
+        RestResponse response = send(new HttpGet(getURI(resource)), new KeepingBodyConsumer());
+	    logger.info("Done (" + response.getStatusCode() + ", " + response.getBytes() + " bytes).");
+		return response;
+	}
+	
+	/**
+	 * Perform a GET whatever the status of the response, giving its body to the given consumer as it is read 
+	 * (the body is not kept).
+	 * @param resource resource, relative to the URI of the API (or an absolute URL, for instance of the RM REST API). 
+	 * @param consumer consumer of the body (null to discard it). 
+	 * @return the response (without body). 
+	 * @throws Exception */
+	public RestResponse fetch(String resource, BodyConsumer consumer) throws Exception{
+	    logger.info("Fetching " + getURI(resource));
+        RestResponse response = send(new HttpGet(getURI(resource)), consumer);
+	    logger.info("Done (" + response.getStatusCode() + ", " + response.getBytes() + " bytes).");
+		return response;
+	}
+	
+	/**
+	 * Set the max size of the body of a response: the request is aborted once reached (and its response told as truncated). 
+	 * @param max max size (bytes). */
+	public void setMaxResponseBytes(long max){
+		maxResponseBytes = max;
+	}
+	
+	private URI getURI(String resource){
+		return (resource.contains("://")?URI.create(resource):URI.create(uri.toString() + resource));
+	}
+	
+	/**
+	 * Set the maximum amount of connections open at the same time (to do requests concurrently). 
+	 * @param max amount of connections. */
+	public void setMaxConnections(int max){
+		PoolingClientConnectionManager mgr = (PoolingClientConnectionManager)client.getConnectionManager();
+		mgr.setMaxTotal(Math.max(max, mgr.getMaxTotal()));
+		mgr.setDefaultMaxPerRoute(max);
+	}
+
 	/** 
 	 * Disconnect from the Scheduler. 
 	 * @throws IOException 
@@ -174,11 +256,37 @@ public class RestStubProber{
 	public void disconnect() throws Exception{	
 	    logger.info("Disconnecting...");
         HttpPut request = new HttpPut(uri.toString() + "/disconnect");
-        HttpResponse response = execute(request);
-        chechResponseIsOK(response, "Bad response for method PUT on '" + request.getURI().toString() + "'.");
+        execute(request, "Bad response for method PUT on '" + request.getURI().toString() + "'.");
 	    logger.info("Done.");
 	}
 
+	/**
+	 * Add to the perfdata the bytes of the bodies read and the time spent reading bodies not needed 
+	 * (http_bytes_read, time_http_drain), the connections opened and reused by the requests done so far, and 
+	 * the TLS handshakes done (connections_opened, connections_reused, tls_handshakes).
+	 * @param tracer tracer of the probe. */
+	public void addReferences(TimedStatusTracer tracer){
+		tracer.addNewReference("http_bytes_read", bytesRead.get());
+		tracer.addNewReference("time_http_drain", drainNanos.get() / 1e9);
+		tracer.addNewReference("connections_opened", connectionsOpened.get());
+		tracer.addNewReference("connections_reused", Math.max(0, requests.get() - connectionsOpened.get()));
+		tracer.addNewReference("tls_handshakes", handshakes.get());
+	}
+	
+	/**
+	 * Add to the perfdata the network phases of the requests done so far (see HttpPhaseTimes).
+	 * @param tracer tracer of the probe.
+	 * @param perRequest if true, the phases are told for each request, otherwise they are summed. */
+	public void addPhaseReferences(TimedStatusTracer tracer, boolean perRequest){
+		phases.addReferences(tracer, perRequest);
+	}
+	
+	/**
+	 * Close all the connections of this prober. */
+	public void close(){
+		client.getConnectionManager().shutdown();
+	}
+	
 	private static class RelaxedTrustStrategy implements TrustStrategy {
         @Override
         public boolean isTrusted(X509Certificate[] arg0, String arg1)
@@ -187,57 +295,262 @@ public class RestStubProber{
         }
     }
 	
-   protected static HttpClient threadSafeClient() {
-        DefaultHttpClient client = new DefaultHttpClient();
-        ClientConnectionManager mgr = client.getConnectionManager();
-        HttpParams params = client.getParams();
-        client = new DefaultHttpClient(new PoolingClientConnectionManager(
-                mgr.getSchemeRegistry()), params);
-        return client;
-    }
- 
-   public static void setInsecureAccess(HttpClient client)
-            throws KeyManagementException, UnrecoverableKeyException,
-            NoSuchAlgorithmException, KeyStoreException {
-
-        SSLSocketFactory socketFactory = new SSLSocketFactory(
+	/**
+	 * Add the time elapsed since start to the given phase of the request being executed by the current thread. */
+	private void addPhase(int phase, long start){
+		long[] current = currentPhases.get();
+		if (current != null){
+			current[phase] += System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	 * DNS resolver that measures the lookups. */
+	private class TimingDnsResolver implements DnsResolver {
+		private final DnsResolver resolver = new SystemDefaultDnsResolver();
+		
+		public InetAddress[] resolve(String host) throws UnknownHostException {
+			long start = System.nanoTime();
+			try{
+				return resolver.resolve(host);
+			}finally{
+				addPhase(HttpPhaseTimes.DNS, start);
+			}
+		}
+	}
+	
+	/**
+	 * Socket factory that counts the connections opened (and the TLS handshakes done) through another one. */
+	private class CountingSocketFactory implements SchemeSocketFactory {
+		protected final SchemeSocketFactory factory;
+		
+		CountingSocketFactory(SchemeSocketFactory factory){
+			this.factory = factory;
+		}
+		
+		public Socket createSocket(HttpParams params) throws IOException {
+			return factory.createSocket(params);
+		}
+		
+		public Socket connectSocket(Socket sock, InetSocketAddress remoteAddress, InetSocketAddress localAddress, 
+				HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+			connectionsOpened.incrementAndGet();
+			long start = System.nanoTime();
+			try{
+				return factory.connectSocket(sock, remoteAddress, localAddress, params);
+			}finally{
+				addPhase(HttpPhaseTimes.CONNECT, start);
+			}
+		}
+		
+		public boolean isSecure(Socket sock) throws IllegalArgumentException {
+			return factory.isSecure(sock);
+		}
+		
+	}
+	
+	/**
+	 * Same for a TLS socket factory. The TCP connection is done apart (as for http), and then TLS is put on 
+	 * top of it, so the connection and the TLS handshake are measured separately. */
+	private class CountingLayeredSocketFactory extends CountingSocketFactory implements SchemeLayeredSocketFactory {
+		private final SchemeSocketFactory plain = PlainSocketFactory.getSocketFactory();
+		
+		CountingLayeredSocketFactory(SchemeLayeredSocketFactory factory){
+			super(factory);
+		}
+		
+		public Socket createSocket(HttpParams params) throws IOException {
+			return plain.createSocket(params);
+		}
+		
+		public Socket connectSocket(Socket sock, InetSocketAddress remoteAddress, InetSocketAddress localAddress, 
+				HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+			connectionsOpened.incrementAndGet();
+			long start = System.nanoTime();
+			Socket connected;
+			try{
+				connected = plain.connectSocket(sock, remoteAddress, localAddress, params);
+			}finally{
+				addPhase(HttpPhaseTimes.CONNECT, start);
+			}
+			String target = (remoteAddress instanceof HttpInetSocketAddress?
+					((HttpInetSocketAddress)remoteAddress).getHttpHost().getHostName():remoteAddress.getHostName());
+			return createLayeredSocket(connected, target, remoteAddress.getPort(), params);
+		}
+		
+		public Socket createLayeredSocket(Socket socket, String target, int port, HttpParams params) 
+				throws IOException, UnknownHostException {
+			long start = System.nanoTime();
+			try{
+				Socket sock = ((SchemeLayeredSocketFactory)factory).createLayeredSocket(socket, target, port, params);
+				((SSLSocket)sock).getSession();					// No-op if already done (the hostname verifier does it).
+				handshakes.incrementAndGet();
+				return sock;
+			}finally{
+				addPhase(HttpPhaseTimes.TLS, start);
+			}
+		}
+	}
+	
+	/**
+	 * Get the SSL socket factory that trusts any certificate. It is built once, so its SSL context (and the TLS 
+	 * sessions it caches) is reused by all the probers. */
+	private static synchronized SSLSocketFactory getInsecureSocketFactory() throws Exception {
+		if (insecureSocketFactory == null){
+			insecureSocketFactory = new SSLSocketFactory(
                 new RelaxedTrustStrategy(),
                 SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-        Scheme https = new Scheme("https", 443, socketFactory);
-        client.getConnectionManager().getSchemeRegistry().register(https);
+		}
+		return insecureSocketFactory;
+	}
+    
+	/**
+	 * Execute the given request and check its response is OK.
+	 * @param request request to execute.
+	 * @param errormsg message of the exception thrown if the response is not OK. 
+	 * @return the body of the response. */
+    private String execute(HttpUriRequest request, String errormsg) throws Exception {
+        RestResponse response = send(request, new KeepingBodyConsumer());
+        chechResponseIsOK(response, errormsg);
+        if (response.isTruncated()){
+        	throw new IOException(errormsg + " Response larger than " + maxResponseBytes + " bytes.");
+        }
+        return response.getBody();
     }
     
-    private HttpResponse execute(HttpUriRequest request) throws Exception {
+	/**
+	 * Execute the given request (through a pooled connection) and read its response, so the connection goes back 
+	 * to the pool to be reused by the next request.
+	 * @param request request to execute.
+	 * @param consumer consumer of the body (null to discard it). If it is a KeepingBodyConsumer, the body is 
+	 * kept in the response.
+	 * @return the response (whatever its status). */
+    private RestResponse send(HttpUriRequest request, BodyConsumer consumer) throws Exception {
         if (sessionId != null) {
             request.setHeader("sessionId", sessionId);
         }
-        HttpClient client = threadSafeClient();
+        requests.incrementAndGet();
+        long[] times = new long[HttpPhaseTimes.PHASES.length];
+        currentPhases.set(times);
+        long start = System.nanoTime();
+        HttpResponse response;
+        long[] read;
         try {
-            if (skipauthentication == true) {
-                setInsecureAccess(client);
+            try {
+                response = client.execute(request);
+            } catch (Exception e) {
+                request.abort();
+                throw e;
+            } finally {										// From the request sent to the headers received.
+                times[HttpPhaseTimes.TTFB] = System.nanoTime() - start 
+                	- times[HttpPhaseTimes.DNS] - times[HttpPhaseTimes.CONNECT] - times[HttpPhaseTimes.TLS];
+            }
+            long body = System.nanoTime();
+            try {
+                read = readBody(request, response, consumer);
+            } catch (Exception e) {
+                request.abort();							// Partially read connection, not reusable.
+                throw e;
+            } finally {
+                times[HttpPhaseTimes.BODY] = System.nanoTime() - body;
             }
-            HttpResponse response = client.execute(request);
-            return response;
-        } catch (Exception e) {
-            throw e;
         } finally {
-            ((HttpRequestBase) request).releaseConnection();
+            currentPhases.remove();
+            phases.add(getRequestName(request), times);
         }
+        String body = (consumer instanceof KeepingBodyConsumer?((KeepingBodyConsumer)consumer).getBody():null);
+        return new RestResponse(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), 
+        		body, read[0], read[1] != 0);
     }	
 	
-	private String getStringFromResponse(HttpResponse response) throws IllegalStateException, IOException{
+	/**
+	 * Get the name of the request in the perfdata: its path relative to the URI of the API (like 'login' or 'state'). */
+	private String getRequestName(HttpUriRequest request){
+		return getPathName(request.getURI().getPath());
+	}
+	
+	/**
+	 * Get the name of the given resource of the API (as in the perfdata, like 'state' for '/state').
+	 * @param resource resource, relative to the URI of the API (or an absolute URL). 
+	 * @return the name. */
+	public String getResourceName(String resource){
+		return getPathName(getURI(resource).getPath());
+	}
+	
+	private String getPathName(String path){
+		if (path.startsWith(uri.getPath())){
+			path = path.substring(uri.getPath().length());
+		}
+		String name = path.replaceAll("^/+", "").replaceAll("[^A-Za-z0-9]+", "_").toLowerCase();
+		return (name.length() == 0?"root":name);
+	}
+	
+	/**
+	 * Read the body of the response chunk by chunk, giving it to the consumer until it is done, and draining 
+	 * the rest so the connection goes back to the pool. If the body is larger than the max size allowed, the 
+	 * request is aborted (the connection is closed).
+	 * @return the amount of bytes read, and 1 if the body was truncated (0 otherwise). */
+	private long[] readBody(HttpUriRequest request, HttpResponse response, BodyConsumer consumer) throws IOException{
+		if (response.getEntity() == null){					// No body (204).
+			return new long[]{0, 0};
+		}
         InputStream inputStream = response.getEntity().getContent();
-        byte[] buffer = IOUtils.toByteArray(inputStream);
-        String responsestr = StringUtils.newStringUtf8(buffer);
-        return responsestr;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long read = 0;
+        long drainStart = (consumer == null?System.nanoTime():0);
+        boolean truncated = false;
+        try {
+	        int n;
+	        while ((n = inputStream.read(buffer)) != -1){
+	        	if (read + n > maxResponseBytes){
+	        		truncated = true;
+	        		request.abort();							// Not worth reading (nor reusing the connection).
+	        		break;
+	        	}
+	        	read += n;
+	        	if (drainStart == 0 && consumer.isDone()){
+	        		drainStart = System.nanoTime();
+	        	}
+	        	if (drainStart == 0){
+	        		consumer.consume(buffer, 0, n);
+	        	}
+	        }
+	        if (truncated == false){
+	        	EntityUtils.consume(response.getEntity());	// Closes the stream: the connection goes back to the pool.
+	        }
+        } finally {
+        	bytesRead.addAndGet(read);
+        	if (drainStart != 0){
+        		drainNanos.addAndGet(System.nanoTime() - drainStart);
+        	}
+        }
+        return new long[]{read, (truncated?1:0)};
+	}
+	
+	/**
+	 * Consumer that keeps the whole body (for the small responses whose content is needed). */
+	private static class KeepingBodyConsumer implements BodyConsumer {
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		
+		public void consume(byte[] buffer, int offset, int length){
+			body.write(buffer, offset, length);
+		}
+		
+		public boolean isDone(){
+			return false;
+		}
+		
+		String getBody(){
+			return StringUtils.newStringUtf8(body.toByteArray());
+		}
 	}
 	
-	private void chechResponseIsOK(HttpResponse response, String errormsg) throws HttpResponseException{
+	private void chechResponseIsOK(RestResponse response, String errormsg) throws HttpResponseException{
 		if (response != null){
-			int returnedcode = response.getStatusLine().getStatusCode() ;
+			int returnedcode = response.getStatusCode();
 			if (returnedcode != OK && returnedcode != OKNONOTIF){
 				throw new HttpResponseException(returnedcode, 
-						errormsg + " Reason: '" + response.getStatusLine().getReasonPhrase() + "' ("+returnedcode+").");
+						errormsg + " Reason: '" + response.getReason() + "' ("+returnedcode+").");
 			}
 		}else{
 			throw new InvalidParameterException("The response parameter cannot be null.");
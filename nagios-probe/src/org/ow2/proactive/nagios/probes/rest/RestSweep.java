@@ -0,0 +1,218 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.common.ElementalNagiosPlugin;
+import org.ow2.proactive.nagios.common.NagiosMiniStatus;
+import org.ow2.proactive.nagios.common.NagiosMiniStatusSource;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
+
+/**
+ * Sweep of several resources of the REST API (like '/state' or '/jobs'), all of them requested at the same time 
+ * through the same session, so the sweep takes as long as the slowest resource. Each resource gets its own 
+ * status: critical if it failed or did not return OK, warning if slower than its own threshold. 
+ * The sweep is given as a list like '/state:2,/jobs,/stats:0.5' (resource[:threshold in seconds]). */
+public class RestSweep implements NagiosMiniStatusSource {
+	
+	public static final int MAX_THREADS = 16;				// Max amount of resources requested at the same time.
+	public static final String BODY_DISCARD = "discard";	// The bodies of the responses are drained (only the status matters).
+	public static final String BODY_HASH = "hash";			// The SHA-256 hash of the bodies is told.
+	private static Logger logger = Logger.getLogger(RestSweep.class.getName()); 	// Logger.
+	
+	private final List<Endpoint> endpoints = new ArrayList<Endpoint>();	// Resources of the sweep.
+	private String bodyMode = BODY_DISCARD;					// What is done with the bodies of the responses.
+	
+	/**
+	 * Resource of the sweep, and the result of its request. */
+	private static class Endpoint {
+		String resource;									// Resource requested.
+		String name;										// Name of the resource in the perfdata.
+		Double threshold;									// Time above which the resource is too slow (null if none).
+		volatile Double latency;							// Time the request took (null if not finished).
+		volatile RestResponse response;						// Response (null if the request failed or did not finish).
+		String failure;										// Description of the failure (null if none).
+		volatile String hash;								// Hash of the body (hash mode only).
+	}
+	
+	/**
+	 * Constructor.
+	 * @param sweep list of resources (resource[:threshold],...).
+	 * @throws IllegalArgumentException if the list is not valid. */
+	public RestSweep(String sweep) throws IllegalArgumentException{
+		for (String item: sweep.split(",")){
+			item = item.trim();
+			if (item.length() == 0){
+				continue;
+			}
+			Endpoint endpoint = new Endpoint();
+			int colon = item.lastIndexOf(':');
+			if (colon > 0 && item.substring(colon + 1).matches("[0-9]*\\.?[0-9]+")){	// Not the colon of a URL.
+				endpoint.resource = item.substring(0, colon);
+				endpoint.threshold = Double.parseDouble(item.substring(colon + 1));
+			}else{
+				endpoint.resource = item;
+			}
+			endpoints.add(endpoint);
+		}
+		if (endpoints.isEmpty()){
+			throw new IllegalArgumentException("No resource to sweep in '" + sweep + "'.");
+		}
+	}
+	
+	/**
+	 * Set what is done with the bodies of the responses (they are never kept).
+	 * @param mode BODY_DISCARD or BODY_HASH. 
+	 * @throws IllegalArgumentException if the mode is not valid. */
+	public void setBodyMode(String mode) throws IllegalArgumentException{
+		if (BODY_DISCARD.equals(mode) == false && BODY_HASH.equals(mode) == false){
+			throw new IllegalArgumentException("Unknown mode '" + mode + "' for the bodies of the sweep (expected '" + 
+					BODY_DISCARD + "' or '" + BODY_HASH + "').");
+		}
+		bodyMode = mode;
+	}
+	
+	/**
+	 * Request all the resources at the same time, and wait for them (at most the given time). 
+	 * The requests still running after it are cancelled (and told as timed out).
+	 * @param stub stub (already logged in) used for all the requests. 
+	 * @param timeoutms time given to the sweep. */
+	public void run(final RestStubProber stub, long timeoutms) throws InterruptedException{
+		int threads = Math.min(endpoints.size(), MAX_THREADS);
+		stub.setMaxConnections(threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "rest-sweep");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long deadline = System.currentTimeMillis() + timeoutms;
+		try{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final Endpoint endpoint: endpoints){
+				endpoint.name = stub.getResourceName(endpoint.resource);
+				futures.add(executor.submit(new Callable<Void>(){
+					public Void call() throws Exception{
+						HashingBodyConsumer hashing = (BODY_HASH.equals(bodyMode)?new HashingBodyConsumer():null);
+						long start = System.nanoTime();
+						RestResponse response = stub.fetch(endpoint.resource, hashing);	// The body is never kept.
+						endpoint.latency = (System.nanoTime() - start) / 1e9;
+						if (hashing != null && response.isTruncated() == false){
+							endpoint.hash = hashing.getHash();
+						}
+						endpoint.response = response;
+						return null;
+					}
+				}));
+			}
+			for (int i = 0; i < endpoints.size(); i++){
+				Endpoint endpoint = endpoints.get(i);
+				try{
+					futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				}catch(TimeoutException e){
+					futures.get(i).cancel(true);
+					endpoint.failure = "timeout";
+				}catch(Exception e){
+					logger.info("Failed to get " + endpoint.resource + ": " + e.getMessage());
+					endpoint.failure = "failed (" + (e.getCause() == null?e:e.getCause()).getMessage() + ")";
+				}
+			}
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Add to the perfdata the latency, the status code and the size of the response of each resource 
+	 * (time_sweep_NAME, sweep_NAME_status, sweep_NAME_bytes), as far as known.
+	 * @param tracer tracer of the probe. */
+	public void addReferences(TimedStatusTracer tracer){
+		for (Endpoint endpoint: endpoints){
+			if (endpoint.latency != null)
+				tracer.addNewReference("time_sweep_" + endpoint.name, endpoint.latency);
+			if (endpoint.response != null){
+				tracer.addNewReference("sweep_" + endpoint.name + "_status", endpoint.response.getStatusCode());
+				tracer.addNewReference("sweep_" + endpoint.name + "_bytes", endpoint.response.getBytes());
+			}
+		}
+	}
+	
+	/**
+	 * Tell the status of each resource of the sweep.
+	 * @return a critical status per resource failed (or not OK), a warning per resource too slow or with a response 
+	 * too large, and the hash of each body (hash mode only). */
+	public List<NagiosMiniStatus> getMiniStatuses(){
+		List<NagiosMiniStatus> ret = new ArrayList<NagiosMiniStatus>();
+		for (Endpoint endpoint: endpoints){
+			if (endpoint.failure != null){
+				ret.add(new NagiosMiniStatus(ElementalNagiosPlugin.RESULT_2_CRITICAL, 
+						"resource " + endpoint.resource + " " + endpoint.failure));
+			}else if (endpoint.response.getStatusCode() / 100 != 2){
+				ret.add(new NagiosMiniStatus(ElementalNagiosPlugin.RESULT_2_CRITICAL, 
+						"resource " + endpoint.resource + " returned " + endpoint.response.getStatusCode() + 
+						" (" + endpoint.response.getReason() + ")"));
+			}else if (endpoint.threshold != null && endpoint.latency > endpoint.threshold){
+				ret.add(new NagiosMiniStatus(ElementalNagiosPlugin.RESULT_1_WARNING, 
+						"resource " + endpoint.resource + " too slow (" + format(endpoint.latency) + 
+						" s, threshold " + format(endpoint.threshold) + " s)"));
+			}else if (endpoint.response.isTruncated()){
+				ret.add(new NagiosMiniStatus(ElementalNagiosPlugin.RESULT_1_WARNING, 
+						"resource " + endpoint.resource + " response too large (truncated after " + endpoint.response.getBytes() + " bytes)"));
+			}else if (endpoint.hash != null){
+				ret.add(new NagiosMiniStatus(ElementalNagiosPlugin.RESULT_0_OK, 
+						"resource " + endpoint.resource + " sha256=" + endpoint.hash.substring(0, 16)));
+			}
+		}
+		return ret;
+	}
+	
+	private static String format(double value){
+		return String.format(Locale.ENGLISH, "%1.03f", value);
+	}
+}
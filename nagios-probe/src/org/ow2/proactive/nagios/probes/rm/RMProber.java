@@ -94,7 +94,7 @@ public class RMProber extends PANagiosPlugin{
 	private void validateArguments(Arguments arguments) throws IllegalArgumentException{
 		arguments.checkIsGiven("url");
 		arguments.checkIsGiven("user");
-		arguments.checkIsGiven("pass");
+		checkPasswordIsGiven(arguments);
 	}
 	
 	/**
@@ -117,15 +117,17 @@ public class RMProber extends PANagiosPlugin{
 		
 		tracer.finishLastMeasurementAndStartNewOne("time_initializing", "timeout reached while initializing the probe...");
 		
-		RMThroughSingleThread rmstub = new RMThroughSingleThread();							// We get connected to the RM through this stub. 
+		RMThroughSingleThread rmstub = new RMThroughSingleThread(tracer);							// We get connected to the RM through this stub. 
 		
 		this.setQuickDesconnectMechanism(rmstub);
+		rmstub.setCredentialsCache(getCredentialsCache());									// Encrypted credentials of previous executions.
 		
 		tracer.finishLastMeasurementAndStartNewOne("time_connection", "timeout reached while trying to connect to the RM...");
 					
 		rmstub.init(																		// We get connected to the RM.
 			getArgs().getStr("url"),  getArgs().getStr("user"), 
-			getArgs().getStr("pass"), rt.getRemainingTimeWE());	
+			getPassword(), rt.getRemainingTimeWE());	
+		addConnectionTimeSaved(tracer, getArgs().getStr("url"), getArgs().getStr("user"));
 	
 		tracer.finishLastMeasurementAndStartNewOne("time_getting_status", "timeout reached while trying to get the amount of free nodes in the RM...");
 
@@ -147,10 +149,11 @@ public class RMProber extends PANagiosPlugin{
     	if (disc == true){
 			disableQuickDisconnectionHook();																// No need to try to disconnect again if it already went okay.
     	}
+    	rmstub.getDispatcher().addReferences(tracer);													// Calls queued, cancelled and abandoned.
 			    	
 		tracer.finishLastMeasurement();
 					
-		NagiosReturnObjectSummaryMaker summary = new NagiosReturnObjectSummaryMaker();  
+		NagiosReturnObjectSummaryMaker summary = newSummaryMaker(tracer);  
 		
 		int nodesrequired = getArgs().getInt("nodesrequired");
 		
@@ -193,6 +196,12 @@ public class RMProber extends PANagiosPlugin{
 		
 	}
 	
+	/**
+	 * The timeout is handled by the probe itself (see main). */
+	public boolean isTimeoutManagedByProbe(){
+		return true;
+	}
+	
 	public void disableQuickDisconnectionHook(){
 		logger.info("Disabled disconnection hook.");
 		quickDisconnectionEnabled = false;
@@ -216,11 +225,13 @@ public class RMProber extends PANagiosPlugin{
 					}
 				}catch(Exception e){
 					logger.warn("Faled while performing quickDisconnect..." + e);
+				}finally{
+					stub.shutdown();
 				}
 			}
 		};
 		
-		Runtime.getRuntime().addShutdownHook(new Thread(disc)); // Connect the disconnection (THREAD_POOL executed) to the ShutdownHook. 
+		registerCleanup(disc); 						// Connect the disconnection (THREAD_POOL executed) to the end of the probe. 
 	}
 	
 	/**
@@ -34,17 +34,16 @@
  * ################################################################
  * $$PROACTIVE_INITIAL_DEV$$
  */
-
 package org.ow2.proactive.nagios.probes.rm;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.ow2.proactive.nagios.common.CredentialsCache;
+import org.ow2.proactive.nagios.common.DeadlineDispatcher;
+import org.ow2.proactive.nagios.common.DeadlineDispatcher.Call;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
 import org.ow2.proactive.resourcemanager.common.RMState;
 import org.ow2.proactive.utils.NodeSet;
 
@@ -52,88 +51,126 @@ import org.ow2.proactive.utils.NodeSet;
  * This class deals with the fact that:
  * 1. Once a session is started with the RM, only the Thread that started the connection can make calls to the RM. 
  * 2. We need to ensure that in case of timeout, the quickDisconnection method should be called in such a way that if any resource
- *    was already obtained, by the quickDisconnection it will be released automatically. */
+ *    was already obtained, by the quickDisconnection it will be released automatically. 
+ * The calls are made through a DeadlineDispatcher, all of them on the thread that keeps the session: a call that reaches its 
+ * deadline is cancelled, and the disconnections are put at the head of the queue of calls. If a hung call has to be abandoned, 
+ * the session is abandoned with it: the next calls log in again first, and the nodes held by the abandoned session are released 
+ * by the RM once that session expires. 
+ * Each method binds its call to the stub in a small typed Callable (no method references in Java 6, and reflection 
+ * would lose the types checked by the compiler). */
 public class RMThroughSingleThread {
-	private final ExecutorService THREAD_POOL = Executors.newSingleThreadExecutor(); 	// The rights to manage the RM nodes will be given to this thread.
 	
 	RMStubProber rmstub;
+	private final DeadlineDispatcher dispatcher;				// Dispatcher of the calls to the stub.
 	
 	public RMThroughSingleThread(){
+		this(null);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param tracer tracer where each call to the RM is traced as a span (null if none). */
+	public RMThroughSingleThread(TimedStatusTracer tracer){
 		rmstub = new RMStubProber();
+		dispatcher = new DeadlineDispatcher("rm", tracer);
 	}
 	
-	public void init(final String url, final String user, final String pass, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				rmstub.init(url, user, pass);                           
-				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
-	}
-	
-	public NodeSet getNodes(final int amountOfNodesRequired, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<NodeSet> callab = new Callable<NodeSet>(){                                                    
-			public NodeSet call() throws Exception{                            
-				NodeSet ret = rmstub.getNodes(amountOfNodesRequired);                           
-				return ret;
-			}                                                                    
-		};                                                                       
-		FutureTask<NodeSet> task = new FutureTask<NodeSet>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		NodeSet ret = task.get(timeoutms, TimeUnit.MILLISECONDS);
-		return ret;
-	}
-	
-	public void releaseNodes(final NodeSet setOfNodesToRelease, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				rmstub.releaseNodes(setOfNodesToRelease);                           
-				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
+	public void init(String url, String user, String pass, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		await(initAsync(url, user, pass), timeoutms);
+	}
+	
+	public NodeSet getNodes(int amountOfNodesRequired, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return await(getNodesAsync(amountOfNodesRequired), timeoutms);
+	}
+	
+	public void releaseNodes(NodeSet setOfNodesToRelease, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		await(releaseNodesAsync(setOfNodesToRelease), timeoutms);
 	}
 	
 	public RMState getRMState(long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<RMState> callab = new Callable<RMState>(){                                                    
-			public RMState call() throws Exception{                            
-				RMState ret = rmstub.getRMState();                           
-				return ret;
-			}                                                                    
-		};                                                                       
-		FutureTask<RMState> task = new FutureTask<RMState>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		RMState ret = task.get(timeoutms, TimeUnit.MILLISECONDS);
-		return ret; 
+		return await(getRMStateAsync(), timeoutms);
 	}
 	
 	public Boolean disconnect(long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Boolean> callab = new Callable<Boolean>(){                                                    
-			public Boolean call() throws Exception{                            
-				Boolean ret = rmstub.disconnect();                           
-				return ret;
-			}                                                                    
-		};                                                                       
-		FutureTask<Boolean> task = new FutureTask<Boolean>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		Boolean ret = task.get(timeoutms, TimeUnit.MILLISECONDS);
-		return ret;
+		return await(disconnectAsync(), timeoutms);
 	}
 	
 	public void quickDisconnect(long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				rmstub.quickDisconnect();                           
+		dispatcher.callFirst(timeoutms, "quickDisconnect", new Callable<Object>(){
+			public Object call() throws Exception{
+				rmstub.quickDisconnect();
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Set the cache of the encrypted credentials to use to login (the stub keeps it in a volatile field: no need to use the thread). 
+	 * @param cache the cache. */
+	public void setCredentialsCache(CredentialsCache cache){
+		rmstub.setCredentialsCache(cache);
+	}
+	
+	/* Asynchronous calls: they are submitted right away and awaited later (see await), so that independent 
+	 * steps can overlap. Each call is traced as a span of the tracer ('rm.method'). */
+	
+	public Call<Object> initAsync(final String url, final String user, final String pass){
+		return dispatcher.submit("init", new Callable<Object>(){
+			public Object call() throws Exception{
+				rmstub.init(url, user, pass);
+				dispatcher.setSessionOpener(this);					// Used to login again if the session is abandoned.
 				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+	
+	public Call<RMState> getRMStateAsync(){
+		return dispatcher.submit("getRMState", new Callable<RMState>(){
+			public RMState call() throws Exception{
+				return rmstub.getRMState();
+			}
+		});
+	}
+	
+	public Call<NodeSet> getNodesAsync(final int amountOfNodesRequired){
+		return dispatcher.submit("getNodes", new Callable<NodeSet>(){
+			public NodeSet call() throws Exception{
+				return rmstub.getNodes(amountOfNodesRequired);
+			}
+		});
+	}
+	
+	public Call<Object> releaseNodesAsync(final NodeSet setOfNodesToRelease){
+		return dispatcher.submit("releaseNodes", new Callable<Object>(){
+			public Object call() throws Exception{
+				rmstub.releaseNodes(setOfNodesToRelease);
+				return null;
+			}
+		});
+	}
+	
+	public Call<Boolean> disconnectAsync(){
+		return dispatcher.submitFirst("disconnect", new Callable<Boolean>(){
+			public Boolean call() throws Exception{
+				return rmstub.disconnect();
+			}
+		});
+	}
+	
+	public <T> T await(Call<T> call, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return dispatcher.await(call, timeoutms);
+	}
+	
+	/**
+	 * Get the dispatcher of the calls (to know its queue depth and the amount of abandoned calls).
+	 * @return the dispatcher. */
+	public DeadlineDispatcher getDispatcher(){
+		return dispatcher;
+	}
+	
+	/**
+	 * Release the thread used to talk to the RM once all the calls already submitted are done. */
+	public void shutdown(){
+		dispatcher.shutdown();
 	}
 }
@@ -0,0 +1,276 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.ow2.proactive.scheduler.common.job.JobInfo;
+import org.ow2.proactive.scheduler.common.task.TaskInfo;
+
+/**
+ * Registry of the completion of the jobs of one Scheduler session, keyed by job id. The SchedulerEventsListener 
+ * of the session completes the entry of a job as soon as the event arrives, and the threads waiting for that job 
+ * are released directly (no class-wide notifyAll, no scan of the last events). 
+ * An event that arrives before anybody waits for its job is not lost: the entry is created by whoever comes first.
+ * Entries created by events of jobs nobody waits for are forgotten once there are more than MAX_UNCLAIMED of them: 
+ * the jobs to be waited for later (submitted or removed by the probe) are claimed beforehand, so their events are 
+ * kept no matter how many of them arrive before the waits. 
+ * There is one registry per stub (job ids of different Schedulers collide), found by the listener (an active object, 
+ * that cannot keep a reference to it) through its id. Many probe jobs can be waited for concurrently in the same JVM. */
+public class JobCompletionRegistry {
+	private static Logger logger = Logger.getLogger(JobCompletionRegistry.class.getName());	// Logger.
+	private static final int MAX_UNCLAIMED = 1000;							// Max amount of entries of jobs nobody waits for.
+	private static final HashMap<String, JobCompletionRegistry> registries = 	// Registries of this JVM, by id.
+			new HashMap<String, JobCompletionRegistry>();
+	private static int lastId = 0;											// Last number used to make the id of a registry.
+	
+	private final String id;												// Id of this registry.
+	private volatile JobIndex jobIndex = null;								// Index of the jobs of the user of the session (null if none).
+	private HashMap<String, JobCompletion> jobs = new HashMap<String, JobCompletion>();	// Entry of each job.
+	private ArrayDeque<String> unclaimed = new ArrayDeque<String>();		// Jobs with an entry created by an event (oldest first).
+	
+	/**
+	 * Completion of a job. */
+	public static class JobCompletion {
+		private final CountDownLatch finished = new CountDownLatch(1);		// Released once the job finished.
+		private final CountDownLatch cleaned = new CountDownLatch(1);		// Released once the job finished or was removed.
+		private volatile boolean claimed = false;							// Somebody waits (or waited) for this job.
+		private volatile JobInfo info = null;								// Information of the job given by the finished event.
+		private volatile boolean started = false;							// The job left the pending state.
+		private final List<TaskInfo> tasks = new ArrayList<TaskInfo>();	// Information of the tasks given by their finished events.
+		
+		/**
+		 * Wait until the job finishes.
+		 * @param timeoutms max time to wait (ms).
+		 * @return true if the job finished, false if the timeout was reached. */
+		public boolean awaitFinished(long timeoutms) throws InterruptedException{
+			return finished.await(timeoutms, TimeUnit.MILLISECONDS);
+		}
+		
+		/**
+		 * Wait until the job finishes or is removed.
+		 * @param timeoutms max time to wait (ms).
+		 * @return true if the job finished or was removed, false if the timeout was reached. */
+		public boolean awaitCleaned(long timeoutms) throws InterruptedException{
+			return cleaned.await(timeoutms, TimeUnit.MILLISECONDS);
+		}
+		
+		/**
+		 * Get the information of the job given by the event that told it finished.
+		 * @return the information (submission, start and finish times, etc.), or null if not finished. */
+		public JobInfo getInfo(){
+			return info;
+		}
+		
+		/**
+		 * Get the information of the finished tasks of the job.
+		 * @return a copy of the list of the information of the tasks. */
+		public synchronized List<TaskInfo> getTaskInfos(){
+			return new ArrayList<TaskInfo>(tasks);
+		}
+		
+		private synchronized void addTaskInfo(TaskInfo task){
+			tasks.add(task);
+		}
+		
+		public boolean isStarted(){
+			return started;
+		}
+		
+		public boolean isFinished(){
+			return finished.getCount() == 0;
+		}
+		
+		public boolean isCleaned(){
+			return cleaned.getCount() == 0;
+		}
+	}
+	
+	/**
+	 * Create the registry of a new session with a Scheduler (to be released once the session is over).
+	 * @param url url of the Scheduler (only used to make the id more readable).
+	 * @return the registry. */
+	public static JobCompletionRegistry create(String url){
+		synchronized(registries){
+			JobCompletionRegistry registry = new JobCompletionRegistry(url + " #" + (++lastId));
+			registries.put(registry.getId(), registry);
+			return registry;
+		}
+	}
+	
+	/**
+	 * Get the registry with the given id.
+	 * @param id id of the registry.
+	 * @return the registry, or null if it was already released. */
+	public static JobCompletionRegistry get(String id){
+		synchronized(registries){
+			return registries.get(id);
+		}
+	}
+	
+	private JobCompletionRegistry(String id){
+		this.id = id;
+	}
+	
+	/**
+	 * Get the id of this registry (to be given to the listener of the session).
+	 * @return the id. */
+	public String getId(){
+		return id;
+	}
+	
+	/**
+	 * Set the index of the jobs of the user of the session, from which the removed jobs are removed.
+	 * @param index the index (null if none). */
+	public void setJobIndex(JobIndex index){
+		this.jobIndex = index;
+	}
+	
+	/**
+	 * Release this registry: the events that arrive after this are ignored. */
+	public void release(){
+		synchronized(registries){
+			registries.remove(id);
+		}
+	}
+	
+	/**
+	 * Get the completion of the given job, to wait for it. 
+	 * Must be followed by a call to forget once the job is not waited for anymore.
+	 * @param jobId id of the job.
+	 * @return the completion of the job. */
+	public synchronized JobCompletion claim(String jobId){
+		JobCompletion c = jobs.get(jobId);
+		if (c == null){
+			c = new JobCompletion();
+			jobs.put(jobId, c);
+		}
+		c.claimed = true;
+		return c;
+	}
+	
+	/**
+	 * Claim the given jobs at once, before waiting for them one after the other: their entries are never forgotten 
+	 * (even if more than MAX_UNCLAIMED events arrive meanwhile) until forget is called for each of them.
+	 * @param jobIds ids of the jobs. */
+	public synchronized void claimAll(Collection<String> jobIds){
+		for (String jobId: jobIds){
+			claim(jobId);
+		}
+	}
+	
+	/**
+	 * Forget the entry of the given job (nobody will wait for it anymore).
+	 * @param jobId id of the job. */
+	public synchronized void forget(String jobId){
+		jobs.remove(jobId);
+	}
+	
+	/**
+	 * Tell that the given job finished (it releases the threads waiting for it to finish or to be cleaned).
+	 * @param jobId id of the job. 
+	 * @param info information of the job given by the event. */
+	public void jobFinished(String jobId, JobInfo info){
+		JobCompletion c = getFromEvent(jobId);
+		c.info = info;
+		c.started = true;
+		c.finished.countDown();
+		c.cleaned.countDown();
+	}
+	
+	/**
+	 * Tell that the given job started (it left the pending state).
+	 * @param jobId id of the job. */
+	public void jobStarted(String jobId){
+		getFromEvent(jobId).started = true;
+	}
+	
+	/**
+	 * Tell that a task of the given job finished.
+	 * @param jobId id of the job. 
+	 * @param task information of the task given by the event. */
+	public void taskFinished(String jobId, TaskInfo task){
+		getFromEvent(jobId).addTaskInfo(task);
+	}
+	
+	/**
+	 * Tell that the given job was removed (it releases the threads waiting for it to be cleaned, and 
+	 * removes the job from the index of the session).
+	 * @param jobId id of the job. */
+	public void jobRemoved(String jobId){
+		getFromEvent(jobId).cleaned.countDown();
+		JobIndex index = jobIndex;
+		if (index != null){
+			index.remove(jobId);
+		}
+	}
+	
+	/**
+	 * Get (or create) the entry of a job for which an event was received. */
+	private synchronized JobCompletion getFromEvent(String jobId){
+		JobCompletion c = jobs.get(jobId);
+		if (c == null){
+			c = new JobCompletion();
+			jobs.put(jobId, c);
+			unclaimed.addLast(jobId);
+			while (unclaimed.size() > MAX_UNCLAIMED){
+				String oldest = unclaimed.removeFirst();
+				JobCompletion o = jobs.get(oldest);
+				if (o != null && o.claimed == false){
+					jobs.remove(oldest);
+					logger.debug("\tForgetting event of job " + oldest + " (nobody waited for it).");
+				}
+			}
+		}
+		return c;
+	}
+	
+	/**
+	 * Get the amount of jobs with an entry in the registry.
+	 * @return the amount. */
+	public synchronized int size(){
+		return jobs.size();
+	}
+}
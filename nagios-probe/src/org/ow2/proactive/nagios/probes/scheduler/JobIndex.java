@@ -0,0 +1,289 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.scheduler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.channels.FileLock;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.ow2.proactive.scheduler.common.job.JobState;
+
+/**
+ * Lightweight index of the jobs of the probe user in the Scheduler (id and name of each job). 
+ * It is seeded once from the whole state of the Scheduler, and then kept up to date with the jobs 
+ * submitted by the probe and the job removal events, so looking for stale probe jobs does not need to 
+ * transfer the state of all the jobs of the Scheduler on every execution. 
+ * The index can be persisted in a file between executions of the probe. As jobs submitted or removed 
+ * by others while no probe runs are not seen, the index is seeded again once older than MAX_AGE_MS. 
+ * A job of the index that does not exist anymore is simply removed from it when found. 
+ * Several standalone probes may share the same file: it is saved under a file lock, merging the jobs added 
+ * and removed by this JVM since the last save with the content of the file (so the jobs added by the other 
+ * probes are kept). 
+ * Indexes are shared by all the probes of the same JVM that use the same Scheduler, user and file. Without a file, 
+ * the index only lives in memory: it saves the state of the Scheduler only to the probes run by the same JVM (resident 
+ * daemon or batch), a standalone execution seeds it each time. */
+public class JobIndex {
+	private static Logger logger = Logger.getLogger(JobIndex.class.getName());	// Logger.
+	public static final long MAX_AGE_MS = 60 * 60 * 1000;						// Age after which the index is seeded again.
+	private static final String SEEDED_PREFIX = "# seeded ";					// First line of the file, with the time of the seed.
+	private static final HashMap<String, JobIndex> indexes = 					// Indexes of this JVM.
+			new HashMap<String, JobIndex>();
+	
+	private LinkedHashMap<String, String> jobs = new LinkedHashMap<String, String>();	// Name of each job, by id.
+	private long seededAt = -1;							// Time of the last seed (ms since the epoch), -1 if never seeded.
+	private File file;									// File where the index is persisted (null if not persisted).
+	private boolean dirty = false;						// Changed since last saved.
+	private LinkedHashMap<String, String> added = new LinkedHashMap<String, String>();	// Jobs added since last saved.
+	private HashSet<String> removed = new HashSet<String>();	// Jobs removed since last saved.
+	private boolean seededSinceSaved = false;			// Seeded since last saved.
+	
+	/**
+	 * Get the index of the jobs of the given user in the given Scheduler.
+	 * @param url url of the Scheduler.
+	 * @param user user of the probe.
+	 * @param path file where to persist the index (null not to persist it).
+	 * @return the index (loaded from the file the first time, if it exists). */
+	public static JobIndex get(String url, String user, String path){
+		String key = url + " " + user + " " + path;
+		synchronized(indexes){							// Also guards the file locks (a JVM cannot lock a file twice).
+			JobIndex index = indexes.get(key);
+			if (index == null){
+				index = new JobIndex(path == null?null:new File(path));
+				indexes.put(key, index);
+			}
+			return index;
+		}
+	}
+	
+	private JobIndex(File file){
+		this.file = file;
+		if (file != null && file.exists()){
+			try{
+				load();
+			}catch(Exception e){
+				logger.warn("Ignoring job index '" + file + "': " + e.getMessage());
+				jobs.clear();
+				seededAt = -1;
+			}
+		}
+	}
+	
+	/**
+	 * Tell whether the index must be seeded from the state of the Scheduler (never seeded, or too old).
+	 * @return true if it must be seeded. */
+	public synchronized boolean needsSeed(){
+		return seededAt < 0 || System.currentTimeMillis() - seededAt > MAX_AGE_MS;
+	}
+	
+	/**
+	 * Replace the content of the index with the given jobs.
+	 * @param states all the jobs of the user (pending, running and finished). */
+	public synchronized void seed(Collection<JobState> states){
+		jobs.clear();
+		for (JobState j: states){
+			jobs.put(j.getId().value(), j.getName());
+		}
+		seededAt = System.currentTimeMillis();
+		seededSinceSaved = true;
+		dirty = true;
+	}
+	
+	/**
+	 * Add a job to the index.
+	 * @param jobId id of the job.
+	 * @param name name of the job. */
+	public synchronized void add(String jobId, String name){
+		jobs.put(jobId, name);
+		added.put(jobId, name);
+		removed.remove(jobId);
+		dirty = true;
+	}
+	
+	/**
+	 * Remove a job from the index.
+	 * @param jobId id of the job. */
+	public synchronized void remove(String jobId){
+		added.remove(jobId);
+		removed.add(jobId);								// Maybe in the file, added by another probe.
+		if (jobs.remove(jobId) != null){
+			dirty = true;
+		}
+	}
+	
+	/**
+	 * Get the ids of the jobs with the given name.
+	 * @param name name of the jobs ("*" for all the jobs).
+	 * @return the ids, in order of insertion. */
+	public synchronized Vector<String> getIds(String name){
+		Vector<String> ret = new Vector<String>();
+		for (Map.Entry<String, String> entry: jobs.entrySet()){
+			if (name.equals("*") || name.equals(entry.getValue())){
+				ret.add(entry.getKey());
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Persist the index in its file (if any, and if it changed). 
+	 * The file is locked, and the changes of this index since the last save are merged with its content: 
+	 * the jobs added by other probes meanwhile are kept (and become part of this index). */
+	public synchronized void save(){
+		if (file == null || dirty == false){
+			return;
+		}
+		try{
+			synchronized(indexes){
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try{
+					FileLock lock = raf.getChannel().lock();		// The other probes using the file wait.
+					try{
+						merge(raf);
+						write(raf);
+					}finally{
+						lock.release();
+					}
+				}finally{
+					raf.close();
+				}
+			}
+			added.clear();
+			removed.clear();
+			seededSinceSaved = false;
+			dirty = false;
+		}catch(IOException e){
+			logger.warn("Issue saving job index '" + file + "': " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Merge the changes of this index since the last save with the content of the (locked) file. 
+	 * After a seed, the jobs of the file are kept too: a job that does not exist anymore is harmless 
+	 * (removed when found), a job missing from the index would be left in the Scheduler. */
+	private void merge(RandomAccessFile raf) throws IOException{
+		LinkedHashMap<String, String> merged = new LinkedHashMap<String, String>();
+		long fileSeededAt;
+		try{
+			fileSeededAt = parse(read(raf), merged);
+		}catch(IOException e){							// Empty (new) or invalid: replaced by this index.
+			return;
+		}
+		merged.putAll(seededSinceSaved?jobs:added);
+		for (String jobId: removed){
+			merged.remove(jobId);
+		}
+		jobs = merged;
+		seededAt = Math.max(seededAt, fileSeededAt);
+	}
+	
+	private void write(RandomAccessFile raf) throws IOException{
+		StringBuilder sb = new StringBuilder();
+		sb.append(SEEDED_PREFIX + seededAt + "\n");
+		for (Map.Entry<String, String> entry: jobs.entrySet()){
+			sb.append(entry.getKey() + "\t" + entry.getValue() + "\n");
+		}
+		raf.setLength(0);
+		raf.write(sb.toString().getBytes("UTF-8"));			// In one go.
+	}
+	
+	private void load() throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			FileLock lock = raf.getChannel().lock(0, Long.MAX_VALUE, true);	// Not while another probe writes it.
+			try{
+				seededAt = parse(read(raf), jobs);
+			}finally{
+				lock.release();
+			}
+		}finally{
+			raf.close();
+		}
+		logger.info("Job index '" + file + "' loaded (" + jobs.size() + " jobs).");
+	}
+	
+	private static String read(RandomAccessFile raf) throws IOException{
+		byte[] content = new byte[(int)raf.length()];
+		raf.seek(0);
+		raf.readFully(content);
+		return new String(content, "UTF-8");
+	}
+	
+	/**
+	 * Parse the content of an index file.
+	 * @param content content of the file.
+	 * @param into where to put the jobs read.
+	 * @return the time of the seed of the index.
+	 * @throws IOException if the content is not a job index. */
+	private static long parse(String content, Map<String, String> into) throws IOException{
+		BufferedReader r = new BufferedReader(new StringReader(content));
+		String line = r.readLine();
+		if (line == null || line.startsWith(SEEDED_PREFIX) == false){
+			throw new IOException("not a job index");
+		}
+		long seeded;
+		try{
+			seeded = Long.parseLong(line.substring(SEEDED_PREFIX.length()).trim());
+		}catch(NumberFormatException e){
+			throw new IOException("invalid seed time");
+		}
+		while ((line = r.readLine()) != null){
+			int tab = line.indexOf('\t');
+			if (tab > 0){
+				into.put(line.substring(0, tab), line.substring(tab + 1));
+			}
+		}
+		return seeded;
+	}
+	
+	/**
+	 * Get the amount of jobs in the index.
+	 * @return the amount. */
+	public synchronized int size(){
+		return jobs.size();
+	}
+}
@@ -37,6 +37,9 @@
 
 package org.ow2.proactive.nagios.probes.scheduler;
 
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
 
 import org.ow2.proactive.nagios.common.Arguments;
 import org.ow2.proactive.nagios.common.NagiosMiniStatus;
@@ -45,8 +48,10 @@ import org.ow2.proactive.nagios.common.NagiosReturnObjectSummaryMaker;
 import org.ow2.proactive.nagios.common.PANagiosPlugin;
 import org.ow2.proactive.nagios.common.RemainingTime;
 import org.ow2.proactive.nagios.common.TimedStatusTracer;
+import org.ow2.proactive.nagios.history.LatencyHistogram;
 import org.ow2.proactive.nagios.misc.Misc;
-import org.ow2.proactive.resourcemanager.common.RMState;
+import org.ow2.proactive.scheduler.common.job.JobInfo;
+import org.ow2.proactive.scheduler.common.job.JobStatus;
 //import org.ow2.proactive.scheduler.examples.WaitAndPrint;
 
 /** 
@@ -70,11 +75,15 @@ public class JobProber extends PANagiosPlugin{
 		"nagios_plugin_probe_job";					// Name of the probe job in the Scheduler, as the administrator will see it.
 	public static final String TASK_CLASS_NAME = 
 		"org.ow2.proactive.scheduler.examples.WaitAndPrint"; // WaitAndPrint.class.getName();				// Class to be instantiated and executed as a task in the Scheduler.
+	public static final double CLEANUP_BUDGET = 0.5;	// Fraction of the remaining time that the removal of old jobs can use.
+	public static final int BENCHMARK_MAX_JOBS = 10000;	// Max amount of jobs of a benchmark.
 	public static String expectedJobOutput;			// The job output that is expected. It is used to check the right execution of the job. 
 	
 	private RMStateGetter rmStateGetter; 			// Used to find out the number of free nodes, and prevent telling critical
 													// errors because of timeout when actually there are no free nodes but everything is okay.
+	private double rmCheckingCostBefore;			// Cost of the RM session before this probe (shared with previous probes).
 	private boolean quickDisconnectionEnabled = true;
+	private volatile SchedulerThroughSingleThread schedulerStub = null;	// Stub of the probe (to tell the status of the awaited job on timeout).
 	
 	/** 
 	 * Constructor of the prober. The map contains all the arguments for the probe to be executed. 
@@ -91,6 +100,8 @@ public class JobProber extends PANagiosPlugin{
 		args.addNewOption("g", "polling", false);		// Do polling or use an event based mechanism.
 		args.addNewOption("z", "highpriority", false);	// Set high priority for the job (not normal priority).
 		args.addNewOption("R", "rm-checking", false);	// Performs extra checking on the RM to know availability of nodes and give more accurate results. 
+		args.addNewOption("I", "job-index", true);		// File where to persist the index of the jobs of the user.
+		args.addNewOption("B", "benchmark", true);		// Amount of jobs to submit at the same time (benchmark mode).
 	}
 	
 	/**
@@ -101,9 +112,16 @@ public class JobProber extends PANagiosPlugin{
 		/* Loading job's expected output. */
 		expectedJobOutput = Misc.readAllTextResource(RESOURCES_PATH + "expectedjoboutput.txt");
 		if (getArgs().getBoo("rm-checking") == true){
-			rmStateGetter = new RMStateGetter(
+			final RMStateGetter rmsg = RMStateGetter.acquire(	// Free nodes refreshed during the whole probe.
 				getArgs().getStr("url"), 
-				getArgs().getStr("user"), getArgs().getStr("pass"));
+				getArgs().getStr("user"), getPassword(), getCredentialsCache());
+			rmCheckingCostBefore = rmsg.getCost();
+			rmStateGetter = rmsg;
+			registerCleanup(new Runnable(){
+				public void run(){
+					rmsg.release(isResidentMode()?RMStateGetter.IDLE_TIMEOUT_MS:0);
+				}
+			});
 		}
 	}
 
@@ -113,7 +131,8 @@ public class JobProber extends PANagiosPlugin{
 	private void validateArguments(Arguments arguments) throws IllegalArgumentException{
 		arguments.checkIsGiven("url");
 		arguments.checkIsGiven("user");
-		arguments.checkIsGiven("pass");
+		checkPasswordIsGiven(arguments);
+		arguments.checkIsValidInt("benchmark", 1, BENCHMARK_MAX_JOBS);
 	}
 	
 	/**
@@ -136,20 +155,41 @@ public class JobProber extends PANagiosPlugin{
 		
 		RemainingTime rt = new RemainingTime(getArgs().getInt("critical") * 1000);
 		
-		SchedulerThroughSingleThread schedulerstub = new SchedulerThroughSingleThread();	// We create directly the stub prober.
+		SchedulerThroughSingleThread schedulerstub = new SchedulerThroughSingleThread(tracer);	// We create directly the stub prober.
+		schedulerStub = schedulerstub;
 		
 		this.setQuickDesconnectMechanism(schedulerstub);
 		
+		schedulerstub.setCredentialsCache(getCredentialsCache());				// Encrypted credentials of previous executions.
+		schedulerstub.setJobIndex(JobIndex.get(								// Index of the jobs of the user (seeded once).
+				getArgs().getStr("url"), getArgs().getStr("user"), getArgs().getStr("job-index")));
+		
+		Double usualExecution = getUsualPhaseDuration("time_execution");		// To size the first polling period (if polling).
+		if (usualExecution != null){
+			schedulerstub.setExpectedExecutionTime((long)(usualExecution * 1000));
+		}
+		
 		tracer.finishLastMeasurementAndStartNewOne("time_connection", "timeout reached while trying to login to the scheduler...");
 		
 		schedulerstub.init(														// We get connected to the Scheduler.
 				getArgs().getStr("url"),  getArgs().getStr("user"), 
-				getArgs().getStr("pass"), getArgs().getBoo("polling"), rt.getRemainingTimeWE());	
+				getPassword(), getArgs().getBoo("polling"), 
+				(getArgs().getBoo("deleteallold")?SchedulerEventsListener.ALL_JOBS:jobname), 	// Events of other jobs are discarded. 
+				rt.getRemainingTimeWE());	
+		addConnectionTimeSaved(tracer, getArgs().getStr("url"), getArgs().getStr("user"));
 		
 		tracer.finishLastMeasurementAndStartNewOne("time_removing_old_jobs", "connected to the scheduler, but timeout reached while trying to remove jobs of older executions of this same probe...");	
 		
-		schedulerstub.removeOldProbeJobs(										// Removal of old probe jobs.
-				jobname,getArgs().getBoo("deleteallold"), rt.getRemainingTimeWE());
+		long cleanupBudget = (long)(rt.getRemainingTimeWE() * CLEANUP_BUDGET);	// The rest of the time is kept for the probe job.
+		int[] cleanup = schedulerstub.removeOldProbeJobs(						// Removal of old probe jobs (the ones not removed on time are left for the next execution).
+				jobname,getArgs().getBoo("deleteallold"), cleanupBudget, rt.getRemainingTimeWE());
+		int oldJobsLeft = cleanup[0] - cleanup[1];
+		tracer.addNewReference("old_jobs_cleaned", cleanup[1]);
+		tracer.addNewReference("old_jobs_left", oldJobsLeft);
+		
+		if (getArgs().isGiven("benchmark")){
+			return probeBenchmark(tracer, schedulerstub, rt, jobname, getArgs().getInt("benchmark"), oldJobsLeft);
+		}
 		
 		tracer.finishLastMeasurementAndStartNewOne("time_submission", "connected to the scheduler, but timeout reached while performing the submission of the job...");
 	
@@ -159,7 +199,8 @@ public class JobProber extends PANagiosPlugin{
 		
 		tracer.finishLastMeasurementAndStartNewOne("time_execution", "timeout reached while waiting for the execution of the job " + jobId + " submitted...");
 		
-		schedulerstub.waitUntilJobFinishes(jobId, rt.getRemainingTimeWE());		// Wait for the job to finish.
+		JobTimes times = schedulerstub.waitUntilJobFinishes(jobId, rt.getRemainingTimeWE());	// Wait for the job to finish.
+		addJobTimes(tracer, times);												// Queue, deployment and run of the job (told by the Scheduler).
 		
 		tracer.finishLastMeasurementAndStartNewOne("time_retrieval", "timeout reached while trying to get the output of the finished probe job " + jobId + "...");
 		
@@ -169,14 +210,18 @@ public class JobProber extends PANagiosPlugin{
 	
 		schedulerstub.removeJob(jobId, rt.getRemainingTimeWE());					// Job removed from the list of jobs in the Scheduler.
 		
+		addWaitingOverhead(tracer, schedulerstub, rt);
+		
 		tracer.finishLastMeasurementAndStartNewOne("time_disconn", "timeout reached while trying to disconnect from the scheduler...");
 		
 		schedulerstub.disconnect(rt.getRemainingTimeWE());							// Getting disconnected from the Scheduler.
 		this.disableQuickDisconnectionHook();										// Having reached this point, no need to disconnect anymore.
+		schedulerstub.getDispatcher().addReferences(tracer);						// Calls queued, cancelled and abandoned.
 		
 		tracer.finishLastMeasurement();
+		addRMChecking(tracer);
 	
-		NagiosReturnObjectSummaryMaker summary = new NagiosReturnObjectSummaryMaker();  
+		NagiosReturnObjectSummaryMaker summary = newSummaryMaker(tracer);  
 		summary.addFact("jobid " + jobId + ":" + jobname);
 		
 		if (jresult==null){ 		// No job result obtained... It must never happen, but we check just in case.
@@ -188,9 +233,154 @@ public class JobProber extends PANagiosPlugin{
 				summary.addMiniStatus(new NagiosMiniStatus(RESULT_2_CRITICAL, "OUTPUT CHECK FAILED"));
 		}	
 		
+		if (getArgs().isGiven("warning") && tracer.getTotal() > getArgs().getInt("warning"))
+			summary.addMiniStatus(new NagiosMiniStatus(RESULT_1_WARNING, "TOO SLOW" + getSlownessCause(times)));
+		
+		if (oldJobsLeft > 0)
+			summary.addMiniStatus(new NagiosMiniStatus(RESULT_1_WARNING, oldJobsLeft + " OLD JOBS LEFT FOR THE NEXT EXECUTION"));
+		
+		if (summary.isAllOkay()){
+			summary.addMiniStatus(new NagiosMiniStatus(RESULT_0_OK, "OK"));
+		}	
+		
+		return summary.getSummaryOfAllWithTimeAll(tracer);
+	}
+	
+	/**
+	 * Add to the perfdata the decomposition of the execution of the job (time_queue, time_deploy and time_run), 
+	 * as far as it is known. */
+	private void addJobTimes(TimedStatusTracer tracer, JobTimes times){
+		if (times.getQueueTime() != null)
+			tracer.addNewReference("time_queue", times.getQueueTime());
+		if (times.getDeployTime() != null)
+			tracer.addNewReference("time_deploy", times.getDeployTime());
+		if (times.getRunTime() != null)
+			tracer.addNewReference("time_run", times.getRunTime());
+	}
+	
+	/**
+	 * Add to the perfdata the time spent by the RM session during this probe (time_rm_checking), and the age 
+	 * of the amount of free nodes known (rm_free_nodes_age), if the RM is checked. */
+	private void addRMChecking(TimedStatusTracer tracer){
+		if (rmStateGetter == null){
+			return;
+		}
+		tracer.addNewReference("time_rm_checking", rmStateGetter.getCost() - rmCheckingCostBefore);
+		if (rmStateGetter.getFreeNodesAge() != null)
+			tracer.addNewReference("rm_free_nodes_age", rmStateGetter.getFreeNodesAge());
+	}
+	
+	/**
+	 * Tell where most of the execution of the job went: waiting in the queue of the Scheduler (overloaded Scheduler), 
+	 * or being deployed and run (slow nodes). 
+	 * @return the description to add to the status, or an empty string if the times of the job are unknown. */
+	private String getSlownessCause(JobTimes times){
+		Double queue = times.getQueueTime();
+		Double deploy = times.getDeployTime();
+		Double run = times.getRunTime();
+		if (queue == null || deploy == null || run == null){
+			return "";
+		}
+		if (queue >= deploy + run){
+			return " (JOB QUEUED " + String.format(Locale.ENGLISH, "%1.03f", queue) + " SEC.)";
+		}else{
+			return " (JOB DEPLOYED AND RUN IN " + String.format(Locale.ENGLISH, "%1.03f", deploy + run) + " SEC.)";
+		}
+	}
+	
+	/**
+	 * Tell the last known status of the job awaited (if the timeout was reached while waiting for it). 
+	 * @return the description to add to the timeout message, or an empty string if no job was awaited. */
+	private String getWaitedJobDescription(){
+		SchedulerThroughSingleThread stub = schedulerStub;
+		JobStatus status = (stub == null?null:stub.getWaitedJobStatus());
+		if (status == JobStatus.PENDING){
+			return ", JOB STILL PENDING";
+		}else if (status == JobStatus.RUNNING){
+			return ", JOB STILL RUNNING";
+		}
+		return "";
+	}
+	
+	/**
+	 * Benchmark the scheduler: submit several probe jobs at the same time, wait for all of them and remove them.
+	 * The throughput (jobs/s, from the submission of the first job to the end of the last one, as told by the 
+	 * Scheduler) and the percentiles of the latency of the jobs (from their submission to their end) are told.
+	 * @param tracer tracer of the probe.
+	 * @param schedulerstub stub already connected to the scheduler (and with the old jobs removed).
+	 * @param rt remaining time of the probe.
+	 * @param jobname name of the jobs.
+	 * @param count amount of jobs.
+	 * @param oldJobsLeft amount of old jobs that could not be removed.
+	 * @return NagiosReturnObject with Nagios code error and a descriptive message of the benchmark. */	 
+	private NagiosReturnObject probeBenchmark(TimedStatusTracer tracer, SchedulerThroughSingleThread schedulerstub, RemainingTime rt, String jobname, int count, int oldJobsLeft) throws Exception{
+		tracer.finishLastMeasurementAndStartNewOne("time_submission", "connected to the scheduler, but timeout reached while performing the submission of the " + count + " benchmark jobs...");
+		
+		Vector<String> jobIds = schedulerstub.submitJobs(						// Submission of all the jobs (one right after the other).
+				jobname, JobProber.TASK_CLASS_NAME, getArgs().getBoo("highpriority"), 
+				count, rt.getRemainingTimeWE());
+		
+		tracer.finishLastMeasurementAndStartNewOne("time_execution", "timeout reached while waiting for the execution of the " + count + " benchmark jobs submitted...");
+		
+		Vector<JobTimes> infos = schedulerstub.waitUntilJobsFinish(jobIds, rt.getRemainingTimeWE());
+		
+		tracer.finishLastMeasurementAndStartNewOne("time_removal", "timeout reached while trying to remove the benchmark jobs executed...");
+		
+		int[] removal = schedulerstub.removeOldProbeJobs(						// The jobs not removed on time are left for the next execution.
+				jobname, false, rt.getRemainingTimeWE(), rt.getRemainingTimeWE());
+		oldJobsLeft += removal[0] - removal[1];
+		addWaitingOverhead(tracer, schedulerstub, rt);
+		
+		tracer.finishLastMeasurementAndStartNewOne("time_disconn", "timeout reached while trying to disconnect from the scheduler...");
+		
+		schedulerstub.disconnect(rt.getRemainingTimeWE());							// Getting disconnected from the Scheduler.
+		this.disableQuickDisconnectionHook();										// Having reached this point, no need to disconnect anymore.
+		schedulerstub.getDispatcher().addReferences(tracer);						// Calls queued, cancelled and abandoned.
+		
+		tracer.finishLastMeasurement();
+		addRMChecking(tracer);
+		
+		LatencyHistogram latencies = new LatencyHistogram();
+		long firstSubmission = Long.MAX_VALUE;
+		long lastEnd = Long.MIN_VALUE;
+		int failed = 0;
+		for (JobTimes times: infos){
+			JobInfo info = times.getInfo();
+			if (info == null){
+				continue;
+			}
+			if (info.getStatus() != JobStatus.FINISHED){
+				failed++;
+			}
+			latencies.record((info.getFinishedTime() - info.getSubmittedTime()) / 1000.0);
+			firstSubmission = Math.min(firstSubmission, info.getSubmittedTime());
+			lastEnd = Math.max(lastEnd, info.getFinishedTime());
+		}
+		double span = (lastEnd > firstSubmission?(lastEnd - firstSubmission) / 1000.0:tracer.getMeasurements().get("time_execution"));
+		double throughput = count / span;
+		
+		tracer.addNewReference("benchmark_jobs", count);
+		tracer.addNewReference("benchmark_throughput", throughput);
+		for (double p: new double[]{50, 95, 99}){
+			Double latency = latencies.getPercentile(p);
+			if (latency != null){
+				tracer.addNewReference("benchmark_latency_p" + (int)p, latency);
+			}
+		}
+		
+		NagiosReturnObjectSummaryMaker summary = newSummaryMaker(tracer);  
+		summary.addFact("benchmark of " + count + " jobs " + jobname + ": " + 
+				String.format(Locale.ENGLISH, "%1.03f", throughput) + " jobs/s");
+		
+		if (failed > 0)
+			summary.addMiniStatus(new NagiosMiniStatus(RESULT_2_CRITICAL, failed + " BENCHMARK JOBS FAILED"));
+		
 		if (getArgs().isGiven("warning") && tracer.getTotal() > getArgs().getInt("warning"))
 			summary.addMiniStatus(new NagiosMiniStatus(RESULT_1_WARNING, "TOO SLOW"));
 		
+		if (oldJobsLeft > 0)
+			summary.addMiniStatus(new NagiosMiniStatus(RESULT_1_WARNING, oldJobsLeft + " OLD JOBS LEFT FOR THE NEXT EXECUTION"));
+		
 		if (summary.isAllOkay()){
 			summary.addMiniStatus(new NagiosMiniStatus(RESULT_0_OK, "OK"));
 		}	
@@ -198,6 +388,31 @@ public class JobProber extends PANagiosPlugin{
 		return summary.getSummaryOfAllWithTimeAll(tracer);
 	}
 	
+	/**
+	 * Add to the perfdata the overhead of waiting for the jobs (polls done or events received by the listener). */
+	private void addWaitingOverhead(TimedStatusTracer tracer, SchedulerThroughSingleThread schedulerstub, RemainingTime rt) throws Exception{
+		if (getArgs().getBoo("polling")){
+			tracer.addNewReference("polls", schedulerstub.getPollCount());			// Overhead of the polling.
+			tracer.addNewReference("polling_overhead", schedulerstub.getPollingOverhead());
+		}else{
+			int[] events = schedulerstub.getEventCounts(rt.getRemainingTimeWE());	// Overhead of the listener.
+			tracer.addNewReference("events_received", events[0]);
+			tracer.addNewReference("events_discarded", events[1]);
+		}
+	}
+	
+	
+	protected List<String> getWrittenFileOptions(){
+		List<String> ret = super.getWrittenFileOptions();
+		ret.add("job-index");
+		return ret;
+	}
+	
+	/**
+	 * The timeout is handled by the probe itself (see main). */
+	public boolean isTimeoutManagedByProbe(){
+		return true;
+	}
 	
 	public void disableQuickDisconnectionHook(){
 		logger.info("Disabled disconnection hook.");
@@ -223,33 +438,40 @@ public class JobProber extends PANagiosPlugin{
 					}
 				}catch(Exception e){
 					logger.warn("Faled while performing quickDisconnect..." + e);
+				}finally{
+					stub.shutdown();
 				}
 			}
 		};
 		
-		Runtime.getRuntime().addShutdownHook(new Thread(disc)); // Connect the disconnection (THREAD_POOL executed) to the ShutdownHook. 
+		registerCleanup(disc); 						// Connect the disconnection (THREAD_POOL executed) to the end of the probe. 
 	}
 	
 	/**
 	 * We rewrite the method since the output depends on whether we haver or not some RM results. */
-	protected NagiosReturnObject getNagiosReturnObjectForTimeoutException(Integer timeout, TimedStatusTracer tracer, Exception e){
+	protected NagiosReturnObject getNagiosReturnObjectForTimeoutException(Integer errorCode, Integer timeout, TimedStatusTracer tracer, Exception e){
 		NagiosReturnObject ret;
+		String waited = getWaitedJobDescription();		// Pending job (overloaded Scheduler?) or running job (slow nodes?).
 		
-		if (getArgs().getBoo("rm-checking") == true){ 	// Checking of the RM activated.
-			RMState state = rmStateGetter.getQueryResult();
-			if (state == null){									// We still do not have any result.
-				ret = new NagiosReturnObject(RESULT_2_CRITICAL, "FREE RM NODES: UNKNOWN, TIMEOUT OF " + getArgs().getInt("critical")+ " SEC. (last status: " + tracer.getLastStatusDescription() + ")", e);
+		if (rmStateGetter != null){ 					// Checking of the RM activated.
+			Integer freenodes = rmStateGetter.getFreeNodes();
+			if (freenodes == null){								// We still do not have any result.
+				ret = new NagiosReturnObject(errorCode, "FREE RM NODES: UNKNOWN, TIMEOUT OF " + timeout + " SEC." + waited + " (last status: " + tracer.getLastStatusDescription() + ")", e);
 			}else{												// We already have a result.
-				Integer freenodes = state.getFreeNodesNumber();
-				logger.info("RM Free nodes: " + freenodes);
+				String age = " (" + String.format(Locale.ENGLISH, "%1.03f", rmStateGetter.getFreeNodesAge()) + " SEC. AGO)";
+				logger.info("RM Free nodes: " + freenodes + age);
 				if (freenodes == 0){							
-					ret = new NagiosReturnObject(RESULT_3_UNKNOWN, "NO FREE RM NODES, TIMEOUT OF " + getArgs().getInt("critical") + " SEC. (last status: " + tracer.getLastStatusDescription() + ")", e);
+					ret = new NagiosReturnObject(RESULT_3_UNKNOWN, "NO FREE RM NODES" + age + ", TIMEOUT OF " + timeout + " SEC." + waited + " (last status: " + tracer.getLastStatusDescription() + ")", e);
 				}else{
-					ret = new NagiosReturnObject(RESULT_2_CRITICAL, "RM FREE RM NODES: " + freenodes + ", TIMEOUT OF " + getArgs().getInt("critical")+ " SEC. (last status: " + tracer.getLastStatusDescription() + ")", e);
+					ret = new NagiosReturnObject(errorCode, "RM FREE RM NODES: " + freenodes + age + ", TIMEOUT OF " + timeout + " SEC." + waited + " (last status: " + tracer.getLastStatusDescription() + ")", e);
 				}
 			}
+			addRMChecking(tracer);
 		}else{											// Checking of the RM deactivated.
-			ret = new NagiosReturnObject(RESULT_2_CRITICAL, "TIMEOUT OF " + getArgs().getInt("critical")+ " SEC. (last status: " + tracer.getLastStatusDescription() + ")", e);
+			ret = new NagiosReturnObject(errorCode, "TIMEOUT OF " + timeout + " SEC." + waited + " (last status: " + tracer.getLastStatusDescription() + ")", e);
+		}
+		if (schedulerStub != null){
+			schedulerStub.getDispatcher().addReferences(tracer);	// Calls queued, cancelled and abandoned.
 		}
 		ret.addCurvesSection(tracer, null);
 		return ret;
@@ -0,0 +1,105 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ow2.proactive.scheduler.common.job.JobInfo;
+import org.ow2.proactive.scheduler.common.task.TaskInfo;
+
+/**
+ * Decomposition of the execution of a finished job, from the timestamps told by the Scheduler:
+ *  - queue: from the submission of the job to its start (pending to running), 
+ *  - deploy: from the start of the job to its end, except the run of its tasks (selection of the nodes, 
+ *    deployment of the tasks and retrieval of their results), 
+ *  - run: execution of the task itself (the longest one if there are several tasks). 
+ * A long queue points out an overloaded Scheduler, while long deploy/run times point out slow nodes. */
+public class JobTimes {
+	private final JobInfo info;									// Information of the job (submission, start and finish times).
+	private final List<TaskInfo> tasks;							// Information of the finished tasks of the job.
+	
+	/**
+	 * Constructor.
+	 * @param info information of the finished job (can be null if unknown).
+	 * @param tasks information of its finished tasks (can be empty if unknown). */
+	public JobTimes(JobInfo info, List<TaskInfo> tasks){
+		this.info = info;
+		this.tasks = new ArrayList<TaskInfo>(tasks);
+	}
+	
+	/**
+	 * Get the information of the job.
+	 * @return the information of the job, or null if unknown. */
+	public JobInfo getInfo(){
+		return info;
+	}
+	
+	/**
+	 * Get the time the job waited in the queue of the Scheduler (from its submission to its start).
+	 * @return the time (s), or null if unknown. */
+	public Double getQueueTime(){
+		if (info == null || info.getSubmittedTime() <= 0 || info.getStartTime() < info.getSubmittedTime()){
+			return null;
+		}
+		return (info.getStartTime() - info.getSubmittedTime()) / 1000.0;
+	}
+	
+	/**
+	 * Get the time the task of the job took to run (the longest one if there are several tasks).
+	 * @return the time (s), or null if unknown. */
+	public Double getRunTime(){
+		long longest = -1;
+		for (TaskInfo task: tasks){
+			longest = Math.max(longest, task.getExecutionDuration());
+		}
+		return (longest < 0?null:longest / 1000.0);
+	}
+	
+	/**
+	 * Get the time spent to deploy the tasks of the job and to retrieve their results (from the start of 
+	 * the job to its end, except the run of its task).
+	 * @return the time (s), or null if unknown. */
+	public Double getDeployTime(){
+		Double run = getRunTime();
+		if (run == null || info == null || info.getStartTime() <= 0 || info.getFinishedTime() < info.getStartTime()){
+			return null;
+		}
+		return Math.max(0, (info.getFinishedTime() - info.getStartTime()) / 1000.0 - run);
+	}
+}
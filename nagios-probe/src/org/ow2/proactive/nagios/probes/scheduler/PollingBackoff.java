@@ -0,0 +1,75 @@
+/*
+ * ################################################################
+ *
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ * ################################################################
+ * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.probes.scheduler;
+
+/**
+ * Periods to wait between two polls of the state of a job. The polling starts fast and backs off 
+ * exponentially up to a ceiling: a job that finishes quickly is detected quickly (low quantization error), 
+ * and a long job does not make the probe hammer the Scheduler. 
+ * If the usual duration of the job is known, the first period is sized from it (no need to poll a job 
+ * that is not supposed to be finished yet), and the fast polling starts right after. */
+public class PollingBackoff {
+	public static final long MIN_PERIOD_MS = 20;					// First period of the fast polling.
+	public static final long MAX_PERIOD_MS = 1500;					// Ceiling of the periods.
+	private static final int FACTOR = 2;							// Growth of the period after each poll.
+	private static final double EXPECTED_FRACTION = 0.9;			// Fraction of the usual duration waited before the first poll.
+	
+	private long first;												// First period (0 if already used).
+	private long next = MIN_PERIOD_MS;								// Next period of the backoff.
+	
+	/**
+	 * Constructor.
+	 * @param expectedms usual duration (ms) of what is waited for, or 0 if unknown. */
+	public PollingBackoff(long expectedms){
+		first = (long)(expectedms * EXPECTED_FRACTION);
+	}
+	
+	/**
+	 * Get the period to wait before the next poll.
+	 * @return the period (ms). */
+	public long nextPeriod(){
+		if (first > MIN_PERIOD_MS){
+			long ret = first;
+			first = 0;
+			return ret;
+		}
+		long ret = next;
+		next = Math.min(next * FACTOR, MAX_PERIOD_MS);
+		return ret;
+	}
+}
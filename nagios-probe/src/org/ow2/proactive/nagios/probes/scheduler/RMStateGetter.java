@@ -37,103 +37,203 @@
 
 package org.ow2.proactive.nagios.probes.scheduler;
 
-import java.security.KeyException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.*;
-import javax.security.auth.login.LoginException;
 import org.apache.log4j.Logger;
-import org.objectweb.proactive.core.util.wrapper.BooleanWrapper;
-import org.ow2.proactive.authentication.crypto.CredData;
-import org.ow2.proactive.authentication.crypto.Credentials;
-import org.ow2.proactive.resourcemanager.authentication.RMAuthentication;
-import org.ow2.proactive.resourcemanager.common.RMState;
-import org.ow2.proactive.resourcemanager.exception.RMException;
-import org.ow2.proactive.resourcemanager.frontend.RMConnection;
-import org.ow2.proactive.resourcemanager.frontend.ResourceManager;
+import org.ow2.proactive.nagios.common.CredentialsCache;
+import org.ow2.proactive.nagios.probes.rm.RMStubProber;
 
 /**
- * Class that gets basic information about the Resource Manager. */
+ * Class that gets basic information about the Resource Manager (the amount of free nodes). 
+ * There is one session per RM and user, shared by all the probes running in the same JVM: it logs in once, 
+ * and then refreshes the amount of free nodes periodically while some probe uses it. */
 public class RMStateGetter {
 
 	public static Logger logger = Logger.getLogger(RMStateGetter.class.getName()); 	// Logger.
-	private ResourceManager rmStub; 												// ResourceManager locally.
-	private Future<RMState> future;													// Future output of the RMStateGetter.
+	public static final long REFRESH_PERIOD_MS = 2000;								// Period of the refresh of the amount of free nodes.
+	public static final long IDLE_TIMEOUT_MS = 60 * 1000;							// Time the session is kept once unused (resident mode only).
+	
+	private static final Map<String, RMStateGetter> sessions = 					// Sessions by RM and user.
+		new HashMap<String, RMStateGetter>();
+	
+	private final String key;														// Key of this session in the map of sessions.
+	private final String url;														// Url of the RM.
+	private final String user;														// User to get connected to the RM.
+	private volatile String pass;													// Pass to get connected to the RM.
+	private volatile CredentialsCache credentialsCache;								// Cache of the encrypted credentials.
+	private RMStubProber rmStub;													// Stub of the RM (null if not logged in), only used by the refresh thread.
+	private ScheduledExecutorService executor;										// Thread of the refresh (null once disconnected).
+	private ScheduledFuture<?> refresh;												// Periodic refresh (null if no probe uses the session).
+	private ScheduledFuture<?> idleDisconnection;									// Pending disconnection of the unused session.
+	private int users = 0;															// Amount of probes using the session.
+	
+	private volatile Integer freeNodes = null;										// Last amount of free nodes known.
+	private volatile long updated = 0;												// When it was obtained (ms).
+	private volatile long costNanos = 0;											// Time spent so far logging in and getting the state.
+	
+	private RMStateGetter(String key, String url, String user){
+		this.key = key;
+		this.url = url;
+		this.user = user;
+	}
 	
-	ExecutorService THREAD_POOL = Executors.newFixedThreadPool(1);
 	/**
-	 * Constructor of the RM State Getter class.
+	 * Get the session to the given RM (created if needed), and start refreshing the amount of free nodes.
+	 * Each call must be followed by a call to release().
 	 * @param url url of the RM.
 	 * @param user user to get connected to the RM.
-	 * @param pass pass to get connected to the RM. */
-	public RMStateGetter(String url, String user, String pass){
-		logger.info("Executing RMState check parallely...");
+	 * @param pass pass to get connected to the RM. 
+	 * @param cache cache of the encrypted credentials. 
+	 * @return the session. */
+	public static RMStateGetter acquire(String url, String user, String pass, CredentialsCache cache){
 		if (url.startsWith("pamr:")){
 			logger.info("PAMR protocol detected, using 'pamr://0' for RM instead...");
 			url = "pamr://0";	
 		}
-		final String url1 = url;
-		final String user1 = user;
-		final String pass1 = pass;
-		Callable<RMState> task = new Callable<RMState>(){
-			public RMState call() throws Exception{
-				init(url1, user1, pass1);
-				RMState ret = getRMState();
-				disconnect();
-				return ret;
+		String key = url + "\t" + user;
+		synchronized(sessions){
+			RMStateGetter session = sessions.get(key);
+			if (session == null){
+				session = new RMStateGetter(key, url, user);
+				sessions.put(key, session);
 			}
-		};
-		future = THREAD_POOL.submit(task);
+			session.pass = pass;
+			session.credentialsCache = cache;
+			session.start();
+			return session;
+		}
 	}
 	
 	/**
-	 * Initialize the connection with the remote Resource Manager.
-	 * Uses the url of the RM, and the user/pass to login to it. */
-	private void init(String url, String user, String pass) throws RMException, KeyException, LoginException{
-    	logger.info("Joining the Resource Manager at '" + url + "'...");
-        RMAuthentication auth = RMConnection.join(url); 	// Join the RM.
-        logger.info("Done.");
-        logger.info("Creating credentials...");
-        Credentials cred = Credentials.createCredentials(new CredData(user, pass), auth.getPublicKey());
-        logger.info("Done.");
-        logger.info("Logging in...");
-        rmStub = auth.login(cred);								// Login against the RM.
-        logger.info("Done.");
+	 * Start refreshing (if not done yet) the amount of free nodes. Called with the lock of the sessions held. */
+	private void start(){
+		users++;
+		if (idleDisconnection != null){
+			idleDisconnection.cancel(false);
+			idleDisconnection = null;
+		}
+		if (executor == null){
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "rm-state-getter");
+					t.setDaemon(true);								// Never keep the JVM alive.
+					return t;
+				}
+			});
+		}
+		if (refresh == null){
+			logger.info("Refreshing the RM state every " + REFRESH_PERIOD_MS + " ms...");
+			refresh = executor.scheduleWithFixedDelay(new Runnable(){
+				public void run(){
+					refresh();
+				}
+			}, 0, REFRESH_PERIOD_MS, TimeUnit.MILLISECONDS);
+		}
 	}
 	
 	/**
-	 * Release the given set of nodes.
-	 * @return state of the RM. */
-	private RMState getRMState(){
-    	logger.info("Getting state...");
-		RMState ret = rmStub.getState();
-    	logger.info("Done.");
-		return ret;
+	 * Stop using the session. Once no probe uses it, the refresh stops and the session is disconnected 
+	 * after the given idle time (so a probe executed meanwhile reuses it).
+	 * @param idlems time to keep the session unused (0 to disconnect right now). */
+	public void release(long idlems){
+		synchronized(sessions){
+			users--;
+			if (users > 0 || executor == null){
+				return;
+			}
+			refresh.cancel(false);
+			refresh = null;
+			if (idlems > 0){
+				idleDisconnection = executor.schedule(new Runnable(){
+					public void run(){
+						disconnectIfIdle();
+					}
+				}, idlems, TimeUnit.MILLISECONDS);
+			}else{
+				sessions.remove(key);
+				executor.execute(new Runnable(){				// After the refresh possibly running.
+					public void run(){
+						disconnect();
+					}
+				});
+				executor.shutdown();
+				executor = null;
+			}
+		}
 	}
-
+	
 	/**
-	 * Disconnect from the Resource Manager. */
-	private void disconnect(){
-    	logger.info("Disconnecting...");					// Disconnecting from RM.
-		BooleanWrapper ret = rmStub.disconnect();
-    	logger.info("Done (returned '" + ret + "').");	
+	 * Login if needed, and get the amount of free nodes. Only called by the thread of the session. */
+	private void refresh(){
+		long start = System.nanoTime();
+		try{
+			if (rmStub == null){
+				RMStubProber stub = new RMStubProber();
+				stub.setCredentialsCache(credentialsCache);
+				stub.init(url, user, pass);
+				rmStub = stub;
+			}
+			freeNodes = rmStub.getRMState().getFreeNodesNumber();
+			updated = System.currentTimeMillis();
+			logger.info("RM Free nodes: " + freeNodes);
+		}catch(Exception e){
+			logger.info("Problem getting RMState...", e);
+			if (rmStub != null){								// Login again in the next refresh.
+				rmStub.quickDisconnect();
+				rmStub = null;
+			}
+		}finally{
+			costNanos += System.nanoTime() - start;
+		}
 	}
 	
 	/**
-	 * Get the result of the query, a description of the state of the RM
-	 * @return state of the RM, or null if it was not possible to get it in the given time. */
-	public RMState getQueryResult(){
-		RMState ret = null;
-		try {
-			if (future.isDone() == true){
-		    	logger.info("RMState was ready... Getting it...");
-				ret = future.get();									// In the best case, we return something different than null.
-		    	logger.info("RMState obtained OK.");
-			}else{
-		    	logger.info("RMState was not ready... Avoiding...");
+	 * Disconnect from the Resource Manager and forget the session, unless some probe uses it again. 
+	 * Only called by the thread of the session. */
+	private void disconnectIfIdle(){
+		synchronized(sessions){
+			if (users > 0){
+				return;
 			}
-		} catch (Exception e) {
-	    	logger.info("Problem getting RMState...", e);
+			sessions.remove(key);
+			executor.shutdown();
+			executor = null;
+			idleDisconnection = null;
 		}
-		return ret;
+		disconnect();
+	}
+	
+	/**
+	 * Disconnect from the Resource Manager. Only called by the thread of the session. */
+	private void disconnect(){
+		if (rmStub != null){
+			rmStub.quickDisconnect();
+			rmStub = null;
+		}
+	}
+	
+	/**
+	 * Get the last amount of free nodes known.
+	 * @return the amount of free nodes, or null if it was not possible to get it yet. */
+	public Integer getFreeNodes(){
+		return freeNodes;
+	}
+	
+	/**
+	 * Get the age of the amount of free nodes told by getFreeNodes().
+	 * @return age in seconds, or null if the amount is not known. */
+	public Double getFreeNodesAge(){
+		long u = updated;
+		return (u == 0?null:(System.currentTimeMillis() - u) / 1000.0);
+	}
+	
+	/**
+	 * Get the time spent so far by this session logging in and getting the state of the RM 
+	 * (from its thread, so concurrently with the probes).
+	 * @return cost in seconds. */
+	public double getCost(){
+		return costNanos / 1e9;
 	}
 	
-}
\ No newline at end of file
+}
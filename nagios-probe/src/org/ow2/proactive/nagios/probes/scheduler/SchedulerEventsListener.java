@@ -49,77 +49,41 @@ import org.ow2.proactive.scheduler.common.task.TaskInfo;
 
 
 /** 
- * Class that listens to events that happen in the remote Scheduler. */ 
+ * Class that listens to events that happen in the remote Scheduler. 
+ * Only the events of the jobs with the watched name are taken into account, the others are discarded 
+ * as soon as they arrive (the amount of events received and discarded is kept). */ 
 public class SchedulerEventsListener implements SchedulerEventListener, Serializable{
 	private static final long serialVersionUID = 1L;
 	private static Logger logger = Logger.getLogger(SchedulerEventsListener.class.getName());// Logger.	
-	private static final int lastSomethingJobsBufferSize = 200; 							 // Maximum amount of elements in the lastFinished/RemovedJobs array.
-	public static String[] lastFinishedJobs = new String[lastSomethingJobsBufferSize]; 		 // List of last finished jobs.
-	public static String[] lastRemovedJobs  = new String[lastSomethingJobsBufferSize]; 		 // List of last finished jobs.
-	public static int currentCounterFinished = 0; 											 // Circular index.
-	public static int currentCounterRemoved  = 0;
+	public static final SchedulerEvent[] SUBSCRIBED_EVENTS = 							 // Only events the listener needs.
+			{SchedulerEvent.JOB_PENDING_TO_RUNNING, SchedulerEvent.TASK_RUNNING_TO_FINISHED, 
+			SchedulerEvent.JOB_RUNNING_TO_FINISHED, SchedulerEvent.JOB_REMOVE_FINISHED};
+	public static final String ALL_JOBS = "*";											 // Name to watch the events of all the jobs.
 	
-	/** 
-	 * Check if the given job is in the list of last finished jobs. */
-	public static synchronized boolean checkIfJobIdHasJustFinished(String jobId){
-		logger.debug("\tChecking if " + jobId + " has already finished...");
-		printListFinished();
-		for (String j:lastFinishedJobs){
-			if (j!=null && j.equals(jobId)){
-				logger.debug("\t\tjobId " + jobId + " finished cleanly.");
-				return true;
-			}
-		}
-		logger.debug("\t\tjobId " + jobId + " not finished cleanly...");
-		return false;
-	}
-
-	/** 
-	 * Check if the given job is in the list of last removed jobs. */
-	public static synchronized boolean checkIfJobIdHasJustBeenRemoved(String jobId){
-		logger.debug("\tChecking if " + jobId + " has been already removed...");
-		printListRemoved();
-		for (String j:lastRemovedJobs){
-			if (j!=null && j.equals(jobId)){
-				logger.debug("\t\tjobId " + jobId + " removed.");
-				return true;
-			}
-		}
-		logger.debug("\t\tjobId " + jobId + " not removed...");
-		return false;
-	}
-
-	
-	/**
-	 * Add a job to the list of last removed jobs. */
-	public static synchronized void addRemovedJobId(String jobId){
-		lastRemovedJobs[currentCounterRemoved] = jobId;
-		currentCounterRemoved = (currentCounterRemoved + 1) % lastSomethingJobsBufferSize;
-		printListRemoved();
-	}
-
+	private String registryId = null;													 // Id of the JobCompletionRegistry of the session.
+	private String watchedJobName = ALL_JOBS;											 // Name of the jobs whose events are taken into account.
+	private int eventsReceived = 0;														 // Amount of events received.
+	private int eventsDiscarded = 0;													 // Amount of events received but discarded.
 	
 	/**
-	 * Add a job to the list of last finished jobs. */
-	public static synchronized void addFinishedJobId(String jobId){
-		lastFinishedJobs[currentCounterFinished] = jobId;
-		currentCounterFinished = (currentCounterFinished + 1) % lastSomethingJobsBufferSize ;
-		printListFinished();
-	}
+	 * Empty constructor (needed to create the active object). */
+	public SchedulerEventsListener(){}
 	
 	/**
-	 * Print the list of last finished jobs. */
-	private static synchronized void printListFinished(){
-		//logger.debug("\tLast finished jobs: " + Misc.getDescriptiveString((Object)lastFinishedJobs));
+	 * Constructor.
+	 * @param registryId id of the JobCompletionRegistry of the session, where the events are told.
+	 * @param watchedJobName name of the jobs whose events are taken into account (ALL_JOBS for all of them). */
+	public SchedulerEventsListener(String registryId, String watchedJobName){
+		this.registryId = registryId;
+		this.watchedJobName = watchedJobName;
 	}
-
 	
 	/**
-	 * Print the list of last removed jobs. */
-	private static synchronized void printListRemoved(){
-		//logger.debug("\tLast removed jobs: " + Misc.getDescriptiveString((Object)lastRemovedJobs));
+	 * Get the amount of events received (and the amount of them that were discarded).
+	 * @return an array with the amount of events received and the amount of events discarded. */
+	public int[] getEventCounts(){
+		return new int[]{eventsReceived, eventsDiscarded};
 	}
-
 	
 	/** 
 	 * Interface SchedulerEventListener
@@ -128,35 +92,60 @@ public class SchedulerEventsListener implements SchedulerEventListener, Serializ
 
 	
 	public void jobStateUpdatedEvent(NotificationData<JobInfo> info) {
+		eventsReceived++;
 		String name = info.getData().getJobId().getReadableName();
+		if (ALL_JOBS.equals(watchedJobName) == false && watchedJobName.equals(name) == false){
+			eventsDiscarded++;															// Event of a job that is not ours.
+			return;
+		}
 		logger.info(">> Event " + name + ":" +  info.getData().getJobId().value() + " -> " + info.getEventType().toString());
+		JobCompletionRegistry registry = JobCompletionRegistry.get(registryId);
+		if (registry == null){
+			return;																		// Session already over.
+		}
+		
+		if (info.getEventType().equals(SchedulerEvent.JOB_PENDING_TO_RUNNING)){
+			/* The job left the queue of the Scheduler. */ 
+			registry.jobStarted(info.getData().getJobId().value());
+		} 
 		
 		if (info.getEventType().equals(SchedulerEvent.JOB_RUNNING_TO_FINISHED)){
-			/* If we receive a running-to-finished event for a job, we add this job to the 
-			 * list of last finished jobs. */ 
-			addFinishedJobId(info.getData().getJobId().value());
-			synchronized(SchedulerStubProberJava.class){
-				SchedulerStubProberJava.class.notifyAll();
-			}
+			/* If we receive a running-to-finished event for a job, we release whoever waits for it to finish. */ 
+			registry.jobFinished(info.getData().getJobId().value(), info.getData());
 		} 
 		
 		if (info.getEventType().equals(SchedulerEvent.JOB_REMOVE_FINISHED)){
-			/* If we receive a remove-finished event for a job, we add this job to the 
-			 * list of last removed jobs. */ 
-			addRemovedJobId(info.getData().getJobId().value());
-			synchronized(SchedulerStubProberJava.class){
-				SchedulerStubProberJava.class.notifyAll();
-			}
+			/* If we receive a remove-finished event for a job, we release whoever waits for it to be cleaned (and forget it). */ 
+			registry.jobRemoved(info.getData().getJobId().value());
+		}
+	}
+
+	public void taskStateUpdatedEvent(NotificationData<TaskInfo> info) {
+		eventsReceived++;
+		String name = info.getData().getJobId().getReadableName();
+		if (ALL_JOBS.equals(watchedJobName) == false && watchedJobName.equals(name) == false){
+			eventsDiscarded++;															// Event of a task of a job that is not ours.
+			return;
+		}
+		logger.info(">> Event " + name + ":" +  info.getData().getJobId().value() + " (task) -> " + info.getEventType().toString());
+		JobCompletionRegistry registry = JobCompletionRegistry.get(registryId);
+		if (registry == null){
+			return;																		// Session already over.
+		}
+		
+		if (info.getEventType().equals(SchedulerEvent.TASK_RUNNING_TO_FINISHED)){
+			/* The run of the task is kept to tell apart its execution from its deployment. */ 
+			registry.taskFinished(info.getData().getJobId().value(), info.getData());
 		}
 	}
 
 	
-	public void jobSubmittedEvent(JobState arg0) {}
+	/* Events not subscribed to (see SUBSCRIBED_EVENTS), counted as discarded if they ever arrive. */
 	
-	public void schedulerStateUpdatedEvent(SchedulerEvent arg0) {}
+	public void jobSubmittedEvent(JobState arg0) {eventsReceived++; eventsDiscarded++;}
 	
-	public void taskStateUpdatedEvent(NotificationData<TaskInfo> arg0) {}
+	public void schedulerStateUpdatedEvent(SchedulerEvent arg0) {eventsReceived++; eventsDiscarded++;}
 	
-	public void usersUpdatedEvent(NotificationData<UserIdentification> arg0) {}
+	public void usersUpdatedEvent(NotificationData<UserIdentification> arg0) {eventsReceived++; eventsDiscarded++;}
 	
 }
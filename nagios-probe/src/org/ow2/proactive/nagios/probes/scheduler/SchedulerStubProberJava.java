@@ -40,12 +40,15 @@ package org.ow2.proactive.nagios.probes.scheduler;
 import javax.security.auth.login.LoginException;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.log4j.Logger;
+import org.ow2.proactive.nagios.common.CredentialsCache;
 import org.objectweb.proactive.ActiveObjectCreationException;
 import org.objectweb.proactive.api.PAActiveObject;
 import org.objectweb.proactive.core.node.NodeException;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
 import org.ow2.proactive.nagios.exceptions.InvalidProtocolException;
 import org.ow2.proactive.scheduler.common.SchedulerConnection;
 import org.ow2.proactive.scheduler.common.SchedulerState;
+import org.ow2.proactive.scheduler.common.exception.AlreadyConnectedException;
 import org.ow2.proactive.scheduler.common.exception.JobCreationException;
 import org.ow2.proactive.scheduler.common.exception.NotConnectedException;
 import org.ow2.proactive.scheduler.common.exception.PermissionException;
@@ -55,12 +58,19 @@ import org.ow2.proactive.scheduler.common.exception.UnknownJobException;
 import org.ow2.proactive.scheduler.common.exception.UserException;
 import org.ow2.proactive.scheduler.common.job.*;
 import org.ow2.proactive.scheduler.common.task.JavaTask;
+import org.ow2.proactive.scheduler.common.task.TaskInfo;
+import org.ow2.proactive.scheduler.common.task.TaskState;
 import org.ow2.proactive.scheduler.common.Scheduler;
-import org.ow2.proactive.authentication.crypto.CredData;
 import org.ow2.proactive.scheduler.common.SchedulerAuthenticationInterface;
 import java.io.IOException;
 import java.security.KeyException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.ow2.proactive.authentication.crypto.Credentials;
 
 /** 
@@ -69,38 +79,88 @@ import org.ow2.proactive.authentication.crypto.Credentials;
  * This class is specific for JAVAPA protocol. */
 public class SchedulerStubProberJava {
 	private boolean usePolling = false;									// Waiting through polling mechanism? (otherwise event based).
-	private static int POLLING_PERIOD_MS = 1500;						// Polling period time (if polling is activated).
+	private volatile long expectedExecutionMs = 0;						// Usual execution time of the probe job (0 if unknown), to size the polling.
+	private final AtomicInteger pollCount = new AtomicInteger();			// Amount of polls done (by any waiting thread).
+	private final AtomicLong pollingOverheadNanos = new AtomicLong();		// Estimated time lost between the end of the jobs and their detection.
+	private volatile JobCompletionRegistry.JobCompletion waitedJob = null;	// Completion of the last job waited for (if not polling).
+	private volatile JobStatus waitedJobStatus = null;					// Last status polled of the last job waited for (if polling).
 	private static Logger logger =
 			Logger.getLogger(SchedulerStubProberJava.class.getName()); 	// Logger.
 	private Scheduler schedulerStub; 									// Stub to the scheduler.
+	private TimedStatusTracer tracer;									// Tracer where the sub-operations are traced (as spans).
+	private SchedulerEventsListener listener = null;					// Listener of the events of the Scheduler (if not polling).
+	private volatile JobCompletionRegistry registry = null;				// Completion of the jobs, told by the listener (if not polling).
+	private volatile JobIndex jobIndex = null;								// Index of the jobs of the user (null to always get the whole state).
+	private volatile CredentialsCache credentialsCache = CredentialsCache.get(null);	// Cache of the encrypted credentials.
 	
 	/**
 	 * Constructor method. */
-	public SchedulerStubProberJava(){}
+	public SchedulerStubProberJava(){
+		this(new TimedStatusTracer());
+	}
+	
+	/**
+	 * Constructor method. 
+	 * @param tracer tracer of the probe, where the calls to the Scheduler are traced. */
+	public SchedulerStubProberJava(TimedStatusTracer tracer){
+		this.tracer = tracer;
+	}
 	
 	/** 
 	 * Initialize the connection/session with the scheduler.
 	 * @param url url of the scheduler. 
 	 * @param user username to access the scheduler.
 	 * @param pass password to access the scheduler.
-	 * @param polling mechanism to be used while waiting for an event: polling or observer. */
-	public void init(String url, String user, String pass, boolean polling) throws IllegalArgumentException, LoginException, SchedulerException, KeyException, ActiveObjectCreationException, NodeException, HttpException, IOException{
+	 * @param polling mechanism to be used while waiting for an event: polling or observer. 
+	 * @param watchedJobName name of the jobs whose events are listened to (SchedulerEventsListener.ALL_JOBS for all). */
+	public void init(String url, String user, String pass, boolean polling, String watchedJobName) throws IllegalArgumentException, LoginException, SchedulerException, KeyException, ActiveObjectCreationException, NodeException, HttpException, IOException{
 		logger.info("Joining the scheduler at '" + url + "'...");
-        SchedulerAuthenticationInterface auth = SchedulerConnection.join(url);
+		int span = tracer.startSpan("join");
+		final SchedulerAuthenticationInterface auth;
+		try{
+			auth = SchedulerConnection.join(url);
+		}finally{
+			tracer.finishSpan(span);
+		}
         logger.info("Done.");
         logger.info("Logging in...");
-        Credentials cred = Credentials.createCredentials(new CredData(user, pass), auth.getPublicKey());
-        schedulerStub = auth.login(cred);
+        span = tracer.startSpan("login");
+        try{
+	        schedulerStub = credentialsCache.login(url, user, pass, auth, 	// With cached credentials if possible.
+	        		new CredentialsCache.Login<Scheduler, AlreadyConnectedException>(){
+	        	public Scheduler login(Credentials cred) throws LoginException, AlreadyConnectedException{
+	        		return auth.login(cred);
+	        	}
+	        });
+        }finally{
+        	tracer.finishSpan(span);
+        }
         logger.info("Done.");
         usePolling = polling;
         if (usePolling == false){
 	        logger.info("Completing connection regarding listeners...");
-	        SchedulerEventsListener aa = PAActiveObject.newActive(SchedulerEventsListener.class, new Object[]{}); 
-	        schedulerStub.addEventListener((SchedulerEventsListener) aa, true);
+	        span = tracer.startSpan("add_event_listener");
+	        try{
+		        if (registry == null){
+		        	registry = JobCompletionRegistry.create(url);			// Kept if logged in again (same Scheduler).
+		        	registry.setJobIndex(jobIndex);
+		        }
+		        listener = PAActiveObject.newActive(SchedulerEventsListener.class, new Object[]{registry.getId(), watchedJobName}); 
+		        schedulerStub.addEventListener(listener, true, SchedulerEventsListener.SUBSCRIBED_EVENTS);	// Only my jobs, only the events needed.
+	        }finally{
+	        	tracer.finishSpan(span);
+	        }
 	        logger.info("Done.");
         }
 	}
 	
+	/**
+	 * Set the cache of the encrypted credentials to use to login.
+	 * @param cache the cache. */
+	public void setCredentialsCache(CredentialsCache cache){
+		credentialsCache = cache;
+	}
+	
 	
 	/** 
 	 * Submit a job to the scheduler. 
@@ -123,7 +183,21 @@ public class SchedulerStubProberJava {
         job.addTask(task); 						// Add the task to the current job.
         
         // Submission of the job.
-		JobId ret = schedulerStub.submit(job);	// Submit the job to the scheduler.
+		int span = tracer.startSpan("submit");
+		JobId ret;
+		try{
+			ret = schedulerStub.submit(job);	// Submit the job to the scheduler.
+		}finally{
+			tracer.finishSpan(span);
+		}
+		JobCompletionRegistry r = registry;
+		if (ret != null && r != null){
+			r.claim(ret.value());				// Its events are kept until it is waited for (forgotten then).
+		}
+		if (ret != null && jobIndex != null){
+			jobIndex.add(ret.value(), name);	// Persisted now: if this execution dies, the next one will find the job.
+			jobIndex.save();
+		}
 		
 		logger.info("Done.");
 		if (ret!=null){
@@ -138,7 +212,13 @@ public class SchedulerStubProberJava {
 	 * @param jobId the ID of the job. 
 	 * @return The raw output of the job. */
 	public String getJobResult(String jobId) throws NotConnectedException, PermissionException, UnknownJobException, HttpException, IOException{
-		JobResult jr = schedulerStub.getJobResult(jobId);
+		int span = tracer.startSpan("get_job_result " + jobId);
+		JobResult jr;
+		try{
+			jr = schedulerStub.getJobResult(jobId);
+		}finally{
+			tracer.finishSpan(span);
+		}
 		if (jr != null){
 			return jr.toString();
 		}else{
@@ -151,65 +231,246 @@ public class SchedulerStubProberJava {
 	 * @param jobId the ID of the job to wait. 
 	 * @throws InterruptedException */
 	public void waitUntilJobFinishes(String jobId) throws NotConnectedException, PermissionException, UnknownJobException, HttpException, IOException, InterruptedException{
+		try{
+			waitUntilJobFinishes(jobId, Long.MAX_VALUE);
+		}catch(TimeoutException e){
+			throw new InterruptedException("Not supposed to happen: " + e.getMessage());
+		}
+	}
+	
+	/** 
+	 * Wait for a job to finish. 
+	 * @param jobId the ID of the job to wait. 
+	 * @param timeoutms max time to wait (ms).
+	 * @return times of the finished job (queue, deployment and run of its task, taken from the events or the polled state).
+	 * @throws InterruptedException 
+	 * @throws TimeoutException if the job did not finish on time. */
+	public JobTimes waitUntilJobFinishes(String jobId, long timeoutms) throws NotConnectedException, PermissionException, UnknownJobException, HttpException, IOException, InterruptedException, TimeoutException{
 		logger.info("Waiting for " + jobId + " job...");
-		if (usePolling == false){
-			do{
-				synchronized(SchedulerStubProberJava.class){
-				
-					try {
-						SchedulerStubProberJava.class.wait(); // This thread is blocked until the SchedulerEventsListener notifies of a new finished job.
-					} catch (InterruptedException e) {
-						logger.warn("Not supposed to happen...", e);
+		int span = tracer.startSpan("wait_finished " + jobId);
+		JobInfo info = null;
+		List<TaskInfo> tasks = new ArrayList<TaskInfo>();
+		try{
+			if (usePolling == false){
+				try{
+					JobCompletionRegistry.JobCompletion completion = registry.claim(jobId);
+					waitedJob = completion;
+					if (completion.awaitFinished(timeoutms) == false){	// Released by the SchedulerEventsListener (even if the event already arrived).
+						throw new TimeoutException("Job " + jobId + " not finished after " + timeoutms + " ms.");
 					}
+					info = completion.getInfo();
+					tasks = completion.getTaskInfos();					// Task events arrive before the event of the end of their job.
+				}finally{
+					registry.forget(jobId);
 				}
-			
-			}while(SchedulerEventsListener.checkIfJobIdHasJustFinished(jobId)==false);
-		}else{
-			boolean finished = false;
-			do{
-				Thread.sleep(POLLING_PERIOD_MS);
-				JobStatus status = schedulerStub.getJobState(jobId).getStatus();
-				logger.info("Waiting 'Finished' status for '" + status + "'.");
-				finished = (status.equals(JobStatus.FINISHED));
-			}while(finished == false);	
+			}else{
+				long deadline = deadlineOf(timeoutms);
+				PollingBackoff backoff = new PollingBackoff(expectedExecutionMs);
+				long previousPoll = System.nanoTime();
+				boolean finished = false;
+				do{
+					sleepUntilNextPoll(backoff, deadline);
+					JobState state = schedulerStub.getJobState(jobId);
+					JobStatus status = state.getStatus();
+					waitedJobStatus = status;
+					pollCount.incrementAndGet();
+					logger.info("Waiting 'Finished' status for '" + status + "'.");
+					finished = (status.equals(JobStatus.FINISHED));
+					info = state.getJobInfo();
+					if (finished){
+						for (TaskState task: state.getTasks()){
+							tasks.add(task.getTaskInfo());
+						}
+					}
+					previousPoll = countPollingOverhead(previousPoll, finished);
+					checkDeadline(deadline, finished, "Job " + jobId + " not finished after " + timeoutms + " ms.");
+				}while(finished == false);	
+			}
+		}finally{
+			tracer.finishSpan(span);
 		}
 		logger.info("Done.");
+		return new JobTimes(info, tasks);
+	}
+	
+	/**
+	 * Submit several probe jobs (benchmark). The submissions return quickly, so they are made one after the other 
+	 * from this thread (the one that keeps the session): the jobs are all in the Scheduler at about the same time.
+	 * @param name name of the jobs.
+	 * @param taskname name of the class to be instantiated and executed as the task of each job. 
+	 * @param highpriority if true, the jobs are submitted with high priority.
+	 * @param count amount of jobs to submit.
+	 * @param timeoutms max time to submit all the jobs (ms).
+	 * @return the IDs of the submitted jobs (in order of submission). */
+	public Vector<String> submitJobs(String name, String taskname, Boolean highpriority, int count, long timeoutms) throws Exception{
+		long deadline = deadlineOf(timeoutms);
+		Vector<String> ids = new Vector<String>();
+		for (int i = 0; i < count; i++){
+			ids.add(submitJob(name, taskname, highpriority));
+			checkDeadline(deadline, i == count - 1, "Only " + (i + 1) + " of " + count + " jobs submitted after " + timeoutms + " ms.");
+		}
+		return ids;
+	}
+	
+	/**
+	 * Wait for several jobs to finish (they all run at the same time, so waiting for them one after the other 
+	 * takes as long as waiting for the last one). 
+	 * @param jobIds the IDs of the jobs.
+	 * @param timeoutms max time to wait (ms).
+	 * @return times of each finished job (same order as the IDs). */
+	public Vector<JobTimes> waitUntilJobsFinish(Vector<String> jobIds, long timeoutms) throws NotConnectedException, PermissionException, UnknownJobException, HttpException, IOException, InterruptedException, TimeoutException{
+		long deadline = deadlineOf(timeoutms);
+		JobCompletionRegistry r = registry;
+		if (r != null){
+			r.claimAll(jobIds);								// None forgotten while waiting for the previous ones.
+		}
+		Vector<JobTimes> infos = new Vector<JobTimes>();
+		for (String jobId: jobIds){
+			infos.add(waitUntilJobFinishes(jobId, remainingMs(deadline)));
+		}
+		return infos;
 	}
-
 
 	/** 
 	 * Wait for a job to be cleaned (removed or finished). 
 	 * @param jobId the ID of the job to wait for. 
 	 * @throws InterruptedException */
 	public void waitUntilJobIsCleaned(String jobId) throws NotConnectedException, PermissionException, UnknownJobException, HttpException, IOException, InterruptedException{
-		if (usePolling == false){
-			do{
-				synchronized(SchedulerStubProberJava.class){
-					try {
-						SchedulerStubProberJava.class.wait(); // This thread is blocked until the SchedulerEventsListener notifies of a new removed job.
-					} catch (InterruptedException e) {
-						logger.warn("Not supposed to happen...", e);
-					}
-				}
-			}while(
-					SchedulerEventsListener.checkIfJobIdHasJustFinished(jobId) == false    && 
-					SchedulerEventsListener.checkIfJobIdHasJustBeenRemoved(jobId) == false
-					);
-		}else{
-			boolean cleaned = false;
-			do{
-				Thread.sleep(POLLING_PERIOD_MS);
-				JobStatus status;
+		try{
+			waitUntilJobIsCleaned(jobId, Long.MAX_VALUE);
+		}catch(TimeoutException e){
+			throw new InterruptedException("Not supposed to happen: " + e.getMessage());
+		}
+	}
+	
+	/** 
+	 * Wait for a job to be cleaned (removed or finished). 
+	 * @param jobId the ID of the job to wait for. 
+	 * @param timeoutms max time to wait (ms).
+	 * @throws InterruptedException 
+	 * @throws TimeoutException if the job was not cleaned on time. */
+	public void waitUntilJobIsCleaned(String jobId, long timeoutms) throws NotConnectedException, PermissionException, UnknownJobException, HttpException, IOException, InterruptedException, TimeoutException{
+		int span = tracer.startSpan("wait_cleaned " + jobId);
+		try{
+			if (usePolling == false){
 				try{
-					status = schedulerStub.getJobState(jobId).getStatus();
-					logger.info("Waiting 'Cleaned' status for '" + status + "'.");
-				}catch(UnknownJobException e){
-					cleaned = true;
+					if (registry.claim(jobId).awaitCleaned(timeoutms) == false){	// Released by the SchedulerEventsListener (even if the event already arrived).
+						throw new TimeoutException("Job " + jobId + " not cleaned after " + timeoutms + " ms.");
+					}
+				}finally{
+					registry.forget(jobId);
 				}
-			}while(cleaned == false);
+			}else{
+				long deadline = deadlineOf(timeoutms);
+				PollingBackoff backoff = new PollingBackoff(0);
+				long previousPoll = System.nanoTime();
+				boolean cleaned = false;
+				do{
+					sleepUntilNextPoll(backoff, deadline);
+					JobStatus status;
+					try{
+						status = schedulerStub.getJobState(jobId).getStatus();
+						logger.info("Waiting 'Cleaned' status for '" + status + "'.");
+					}catch(UnknownJobException e){
+						cleaned = true;
+					}
+					pollCount.incrementAndGet();
+					previousPoll = countPollingOverhead(previousPoll, cleaned);
+					checkDeadline(deadline, cleaned, "Job " + jobId + " not cleaned after " + timeoutms + " ms.");
+				}while(cleaned == false);
+			}
+		}finally{
+			tracer.finishSpan(span);
+		}
+	}
+	
+	/**
+	 * Sleep the next period of the backoff (but not beyond the deadline, so the last poll is done on time). */
+	private static void sleepUntilNextPoll(PollingBackoff backoff, long deadline) throws InterruptedException{
+		long period = TimeUnit.MILLISECONDS.toNanos(backoff.nextPeriod());
+		if (deadline != Long.MAX_VALUE){
+			period = Math.max(0, Math.min(period, deadline - System.nanoTime()));
+		}
+		TimeUnit.NANOSECONDS.sleep(period);
+	}
+	
+	/**
+	 * Count the quantization overhead of the polling once the awaited condition is detected: the condition 
+	 * became true at some point between the previous poll and this one, so on average half of that window is lost.
+	 * @param previousPoll time (System.nanoTime) of the previous poll.
+	 * @param detected whether the condition was detected by this poll.
+	 * @return the time of this poll. */
+	private long countPollingOverhead(long previousPoll, boolean detected){
+		long now = System.nanoTime();
+		if (detected){
+			pollingOverheadNanos.addAndGet((now - previousPoll) / 2);
+		}
+		return now;
+	}
+	
+	/**
+	 * Set the usual execution time of the probe job, used to size the first polling period.
+	 * @param ms usual execution time (ms), 0 if unknown. */
+	public void setExpectedExecutionTime(long ms){
+		expectedExecutionMs = ms;
+	}
+	
+	/**
+	 * Get the last known status of the last job waited for, without asking the Scheduler (the status 
+	 * is the one told by the events received or by the last poll).
+	 * Useful to tell, once the waiting timed out, whether the job was still pending or already running.
+	 * @return the status (PENDING, RUNNING or FINISHED if not polling), or null if no job was waited for. */
+	public JobStatus getWaitedJobStatus(){
+		if (usePolling){
+			return waitedJobStatus;
+		}
+		JobCompletionRegistry.JobCompletion completion = waitedJob;
+		if (completion == null){
+			return null;
+		}
+		return (completion.isFinished()?JobStatus.FINISHED:(completion.isStarted()?JobStatus.RUNNING:JobStatus.PENDING));
+	}
+	
+	/**
+	 * Get the amount of polls done to the Scheduler so far.
+	 * @return the amount of polls. */
+	public int getPollCount(){
+		return pollCount.get();
+	}
+	
+	/**
+	 * Get the estimated time lost so far between the end of the awaited jobs and their detection by polling. 
+	 * @return the overhead (s). */
+	public double getPollingOverhead(){
+		return pollingOverheadNanos.get() / 1000000000.0;
+	}
+	
+	/**
+	 * Get the deadline (System.nanoTime) corresponding to the given timeout. */
+	private static long deadlineOf(long timeoutms){
+		long timeoutns = TimeUnit.MILLISECONDS.toNanos(timeoutms);		// Saturated for huge timeouts.
+		long now = System.nanoTime();
+		return (Long.MAX_VALUE - now < timeoutns?Long.MAX_VALUE:now + timeoutns);
+	}
+	
+	/**
+	 * Throw a TimeoutException if the deadline was reached and the condition is still not met. */
+	private static void checkDeadline(long deadline, boolean done, String message) throws TimeoutException{
+		if (done == false && System.nanoTime() - deadline >= 0 && deadline != Long.MAX_VALUE){
+			throw new TimeoutException(message);
 		}
 	}
 
+	/**
+	 * Get the amount of events received from the Scheduler (and the amount of them that were discarded).
+	 * @return an array with the amount of events received and the amount of events discarded. */
+	public int[] getEventCounts(){
+		if (listener == null){
+			return new int[]{0, 0};
+		}
+		return listener.getEventCounts();
+	}
+	
 	/** 
 	 * Return the status of the job (running, finished, etc.). 
 	 * @param jobId the ID of the job. 
@@ -224,18 +485,39 @@ public class SchedulerStubProberJava {
 	 * @param jobId the ID of the job. */
 	public void forceJobKillingAndRemoval(String jobId) throws Exception, NotConnectedException, UnknownJobException, PermissionException, InvalidProtocolException{
 		logger.info("Forced killing and removal of job "+ jobId + "...");
-		if (schedulerStub.getJobState(jobId).getStatus() == JobStatus.KILLED){
-			logger.info("Job "+ jobId + " is already killed, so skipping the kill stage...");
-		}else{
-			boolean killed = schedulerStub.killJob(jobId);
-			if (killed == false){
-				logger.info("Removing job "+ jobId + "...");
+		int span = tracer.startSpan("kill_and_remove " + jobId);
+		try{
+			if (schedulerStub.getJobState(jobId).getStatus() == JobStatus.KILLED){
+				logger.info("Job "+ jobId + " is already killed, so skipping the kill stage...");
+			}else{
+				int kspan = tracer.startSpan("kill " + jobId);
+				boolean killed;
+				try{
+					killed = schedulerStub.killJob(jobId);
+				}finally{
+					tracer.finishSpan(kspan);
+				}
+				if (killed == false){
+					logger.info("Removing job "+ jobId + "...");
+				}
 			}
-		}
-		
-		boolean removed = schedulerStub.removeJob(jobId);
-		if (removed == false){
-			throw new Exception("Can't remove job " + jobId + ".");
+			
+			int rspan = tracer.startSpan("remove " + jobId);
+			boolean removed;
+			try{
+				removed = schedulerStub.removeJob(jobId);
+			}finally{
+				tracer.finishSpan(rspan);
+			}
+			if (removed == false){
+				throw new Exception("Can't remove job " + jobId + ".");
+			}
+			removeFromIndex(jobId);
+		}catch(UnknownJobException e){
+			removeFromIndex(jobId);				// Already gone (the index was not up to date).
+			throw e;
+		}finally{
+			tracer.finishSpan(span);
 		}
 	}
 	
@@ -245,20 +527,59 @@ public class SchedulerStubProberJava {
 	 * @param jobId the ID of the job. */
 	public void removeJob(String jobId) throws Exception, NotConnectedException, UnknownJobException, PermissionException, InvalidProtocolException{
 		logger.info("Removing job "+ jobId + "...");
-		boolean removed = schedulerStub.removeJob(jobId);
+		int span = tracer.startSpan("remove " + jobId);
+		boolean removed;
+		try{
+			removed = schedulerStub.removeJob(jobId);
+		}finally{
+			tracer.finishSpan(span);
+		}
 		logger.info("Done (returned '"+removed+"').");
 		if (removed == false) 
 			throw new Exception("Can't remove job " + jobId + ".");
+		removeFromIndex(jobId);
+	}
+	
+	/**
+	 * Use the given index to find the jobs of the user, instead of getting the whole state of the Scheduler each time.
+	 * @param index index of the jobs of the user (it is seeded if needed). */
+	public void setJobIndex(JobIndex index){
+		jobIndex = index;
+		JobCompletionRegistry r = registry;
+		if (r != null){
+			r.setJobIndex(index);								// Removal events forgotten in this index only.
+		}
+	}
+	
+	private void removeFromIndex(String jobId){
+		if (jobIndex != null){
+			jobIndex.remove(jobId);
+		}
 	}
 	
 	/** 
 	 * Disconnect from the Scheduler. */
 	public void disconnect() throws NotConnectedException, PermissionException, HttpException, IOException{		
 		logger.info("Disconnecting...");
-		schedulerStub.disconnect();
+		int span = tracer.startSpan("disconnect");
+		try{
+			schedulerStub.disconnect();
+		}finally{
+			tracer.finishSpan(span);
+			releaseRegistry();
+		}
 		logger.info("Done.");
 	}
 	
+	/**
+	 * Release the registry of the completion of the jobs (the events received from now on are ignored). */
+	public void releaseRegistry(){
+		JobCompletionRegistry r = registry;
+		if (r != null){
+			r.release();
+		}
+	}
+	
 	/**
 	 * Get a list of all jobs with the given name that are in pending, running and finished queues 
 	 * of the scheduler (my jobs only). */
@@ -270,7 +591,19 @@ public class SchedulerStubProberJava {
 			throw new IllegalArgumentException("'jobname' argument cannot be null");
 		}
 		
-		SchedulerState st = schedulerStub.getState(true);
+		if (jobIndex != null && jobIndex.needsSeed() == false){
+			Vector<String> jobs = jobIndex.getIds(jobname);		// No need to get the state of all the jobs.
+			logger.info("\t\t" + jobs.size() + " jobs found in the job index.");
+			return jobs;
+		}
+		
+		int span = tracer.startSpan("get_state");
+		SchedulerState st;
+		try{
+			st = schedulerStub.getState(true);
+		}finally{
+			tracer.finishSpan(span);
+		}
 		
 		Vector<JobState> vector = new Vector<JobState>();
 		
@@ -280,6 +613,10 @@ public class SchedulerStubProberJava {
 		printJobs(st.getRunningJobs(), "\t\t- Running jobs");
 		vector.addAll(st.getFinishedJobs());
 		printJobs(st.getFinishedJobs(), "\t\t- Finished jobs");
+		if (jobIndex != null){
+			jobIndex.seed(vector);
+			jobIndex.save();
+		}
 		
 		Vector<String> jobs = new Vector<String>(); 
 		
@@ -302,8 +639,17 @@ public class SchedulerStubProberJava {
 		}
 	}
 	
-	// Removal of old probe jobs. 
-	public void removeOldProbeJobs(String jobname, boolean deleteallold) throws UnknownJobException, InvalidProtocolException, Exception{
+	/**
+	 * Removal of old probe jobs (for instance left by previous executions that timed out). 
+	 * The kill/remove calls return quickly, so they are all made first, one after the other from this thread 
+	 * (the one that keeps the session), and then the removal of all the jobs is awaited together. The jobs 
+	 * that could not be cleaned within the given budget are left for the next execution.
+	 * @param jobname name of the probe jobs.
+	 * @param deleteallold if true, remove all the jobs of this user (no matter their name).
+	 * @param budgetms max time (ms) to spend cleaning.
+	 * @return an array with the amount of old jobs found and the amount of them cleaned. */
+	public int[] removeOldProbeJobs(String jobname, boolean deleteallold, long budgetms) throws UnknownJobException, InvalidProtocolException, Exception{
+		long deadline = deadlineOf(budgetms);
 		Vector<String> schedulerjobs;
 		if (deleteallold==true){
 			logger.info("Removing ALL old jobs (that belong to this user)...");
@@ -313,27 +659,62 @@ public class SchedulerStubProberJava {
 			schedulerjobs = getAllCurrentJobsList(jobname);	// Get all jobs with the same name as this probe job.
 		}
 		
-		// We check the jobs in the Scheduler to make sure all old jobs were removed. 
+		if (schedulerjobs.size() == 0){
+			logger.info("\tThere are no old jobs...");
+			return new int[]{0, 0};
+		}
 		
-		if (schedulerjobs.size()>0){
-			logger.info("\tThere are old jobs...");
-			for(String jobb:schedulerjobs){
-				logger.info("\tRemoving old job with JobId " + jobb + "...");
-				forceJobKillingAndRemoval(jobb);
-				logger.info("\tWaiting until cleaned...");
-				waitUntilJobIsCleaned(jobb); // Wait until either job's end or removal.
-				logger.info("\tDone.");
+		logger.info("\tThere are " + schedulerjobs.size() + " old jobs...");
+		int cleaned = 0;
+		Vector<String> removed = new Vector<String>();			// Jobs whose removal is to be awaited.
+		JobCompletionRegistry r = registry;
+		if (r != null){
+			r.claimAll(schedulerjobs);							// Their removal events are kept until awaited.
+		}
+		for (String jobb: schedulerjobs){
+			boolean awaited = false;
+			if (remainingMs(deadline) == 0){
+				logger.warn("\tNo time left to remove job " + jobb + " (left for the next execution).");
+			}else{
+				try{
+					logger.info("\tRemoving old job with JobId " + jobb + "...");
+					forceJobKillingAndRemoval(jobb);
+					removed.add(jobb);
+					awaited = true;
+				}catch(UnknownJobException e){
+					logger.info("\tJob " + jobb + " does not exist anymore.");
+					cleaned++;
+				}catch(Exception e){
+					logger.warn("\tCould not remove job " + jobb + ": " + e);
+				}
 			}
-			
-			logger.info("\tAll old jobs are supposed to be removed now... Rechecking...");
-			
-			schedulerjobs = getAllCurrentJobsList(jobname);
-			if (schedulerjobs.size()!=0){
-				throw new Exception("ERROR (not possible to remove all previous '"+jobname+"' probe jobs in the scheduler)");
+			if (r != null && awaited == false){
+				r.forget(jobb);									// Its removal is not awaited.
 			}
-		}else{
-			logger.info("\tThere are no old jobs...");
 		}
-		logger.info("Done.");
-	}	
+		
+		for (String jobb: removed){								// The removals go on at the same time in the Scheduler.
+			try{
+				logger.info("\tWaiting until " + jobb + " is cleaned...");
+				waitUntilJobIsCleaned(jobb, remainingMs(deadline)); // Wait until either job's end or removal.
+				cleaned++;
+			}catch(TimeoutException e){
+				logger.warn("\tNo time left to wait for the removal of job " + jobb + " (left for the next execution).");
+			}
+		}
+		if (jobIndex != null){
+			jobIndex.save();
+		}
+		logger.info("Done (" + cleaned + " of " + schedulerjobs.size() + " old jobs cleaned).");
+		return new int[]{schedulerjobs.size(), cleaned};
+	}
+	
+	/**
+	 * Get the time left (ms) until the given deadline (System.nanoTime). */
+	private static long remainingMs(long deadline){
+		if (deadline == Long.MAX_VALUE){
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
 }
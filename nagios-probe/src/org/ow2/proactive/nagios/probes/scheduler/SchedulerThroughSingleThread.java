@@ -34,163 +34,226 @@
  * ################################################################
  * $$PROACTIVE_INITIAL_DEV$$
  */
-
 package org.ow2.proactive.nagios.probes.scheduler;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import org.ow2.proactive.nagios.common.CredentialsCache;
+import org.ow2.proactive.nagios.common.DeadlineDispatcher;
+import org.ow2.proactive.nagios.common.DeadlineDispatcher.Call;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
 import org.ow2.proactive.scheduler.common.job.*;
 import java.util.Vector;
 
+/**
+ * Stub of the Scheduler whose calls are made through a DeadlineDispatcher: all of them from the same thread 
+ * (the one that keeps the session, as only the Thread that started the connection can make calls to the Scheduler), 
+ * each one with its own deadline. A call that reaches its deadline is cancelled, and the disconnection is put at the 
+ * head of the queue of calls. If a hung call has to be abandoned, the session is abandoned with it and the next calls 
+ * log in again first. 
+ * Each method binds its call to the stub in a small typed Callable: without method references (Java 6) the only 
+ * other way is reflection, that would lose the types checked by the compiler. */
 public class SchedulerThroughSingleThread {
 
-	private final ExecutorService THREAD_POOL = Executors.newSingleThreadExecutor(); 	// The rights to manage the RM nodes will be given to this thread.
-	
 	SchedulerStubProberJava schedstub;
+	private final DeadlineDispatcher dispatcher;				// Dispatcher of the calls to the stub.
 	
 	public SchedulerThroughSingleThread(){
-		schedstub = new SchedulerStubProberJava();
+		this(new TimedStatusTracer());
 	}
 	
+	public SchedulerThroughSingleThread(TimedStatusTracer tracer){
+		schedstub = new SchedulerStubProberJava(tracer);
+		dispatcher = new DeadlineDispatcher("scheduler", tracer);
+	}
 	
-	public void init(final String url, final String user, final String pass, final boolean polling, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				schedstub.init(url, user, pass, polling);                           
-				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
-	}
-	
-	public String submitJob(final String name, final String taskname, final Boolean highpriority, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<String> callab = new Callable<String>(){                                                    
-			public String call() throws Exception{                            
-				String ret = schedstub.submitJob(name, taskname, highpriority);                           
-				return ret;
-			}                                                                    
-		};                                                                       
-		FutureTask<String> task = new FutureTask<String>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		String ret = task.get(timeoutms, TimeUnit.MILLISECONDS);
-		return ret; 
-	}
-	
-	public String getJobResult(final String jobId, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<String> callab = new Callable<String>(){                                                    
-			public String call() throws Exception{                            
-				String ret = schedstub.getJobResult(jobId);                           
-				return ret;
-			}                                                                    
-		};                                                                       
-		FutureTask<String> task = new FutureTask<String>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		String ret = task.get(timeoutms, TimeUnit.MILLISECONDS);
-		return ret; 
-	}
-	
-	public void waitUntilJobFinishes(final String jobId, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				schedstub.waitUntilJobFinishes(jobId);                           
-				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
+	
+	public void init(String url, String user, String pass, boolean polling, String watchedJobName, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		await(initAsync(url, user, pass, polling, watchedJobName), timeoutms);
+	}
+	
+	public String submitJob(String name, String taskname, Boolean highpriority, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return await(submitJobAsync(name, taskname, highpriority), timeoutms);
 	}
 	
-	public void waitUntilJobIsCleanedFinishes(final String jobId, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				schedstub.waitUntilJobIsCleaned(jobId);                           
+	public String getJobResult(String jobId, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return await(getJobResultAsync(jobId), timeoutms);
+	}
+	
+	public JobTimes waitUntilJobFinishes(final String jobId, final long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return dispatcher.call(timeoutms, "waitUntilJobFinishes", new Callable<JobTimes>(){
+			public JobTimes call() throws Exception{
+				return schedstub.waitUntilJobFinishes(jobId, timeoutms);
+			}
+		});
+	}
+	
+	public Vector<String> submitJobs(final String name, final String taskname, final Boolean highpriority, final int count, final long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return dispatcher.call(timeoutms, "submitJobs", new Callable<Vector<String>>(){
+			public Vector<String> call() throws Exception{
+				return schedstub.submitJobs(name, taskname, highpriority, count, timeoutms);
+			}
+		});
+	}
+	
+	public Vector<JobTimes> waitUntilJobsFinish(final Vector<String> jobIds, final long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return dispatcher.call(timeoutms, "waitUntilJobsFinish", new Callable<Vector<JobTimes>>(){
+			public Vector<JobTimes> call() throws Exception{
+				return schedstub.waitUntilJobsFinish(jobIds, timeoutms);
+			}
+		});
+	}
+	
+	public void waitUntilJobIsCleanedFinishes(final String jobId, final long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		dispatcher.call(timeoutms, "waitUntilJobIsCleaned", new Callable<Object>(){
+			public Object call() throws Exception{
+				schedstub.waitUntilJobIsCleaned(jobId, timeoutms);
 				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
+			}
+		});
 	}
-
+	
 	public JobStatus getJobStatus(final String jobId, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<JobStatus> callab = new Callable<JobStatus>(){                                                    
-			public JobStatus call() throws Exception{                            
-				JobStatus ret = schedstub.getJobStatus(jobId);                           
-				return ret;
-			}                                                                    
-		};                                                                       
-		FutureTask<JobStatus> task = new FutureTask<JobStatus>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		JobStatus ret = task.get(timeoutms, TimeUnit.MILLISECONDS);
-		return ret; 
+		return dispatcher.call(timeoutms, "getJobStatus", new Callable<JobStatus>(){
+			public JobStatus call() throws Exception{
+				return schedstub.getJobStatus(jobId);
+			}
+		});
 	}
 	
 	public void forceJobKillingAndRemoval(final String jobId, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				schedstub.forceJobKillingAndRemoval(jobId);                           
+		dispatcher.call(timeoutms, "forceJobKillingAndRemoval", new Callable<Object>(){
+			public Object call() throws Exception{
+				schedstub.forceJobKillingAndRemoval(jobId);
 				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
+			}
+		});
 	}
-
-	public void removeJob(final String jobId, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				schedstub.removeJob(jobId);                           
-				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
+	
+	public void removeJob(String jobId, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		await(removeJobAsync(jobId), timeoutms);
+	}
+	
+	public int[] getEventCounts(long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return dispatcher.call(timeoutms, "getEventCounts", new Callable<int[]>(){
+			public int[] call() throws Exception{
+				return schedstub.getEventCounts();
+			}
+		});
+	}
+	
+	public Vector<String> getAllCurrentJobsList(final String jobname, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return dispatcher.call(timeoutms, "getAllCurrentJobsList", new Callable<Vector<String>>(){
+			public Vector<String> call() throws Exception{
+				return schedstub.getAllCurrentJobsList(jobname);
+			}
+		});
 	}
 	
+	public int[] removeOldProbeJobs(final String jobname, final boolean deleteallold, final long budgetms, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return dispatcher.call(timeoutms, "removeOldProbeJobs", new Callable<int[]>(){
+			public int[] call() throws Exception{
+				return schedstub.removeOldProbeJobs(jobname, deleteallold, budgetms);
+			}
+		});
+	}
+	
+	/**
+	 * Disconnect from the Scheduler (at the head of the queue of calls, on the thread that keeps the session). */
 	public void disconnect(long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				schedstub.disconnect();                           
+		await(disconnectAsync(), timeoutms);
+	}
+	
+	/* Asynchronous calls: they are submitted right away and awaited later (see await), so that independent 
+	 * steps can overlap. Each call is traced as a span of the tracer ('scheduler.method'). */
+	
+	public Call<Object> initAsync(final String url, final String user, final String pass, final boolean polling, final String watchedJobName){
+		return dispatcher.submit("init", new Callable<Object>(){
+			public Object call() throws Exception{
+				schedstub.init(url, user, pass, polling, watchedJobName);
+				dispatcher.setSessionOpener(this);					// Used to login again if the session is abandoned.
 				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
+			}
+		});
 	}
 	
-	public Vector<String> getAllCurrentJobsList(final String jobname, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Vector<String>> callab = new Callable<Vector<String>>(){                                                    
-			public Vector<String> call() throws Exception{                            
-				Vector<String> ret = schedstub.getAllCurrentJobsList(jobname);                           
-				return ret;
-			}                                                                    
-		};                                                                       
-		FutureTask<Vector<String>> task = new FutureTask<Vector<String>>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		Vector<String> ret = task.get(timeoutms, TimeUnit.MILLISECONDS);
-		return ret; 
-	}
-	
-	public void removeOldProbeJobs(final String jobname, final boolean deleteallold, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
-		Callable<Object> callab = new Callable<Object>(){                                                    
-			public Object call() throws Exception{                            
-				schedstub.removeOldProbeJobs(jobname, deleteallold);                           
+	public Call<String> submitJobAsync(final String name, final String taskname, final Boolean highpriority){
+		return dispatcher.submit("submitJob", new Callable<String>(){
+			public String call() throws Exception{
+				return schedstub.submitJob(name, taskname, highpriority);
+			}
+		});
+	}
+	
+	public Call<String> getJobResultAsync(final String jobId){
+		return dispatcher.submit("getJobResult", new Callable<String>(){
+			public String call() throws Exception{
+				return schedstub.getJobResult(jobId);
+			}
+		});
+	}
+	
+	public Call<Object> removeJobAsync(final String jobId){
+		return dispatcher.submit("removeJob", new Callable<Object>(){
+			public Object call() throws Exception{
+				schedstub.removeJob(jobId);
 				return null;
-			}                                                                    
-		};                                                                       
-		FutureTask<Object> task = new FutureTask<Object>(callab);                                                                                   
-		THREAD_POOL.execute(task);
-		task.get(timeoutms, TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+	
+	public Call<Object> disconnectAsync(){
+		return dispatcher.submitFirst("disconnect", new Callable<Object>(){
+			public Object call() throws Exception{
+				schedstub.disconnect();
+				return null;
+			}
+		});
+	}
+	
+	public <T> T await(Call<T> call, long timeoutms) throws InterruptedException, ExecutionException, TimeoutException{
+		return dispatcher.await(call, timeoutms);
+	}
+	
+	/* The configuration and the polling statistics are kept by the stub in volatile fields: no need to use the thread. */
+	
+	public void setCredentialsCache(CredentialsCache cache){
+		schedstub.setCredentialsCache(cache);
+	}
+	
+	public void setJobIndex(JobIndex index){
+		schedstub.setJobIndex(index);
+	}
+	
+	public void setExpectedExecutionTime(long ms){
+		schedstub.setExpectedExecutionTime(ms);
+	}
+	
+	public JobStatus getWaitedJobStatus(){
+		return schedstub.getWaitedJobStatus();
+	}
+	
+	public int getPollCount(){
+		return schedstub.getPollCount();
+	}
+	
+	public double getPollingOverhead(){
+		return schedstub.getPollingOverhead();
+	}
+	
+	/**
+	 * Get the dispatcher of the calls (to know its queue depth and the amount of abandoned calls).
+	 * @return the dispatcher. */
+	public DeadlineDispatcher getDispatcher(){
+		return dispatcher;
+	}
+	
+	/**
+	 * Release the thread used to talk to the Scheduler once all the calls already submitted are done 
+	 * (and the registry of the completion of the jobs, even if the disconnection could not be done). */
+	public void shutdown(){
+		dispatcher.shutdown();
+		schedstub.releaseRegistry();
 	}
 }
@@ -0,0 +1,131 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.common.AdaptiveThresholds;
+import org.ow2.proactive.nagios.common.ElementalNagiosPlugin;
+import org.ow2.proactive.nagios.common.NagiosMiniStatus;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
+import org.ow2.proactive.nagios.history.PhaseBaselines;
+import org.ow2.proactive.nagios.history.ProbeRecord;
+
+
+public class AdaptiveThresholdsTest {
+
+    private static void visit(PhaseBaselines baselines, int exitcode, String phase, double sec) {
+        ProbeRecord r = new ProbeRecord();
+        r.setExitCode(exitcode);
+        r.addPhase(phase, (long)(sec * 1000000000L));
+        baselines.visit(r);
+    }
+
+    @Test
+    public void Test_Baseline_MeanAndVariance() throws Exception {
+        PhaseBaselines baselines = new PhaseBaselines(3);    // Weight of the newest sample: 0.5.
+        visit(baselines, 0, "time_all", 1);
+        visit(baselines, 1, "time_all", 3);
+        visit(baselines, 2, "time_all", 100);               // Critical execution, not counted.
+        PhaseBaselines.Baseline b = baselines.get("time_all");
+        Assert.assertEquals(2, b.getSamples());
+        Assert.assertEquals(2.0, b.getMean(), 1e-6);
+        Assert.assertEquals(1.0, b.getStdDev(), 1e-6);
+        Assert.assertEquals("Margin from the deviation", 4.0, b.getThreshold(2, 0.2), 1e-6);
+        Assert.assertNull(baselines.get("time_missing"));
+    }
+
+    @Test
+    public void Test_Baseline_MinimumMarginWhenStable() throws Exception {
+        PhaseBaselines baselines = new PhaseBaselines(10);
+        for (int i = 0; i < 20; i++) {
+            visit(baselines, 0, "time_all", 5);
+        }
+        PhaseBaselines.Baseline b = baselines.get("time_all");
+        Assert.assertEquals(5.0, b.getMean(), 1e-6);
+        Assert.assertEquals(0.0, b.getStdDev(), 1e-6);
+        Assert.assertEquals("Margin from the mean", 6.0, b.getThreshold(3, 0.2), 1e-6);
+    }
+
+    @Test
+    public void Test_Baseline_FollowsRecentSamples() throws Exception {
+        PhaseBaselines baselines = new PhaseBaselines(5);
+        for (int i = 0; i < 50; i++) {
+            visit(baselines, 0, "time_all", 1);
+        }
+        for (int i = 0; i < 50; i++) {
+            visit(baselines, 0, "time_all", 2);
+        }
+        Assert.assertEquals(2.0, baselines.get("time_all").getMean(), 1e-3);
+    }
+
+    @Test
+    public void Test_Thresholds_WarnSlowerPhases() throws Exception {
+        PhaseBaselines baselines = new PhaseBaselines(10);
+        for (int i = 0; i < AdaptiveThresholds.MIN_SAMPLES; i++) {
+            visit(baselines, 0, "time_sleep", 0.000001);
+            visit(baselines, 0, "time_all", 1000);
+        }
+        TimedStatusTracer tracer = new TimedStatusTracer();
+        tracer.finishLastMeasurementAndStartNewOne("time_sleep");
+        Thread.sleep(20);
+        tracer.finishLastMeasurement();
+
+        List<NagiosMiniStatus> statuses = new AdaptiveThresholds(baselines, tracer, 3).getMiniStatuses();
+        Assert.assertEquals(1, statuses.size());
+        Assert.assertEquals(ElementalNagiosPlugin.RESULT_1_WARNING, statuses.get(0).getErrorCode());
+        Assert.assertTrue(statuses.get(0).getErrorMessage(),
+            statuses.get(0).getErrorMessage().startsWith("time_sleep slower than usual ("));
+        Assert.assertEquals(1200.0, tracer.getReference("time_all_adaptive_threshold"), 1e-6);
+        Assert.assertNotNull(tracer.getReference("time_sleep_adaptive_threshold"));
+    }
+
+    @Test
+    public void Test_Thresholds_NeedEnoughSamples() throws Exception {
+        PhaseBaselines baselines = new PhaseBaselines(10);
+        for (int i = 0; i < AdaptiveThresholds.MIN_SAMPLES - 1; i++) {
+            visit(baselines, 0, "time_sleep", 0.000001);
+        }
+        TimedStatusTracer tracer = new TimedStatusTracer();
+        tracer.finishLastMeasurementAndStartNewOne("time_sleep");
+        Thread.sleep(20);
+        tracer.finishLastMeasurement();
+
+        Assert.assertTrue(new AdaptiveThresholds(baselines, tracer, 3).getMiniStatuses().isEmpty());
+        Assert.assertNull(tracer.getReference("time_sleep_adaptive_threshold"));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.daemon.DaemonProtocol;
+
+
+public class DaemonProtocolTest {
+
+    private static ByteArrayInputStream input(String text) throws Exception {
+        return new ByteArrayInputStream(text.getBytes(DaemonProtocol.ENCODING));
+    }
+
+    private static void assertBadRequest(String request) throws Exception {
+        try {
+            DaemonProtocol.readRequest(input(request));
+            Assert.fail("Request accepted: " + request);
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void Test_Request_RoundTrip() throws Exception {
+        String[] args = {"--url", "pamr://0", "", " with spaces ", "ARG END", "\u00e9t\u00e9"};
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        DaemonProtocol.writeRequest(os, "s3cr3t", "rm", args);
+        os.write("trailing bytes not read".getBytes(DaemonProtocol.ENCODING));
+
+        DaemonProtocol.Request request = DaemonProtocol.readRequest(new ByteArrayInputStream(os.toByteArray()));
+        Assert.assertEquals("s3cr3t", request.getSecret());
+        Assert.assertEquals("rm", request.getProbe());
+        Assert.assertArrayEquals(args, request.getArgs());
+    }
+
+    @Test
+    public void Test_Request_RejectsLineBreaks() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            DaemonProtocol.writeRequest(os, "s3cr3t", "rm", new String[] {"--url", "pamr://0\nEND"});
+            Assert.fail("Argument with a line break written");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("line breaks"));
+        }
+    }
+
+    @Test
+    public void Test_Request_RejectsMalformed() throws Exception {
+        assertBadRequest("PROBE rm\nARG --url\n");
+        assertBadRequest("ARG --url\nEND\n");
+        assertBadRequest("PROBE rm\nOTHER\nEND\n");
+        assertBadRequest("");
+    }
+
+    @Test
+    public void Test_Request_WithoutSecret() throws Exception {
+        DaemonProtocol.Request request = DaemonProtocol.readRequest(input("PROBE rm\nARG --url\nEND\n"));
+        Assert.assertNull(request.getSecret());
+        Assert.assertEquals("rm", request.getProbe());
+    }
+
+    @Test
+    public void Test_Secret_ReadFromFirstLine() throws Exception {
+        File file = File.createTempFile("secret", ".txt");
+        try {
+            Writer w = new OutputStreamWriter(new FileOutputStream(file), DaemonProtocol.ENCODING);
+            w.write("  0123abcd \nsecond line\n");
+            w.close();
+            Assert.assertEquals("0123abcd", DaemonProtocol.readSecret(file.getPath()));
+
+            new FileOutputStream(file).close();
+            try {
+                DaemonProtocol.readSecret(file.getPath());
+                Assert.fail("Empty secret accepted");
+            } catch (IOException e) {
+                // Expected.
+            }
+        } finally {
+            file.delete();
+        }
+        try {
+            DaemonProtocol.readSecret(file.getPath());
+            Assert.fail("Missing secret file accepted");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void Test_Response_RoundTrip() throws Exception {
+        String output = "WARNING | time_all=1.231\nsecond line \u00fc\n";
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        DaemonProtocol.writeResponse(os, new DaemonProtocol.Response(1, output));
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        int code = DaemonProtocol.readResponse(new ByteArrayInputStream(os.toByteArray()), copy);
+        Assert.assertEquals(1, code);
+        Assert.assertEquals(output, copy.toString(DaemonProtocol.ENCODING));
+    }
+
+    @Test
+    public void Test_Response_Unsupported() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        DaemonProtocol.writeResponse(os, DaemonProtocol.Response.unsupported(3, "The probe 'pamr' cannot be resident."));
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try {
+            DaemonProtocol.readResponse(new ByteArrayInputStream(os.toByteArray()), copy);
+            Assert.fail("Unsupported response read as a result");
+        } catch (DaemonProtocol.UnsupportedProbeException e) {
+            Assert.assertEquals("The probe 'pamr' cannot be resident.", e.getMessage());
+        }
+        Assert.assertEquals("Nothing copied", 0, copy.size());
+        Assert.assertTrue(DaemonProtocol.isResidentProbe("rm"));
+        Assert.assertFalse(DaemonProtocol.isResidentProbe("pamr"));
+        Assert.assertFalse(DaemonProtocol.isResidentProbe("unknown"));
+    }
+
+    @Test
+    public void Test_Response_RejectsMalformed() throws Exception {
+        try {
+            DaemonProtocol.readResponse(input("2"), new ByteArrayOutputStream());
+            Assert.fail("Incomplete response accepted");
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            DaemonProtocol.readResponse(input("OK\nOK | time_all=1\n"), new ByteArrayOutputStream());
+            Assert.fail("Response without exit code accepted");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void Test_ProbeClassNames() throws Exception {
+        Assert.assertEquals("org.ow2.proactive.nagios.probes.rm.RMProber", DaemonProtocol.getProbeClassName("rm"));
+        Assert.assertNull(DaemonProtocol.getProbeClassName("unknown"));
+        for (String probe : new String[] {"rm", "scheduler", "rest", "debugger", "pamr"}) {
+            Class.forName(DaemonProtocol.getProbeClassName(probe), false, getClass().getClassLoader());
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.common.DeadlineDispatcher;
+import org.ow2.proactive.nagios.common.DeadlineDispatcher.Call;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
+
+
+public class DeadlineDispatcherTest {
+
+    private static Callable<Thread> currentThread() {
+        return new Callable<Thread>() {
+            public Thread call() throws Exception {
+                return Thread.currentThread();
+            }
+        };
+    }
+
+    // Blocks until released, ignoring interruptions (like a remote call that does not come back).
+    private static Callable<Thread> hung(final CountDownLatch release) {
+        return new Callable<Thread>() {
+            public Thread call() throws Exception {
+                while (true) {
+                    try {
+                        release.await();
+                        return Thread.currentThread();
+                    } catch (InterruptedException e) {
+                        // Ignored.
+                    }
+                }
+            }
+        };
+    }
+
+    private static Callable<Object> append(final List<String> calls, final String name) {
+        return new Callable<Object>() {
+            public Object call() throws Exception {
+                calls.add(name);
+                return null;
+            }
+        };
+    }
+
+    private static Callable<Object> login(final AtomicInteger logins) {
+        return new Callable<Object>() {
+            public Object call() throws Exception {
+                logins.incrementAndGet();
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void Test_Deadline_CancelsCall_WithoutAbandoningLane() throws Exception {
+        DeadlineDispatcher dispatcher = new DeadlineDispatcher("test");
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            dispatcher.call(100, "sleep", new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return null;
+                }
+            });
+            Assert.fail("Deadline not reached");
+        } catch (TimeoutException e) {
+            // Expected.
+        }
+        Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, dispatcher.getCancelledCalls());
+        Assert.assertEquals(0, dispatcher.getAbandonedCalls());
+        Assert.assertNotNull(dispatcher.call(1000, "next", currentThread()));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void Test_SubmitFirst_JumpsQueue() throws Exception {
+        DeadlineDispatcher dispatcher = new DeadlineDispatcher("test");
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> calls = new Vector<String>();
+        Call<Thread> blocker = dispatcher.submit("blocker", hung(release));
+        Call<Object> a = dispatcher.submit("a", append(calls, "a"));
+        Call<Object> b = dispatcher.submit("b", append(calls, "b"));
+        Call<Object> disconnect = dispatcher.submitFirst("disconnect", append(calls, "disconnect"));
+        release.countDown();
+        dispatcher.await(blocker, 1000);
+        dispatcher.await(a, 1000);
+        dispatcher.await(b, 1000);
+        dispatcher.await(disconnect, 1000);
+        Assert.assertEquals("[disconnect, a, b]", calls.toString());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void Test_HungCall_AbandonsLane_AndLogsInAgainOnNewLane() throws Exception {
+        DeadlineDispatcher dispatcher = new DeadlineDispatcher("test");
+        AtomicInteger logins = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Thread first = dispatcher.call(1000, "init", currentThread());
+            dispatcher.setSessionOpener(login(logins));
+            Call<Thread> call = dispatcher.submit("hung", hung(release));
+            Call<Thread> waiting = dispatcher.submit("waiting", currentThread());
+            try {
+                dispatcher.await(call, 100);
+                Assert.fail("Deadline not reached");
+            } catch (TimeoutException e) {
+                // Expected.
+            }
+            Thread second = dispatcher.await(waiting, 1000);
+            Assert.assertNotSame(first, second);
+            Assert.assertEquals(1, logins.get());
+            Assert.assertEquals(1, dispatcher.getAbandonedCalls());
+        } finally {
+            release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void Test_CallCancelledBeforeStarting_DoesNotAbandonLane() throws Exception {
+        DeadlineDispatcher dispatcher = new DeadlineDispatcher("test");
+        AtomicInteger logins = new AtomicInteger();
+        dispatcher.setSessionOpener(login(logins));
+        CountDownLatch release = new CountDownLatch(1);
+        Call<Thread> blocker = dispatcher.submit("blocker", hung(release));
+        try {
+            dispatcher.call(100, "queued", currentThread());
+            Assert.fail("Deadline not reached");
+        } catch (TimeoutException e) {
+            // Expected.
+        }
+        Assert.assertEquals(1, dispatcher.getCancelledCalls());
+        Assert.assertEquals(0, dispatcher.getAbandonedCalls());
+        release.countDown();
+        Thread lane = dispatcher.await(blocker, 1000);
+        Assert.assertSame(lane, dispatcher.call(1000, "next", currentThread()));
+        Assert.assertEquals(0, logins.get());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void Test_HungDisconnection_AbandonsLane_WithoutLoggingInAgain() throws Exception {
+        DeadlineDispatcher dispatcher = new DeadlineDispatcher("test");
+        AtomicInteger logins = new AtomicInteger();
+        dispatcher.setSessionOpener(login(logins));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            try {
+                dispatcher.callFirst(100, "disconnect", hung(release));
+                Assert.fail("Deadline not reached");
+            } catch (TimeoutException e) {
+                // Expected.
+            }
+            Assert.assertEquals(1, dispatcher.getAbandonedCalls());
+            try {
+                dispatcher.call(1000, "next", currentThread());
+                Assert.fail("Call made without session");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            Assert.assertEquals(0, logins.get());
+        } finally {
+            release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void Test_HungCallAfterShutdown_AbandonsLane_WithoutLoggingInAgain() throws Exception {
+        DeadlineDispatcher dispatcher = new DeadlineDispatcher("test");
+        AtomicInteger logins = new AtomicInteger();
+        dispatcher.setSessionOpener(login(logins));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Call<Thread> call = dispatcher.submit("hung", hung(release));
+            dispatcher.shutdown();
+            try {
+                dispatcher.await(call, 100);
+                Assert.fail("Deadline not reached");
+            } catch (TimeoutException e) {
+                // Expected.
+            }
+            Assert.assertEquals(1, dispatcher.getAbandonedCalls());
+            Thread.sleep(100);
+            Assert.assertEquals(0, logins.get());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void Test_Counters_AddedAsReferences() throws Exception {
+        DeadlineDispatcher dispatcher = new DeadlineDispatcher("test");
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> calls = new Vector<String>();
+        Call<Thread> blocker = dispatcher.submit("blocker", hung(release));
+        Call<Object> a = dispatcher.submit("a", append(calls, "a"));
+        Call<Object> b = dispatcher.submit("b", append(calls, "b"));
+        Assert.assertEquals(3, dispatcher.getQueueDepth());
+        release.countDown();
+        dispatcher.await(blocker, 1000);
+        dispatcher.await(a, 1000);
+        dispatcher.await(b, 1000);
+        Assert.assertEquals(3, dispatcher.getMaxQueueDepth());
+        try {
+            dispatcher.call(50, "sleep", new Callable<Object>() {
+                public Object call() throws Exception {
+                    Thread.sleep(10000);
+                    return null;
+                }
+            });
+            Assert.fail("Deadline not reached");
+        } catch (TimeoutException e) {
+            // Expected.
+        }
+
+        TimedStatusTracer tracer = new TimedStatusTracer();
+        dispatcher.addReferences(tracer);
+        Assert.assertEquals(3.0, tracer.getReference("calls_queue_max"), 0.0);
+        Assert.assertEquals(1.0, tracer.getReference("calls_cancelled"), 0.0);
+        Assert.assertEquals(0.0, tracer.getReference("calls_abandoned"), 0.0);
+        dispatcher.shutdown();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import org.ow2.proactive.nagios.history.ProbeRecord;
+import org.ow2.proactive.nagios.history.ProbeRecordCodec;
+
+/**
+ * Benchmark comparing the binary codec of the history records with Java serialization 
+ * (the way history was stored before). It is not a unit test (not run by the 'test' target), run it with:
+ *   java -cp ... org.ow2.proactive.nagios.tests.HistoryCodecBenchmark [ITERATIONS]
+ * It reports the cost of the first encoding/decoding (cold, as in a probe execution), 
+ * the average cost after warm-up, and the size of each record. */
+public class HistoryCodecBenchmark {
+
+    /** Same content as a ProbeRecord, stored with Java serialization. */
+    static class SerializedRecord implements Serializable {
+        private static final long serialVersionUID = 1L;
+        long timestamp;
+        int exitCode;
+        String[] phaseNames;
+        long[] phaseNanos;
+        int nodesFree;
+        int nodesObtained;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : 200000);
+        ProbeRecord record = createRecord();
+        SerializedRecord serialized = toSerialized(record);
+
+        // Cold runs first (class loading, first execution), as a probe execution does.
+        long t = System.nanoTime();
+        runCodec(record, 1);
+        long codecCold = System.nanoTime() - t;
+        t = System.nanoTime();
+        int serializedSize = runSerialization(serialized, 1);
+        long serializationCold = System.nanoTime() - t;
+
+        runCodec(record, iterations);                       // Warm-up.
+        runSerialization(serialized, iterations / 10);
+        
+        t = System.nanoTime();
+        runCodec(record, iterations);
+        double codecAvg = (System.nanoTime() - t) / (double) iterations;
+        t = System.nanoTime();
+        runSerialization(serialized, iterations / 10);
+        double serializationAvg = (System.nanoTime() - t) / (double) (iterations / 10);
+
+        System.out.println(String.format(Locale.ENGLISH, "%-14s %12s %14s %8s", "", "cold (us)", "avg (ns/op)", "bytes"));
+        System.out.println(String.format(Locale.ENGLISH, "%-14s %12.1f %14.1f %8d", "codec", codecCold / 1000.0, codecAvg, ProbeRecordCodec.RECORD_SIZE));
+        System.out.println(String.format(Locale.ENGLISH, "%-14s %12.1f %14.1f %8d", "serialization", serializationCold / 1000.0, serializationAvg, serializedSize));
+        System.out.println("(one op = encoding + decoding of one record)");
+    }
+
+    private static ProbeRecord createRecord() {
+        ProbeRecord record = new ProbeRecord();
+        record.setTimestamp(System.currentTimeMillis());
+        record.setExitCode(0);
+        String[] phases = {"time_all", "time_initializing", "time_connection", "time_submission", 
+                "time_execution", "time_output_retrieval", "time_removal", "time_disconn"};
+        for (int i = 0; i < phases.length; i++) {
+            record.addPhase(phases[i], 1000000L * (i + 1));
+        }
+        record.setNodesFree(12);
+        record.setNodesObtained(1);
+        return record;
+    }
+
+    private static SerializedRecord toSerialized(ProbeRecord record) {
+        SerializedRecord ret = new SerializedRecord();
+        ret.timestamp = record.getTimestamp();
+        ret.exitCode = record.getExitCode();
+        ret.phaseNames = new String[record.getPhaseCount()];
+        ret.phaseNanos = new long[record.getPhaseCount()];
+        for (int i = 0; i < record.getPhaseCount(); i++) {
+            ret.phaseNames[i] = record.getPhaseName(i);
+            ret.phaseNanos[i] = record.getPhaseNanos(i);
+        }
+        ret.nodesFree = record.getNodesFree();
+        ret.nodesObtained = record.getNodesObtained();
+        return ret;
+    }
+
+    private static void runCodec(ProbeRecord record, int iterations) {
+        ProbeRecordCodec codec = new ProbeRecordCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(ProbeRecordCodec.RECORD_SIZE);
+        ProbeRecord decoded = new ProbeRecord();
+        long check = 0;
+        for (int i = 0; i < iterations; i++) {
+            buffer.clear();
+            codec.encode(record, buffer);
+            buffer.flip();
+            decoded = codec.decode(buffer, decoded);
+            check += decoded.getPhaseNanos(1);
+        }
+        if (check != 2000000L * iterations) {
+            throw new IllegalStateException("Unexpected decoded content");
+        }
+    }
+
+    private static int runSerialization(SerializedRecord record, int iterations) throws Exception {
+        int size = 0;
+        long check = 0;
+        for (int i = 0; i < iterations; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(record);
+            out.close();
+            size = bytes.size();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            SerializedRecord decoded = (SerializedRecord) in.readObject();
+            in.close();
+            check += decoded.phaseNanos[1];
+        }
+        if (check != 2000000L * iterations) {
+            throw new IllegalStateException("Unexpected decoded content");
+        }
+        return size;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.nagios.exceptions.InvalidFileContentException;
+import org.ow2.proactive.nagios.history.HistoryDataManager;
+import org.ow2.proactive.nagios.history.ProbeRecord;
+import org.ow2.proactive.nagios.history.ProbeRecordCodec;
+
+
+public class HistoryDataManagerTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("history", ".dat");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        file.delete();
+    }
+
+    private HistoryDataManager<ProbeRecord> open(int capacity) throws Exception {
+        return new HistoryDataManager<ProbeRecord>(file.getPath(), new ProbeRecordCodec(), capacity);
+    }
+
+    private static void append(HistoryDataManager<ProbeRecord> history, int from, int to) {
+        ProbeRecord r = new ProbeRecord();
+        for (int i = from; i < to; i++) {
+            r.clear();
+            r.setTimestamp(i);
+            r.addPhase("time_all", i * 1000L);
+            history.append(r);
+        }
+    }
+
+    private static List<Long> readLast(HistoryDataManager<ProbeRecord> history, int k) {
+        final List<Long> timestamps = new ArrayList<Long>();
+        int read = history.readLast(k, new HistoryDataManager.RecordVisitor<ProbeRecord>() {
+            public void visit(ProbeRecord record) {
+                timestamps.add(record.getTimestamp());
+            }
+        }, new ProbeRecord());
+        Assert.assertEquals(timestamps.size(), read);
+        return timestamps;
+    }
+
+    @Test
+    public void Test_Empty_History() throws Exception {
+        HistoryDataManager<ProbeRecord> history = open(3);
+        try {
+            Assert.assertEquals(0, history.getCount());
+            Assert.assertNull(history.get(null));
+            Assert.assertTrue(readLast(history, 10).isEmpty());
+        } finally {
+            history.release();
+        }
+    }
+
+    @Test
+    public void Test_Ring_WrapsAround() throws Exception {
+        HistoryDataManager<ProbeRecord> history = open(3);
+        try {
+            append(history, 0, 2);
+            Assert.assertEquals(2, history.getCount());
+            Assert.assertEquals(Arrays.asList(0L, 1L), readLast(history, 10));
+
+            append(history, 2, 5);
+            Assert.assertEquals("Overwritten records counted", 5, history.getCount());
+            Assert.assertEquals(Arrays.asList(2L, 3L, 4L), readLast(history, 10));
+            Assert.assertEquals(Arrays.asList(3L, 4L), readLast(history, 2));
+            Assert.assertEquals(4L, history.get(null).getTimestamp());
+            Assert.assertEquals(4000L, history.get(null).getPhaseNanos("time_all"));
+        } finally {
+            history.release();
+        }
+    }
+
+    @Test
+    public void Test_Reopen_KeepsRecordsAndCapacity() throws Exception {
+        HistoryDataManager<ProbeRecord> history = open(3);
+        append(history, 0, 4);
+        history.release();
+
+        history = open(100);
+        try {
+            Assert.assertEquals("Capacity read from the file", 3, history.getCapacity());
+            Assert.assertEquals(4, history.getCount());
+            Assert.assertEquals(Arrays.asList(1L, 2L, 3L), readLast(history, 10));
+            append(history, 4, 5);
+            Assert.assertEquals(Arrays.asList(2L, 3L, 4L), readLast(history, 10));
+        } finally {
+            history.release();
+        }
+    }
+
+    @Test
+    public void Test_CorruptedRecord_IsSkipped() throws Exception {
+        HistoryDataManager<ProbeRecord> history = open(3);
+        append(history, 0, 5);                              // Slots hold records 3, 4, 2.
+        history.release();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long position = HistoryDataManager.HEADER_SIZE + 1L * new ProbeRecordCodec().getRecordSize() + 20;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x01);                            // Record 4 corrupted.
+        } finally {
+            raf.close();
+        }
+
+        history = open(3);
+        try {
+            Assert.assertEquals(Arrays.asList(2L, 3L), readLast(history, 10));
+            try {
+                history.get(null);
+                Assert.fail("Corrupted last record returned");
+            } catch (InvalidFileContentException e) {
+                // Expected.
+            }
+        } finally {
+            history.release();
+        }
+    }
+
+    @Test
+    public void Test_Open_RejectsOtherFiles() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(new byte[HistoryDataManager.HEADER_SIZE]);
+        } finally {
+            raf.close();
+        }
+        try {
+            open(3).release();
+            Assert.fail("File without header opened");
+        } catch (InvalidFileContentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.probes.scheduler.JobCompletionRegistry;
+
+
+public class JobCompletionRegistryTest {
+
+    private static final int JOBS = 1500;
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 1; i <= count; i++) {
+            ids.add(Integer.toString(i));
+        }
+        return ids;
+    }
+
+    @Test
+    public void Test_ClaimedJobs_AllEventsKept_WhenMoreThanThousandFinishBeforeWaiting() throws Exception {
+        JobCompletionRegistry registry = JobCompletionRegistry.create("test");
+        try {
+            List<String> ids = ids(JOBS);
+            registry.claimAll(ids);
+            for (String id : ids) {
+                registry.jobFinished(id, null);
+            }
+            for (String id : ids) {
+                try {
+                    Assert.assertTrue("job " + id, registry.claim(id).awaitFinished(0));
+                } finally {
+                    registry.forget(id);
+                }
+            }
+            Assert.assertEquals(0, registry.size());
+        } finally {
+            registry.release();
+        }
+    }
+
+    @Test
+    public void Test_ClaimedJobs_AllRemovalsKept_WhenMoreThanThousandRemovedBeforeWaiting() throws Exception {
+        JobCompletionRegistry registry = JobCompletionRegistry.create("test");
+        try {
+            List<String> ids = ids(JOBS);
+            registry.claimAll(ids);
+            for (String id : ids) {
+                registry.jobRemoved(id);
+            }
+            for (String id : ids) {
+                Assert.assertTrue("job " + id, registry.claim(id).awaitCleaned(0));
+                registry.forget(id);
+            }
+        } finally {
+            registry.release();
+        }
+    }
+
+    @Test
+    public void Test_UnclaimedJobs_OldestEventsForgotten_WhenMoreThanThousand() throws Exception {
+        JobCompletionRegistry registry = JobCompletionRegistry.create("test");
+        try {
+            for (String id : ids(JOBS)) {
+                registry.jobFinished(id, null);
+            }
+            Assert.assertEquals(1000, registry.size());
+            Assert.assertFalse(registry.claim("1").isFinished());
+            Assert.assertTrue(registry.claim(Integer.toString(JOBS)).isFinished());
+        } finally {
+            registry.release();
+        }
+    }
+}
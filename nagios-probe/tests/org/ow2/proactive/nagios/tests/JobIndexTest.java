@@ -0,0 +1,98 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.probes.scheduler.JobIndex;
+import org.ow2.proactive.scheduler.common.job.JobState;
+
+
+public class JobIndexTest {
+
+    @Test
+    public void Test_Save_KeepsJobsOfOtherProbes() throws Exception {
+        File file = File.createTempFile("jobindex", ".txt");
+        file.delete();
+        try {
+            // Two probes sharing the file (different keys, as two JVMs would).
+            JobIndex a = JobIndex.get("rmi://a-" + file.getName(), "user", file.getPath());
+            JobIndex b = JobIndex.get("rmi://b-" + file.getName(), "user", file.getPath());
+            a.seed(Collections.<JobState>emptyList());
+            a.add("1", "probe");
+            a.save();
+            b.add("2", "probe");
+            b.save();
+            a.add("3", "probe");
+            a.save();
+
+            JobIndex c = JobIndex.get("rmi://c-" + file.getName(), "user", file.getPath());
+            Assert.assertFalse("Seed kept", c.needsSeed());
+            Assert.assertEquals(Arrays.asList("1", "2", "3"), c.getIds("probe"));
+            Assert.assertEquals("Jobs of the other probe merged", Arrays.asList("1", "2", "3"), a.getIds("*"));
+
+            b.remove("1");
+            b.save();
+            a.add("4", "other");
+            a.save();
+            JobIndex d = JobIndex.get("rmi://d-" + file.getName(), "user", file.getPath());
+            Assert.assertEquals(Arrays.asList("2", "3"), d.getIds("probe"));
+            Assert.assertEquals(Arrays.asList("4"), d.getIds("other"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void Test_Save_ReplacesInvalidFile() throws Exception {
+        File file = File.createTempFile("jobindex", ".txt");
+        try {
+            JobIndex a = JobIndex.get("rmi://a-" + file.getName(), "user", file.getPath());
+            Assert.assertTrue(a.needsSeed());
+            a.seed(Collections.<JobState>emptyList());
+            a.add("7", "probe");
+            a.save();
+
+            JobIndex b = JobIndex.get("rmi://b-" + file.getName(), "user", file.getPath());
+            Assert.assertEquals(Arrays.asList("7"), b.getIds("*"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.probes.rest.JsonNumberExtractor;
+
+
+public class JsonNumberExtractorTest {
+
+    private static final String DOCUMENT =
+        "{\"x\":\"freeNodesNumber\",\"s\":\"a\\\"freeNodesNumber\\\":1\",\"freeNodesNumberX\":7," +
+        "\"o\":{\"freeNodesNumber\" : -12},\"freeNodesNumber\":99,\"\u00e9\":\"\u00fc\\\\\"," +
+        "\"totalNodesNumber\":3.5e2,\"totalAliveNodesNumber\":42}";
+
+    private static JsonNumberExtractor newExtractor() {
+        return new JsonNumberExtractor("freeNodesNumber", "totalNodesNumber", "totalAliveNodesNumber");
+    }
+
+    private static void assertValues(String message, JsonNumberExtractor extractor) {
+        Assert.assertTrue(message, extractor.isDone());
+        Assert.assertEquals(message, Double.valueOf(-12), extractor.getValue("freeNodesNumber"));
+        Assert.assertEquals(message, Double.valueOf(350), extractor.getValue("totalNodesNumber"));
+        Assert.assertEquals(message, Double.valueOf(42), extractor.getValue("totalAliveNodesNumber"));
+    }
+
+    @Test
+    public void Test_Bytes_SplitAnywhere() throws Exception {
+        byte[] bytes = DOCUMENT.getBytes("UTF-8");
+        for (int split = 0; split <= bytes.length; split++) {
+            JsonNumberExtractor extractor = newExtractor();
+            extractor.consume(bytes, 0, split);
+            extractor.consume(bytes, split, bytes.length - split);
+            extractor.finish();
+            assertValues("Split at " + split, extractor);
+        }
+    }
+
+    @Test
+    public void Test_Bytes_OneByOne() throws Exception {
+        byte[] bytes = ("  " + DOCUMENT + "  ").getBytes("UTF-8");
+        JsonNumberExtractor extractor = newExtractor();
+        for (int i = 0; i < bytes.length; i++) {
+            extractor.consume(bytes, i, 1);
+        }
+        extractor.finish();
+        assertValues("Byte by byte", extractor);
+    }
+
+    @Test
+    public void Test_Text_SplitAnywhere() throws Exception {
+        for (int split = 0; split <= DOCUMENT.length(); split++) {
+            JsonNumberExtractor extractor = newExtractor();
+            extractor.consume(DOCUMENT.substring(0, split));
+            extractor.consume(DOCUMENT.substring(split));
+            extractor.finish();
+            assertValues("Split at " + split, extractor);
+        }
+    }
+
+    @Test
+    public void Test_NumberEndingDocument_NeedsFinish() throws Exception {
+        JsonNumberExtractor extractor = new JsonNumberExtractor("freeNodesNumber");
+        extractor.consume("\"freeNodesNumber\":650");
+        Assert.assertFalse(extractor.isDone());
+        extractor.finish();
+        Assert.assertTrue(extractor.isDone());
+        Assert.assertEquals(Double.valueOf(650), extractor.getValue("freeNodesNumber"));
+    }
+
+    @Test
+    public void Test_NonNumericValue_IsSkipped() throws Exception {
+        JsonNumberExtractor extractor = new JsonNumberExtractor("freeNodesNumber", "totalNodesNumber");
+        extractor.consume("{\"freeNodesNumber\":\"650\",\"totalNodesNumber\":-,\"o\":{\"freeNodesNumber\":{}}," +
+            "\"freeNodesNumber\":3}");
+        extractor.finish();
+        Assert.assertFalse(extractor.isDone());
+        Assert.assertEquals(Double.valueOf(3), extractor.getValue("freeNodesNumber"));
+        Assert.assertNull(extractor.getValue("totalNodesNumber"));
+        Assert.assertNull("Not looked for", extractor.getValue("o"));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.ow2.proactive.nagios.probes.debugger.misc.JsonRestRMStatus;
+import org.ow2.proactive.nagios.probes.rest.JsonNumberExtractor;
+
+/**
+ * Benchmark comparing the streaming extraction of the numbers of nodes from the state of the RM REST API 
+ * (JsonNumberExtractor) with the regex matching done before (one regex compiled per field, over the whole 
+ * text of the state). It is not a unit test (not run by the 'test' target), run it with:
+ *   java -cp ... org.ow2.proactive.nagios.tests.JsonStateExtractionBenchmark [NODES]
+ * Synthetic states with NODES/100, NODES/10 and NODES nodes are used, with the numbers of nodes at the end 
+ * (worst case for both). The streaming extraction is measured over the bytes given in 8 KB chunks, as read 
+ * from the connection, so it does not need the state decoded into a String (nor kept whole in memory): the 
+ * regex is measured both over the String and including its decoding. */
+public class JsonStateExtractionBenchmark {
+
+    private static final String[] FIELDS = {JsonRestRMStatus.FREE, JsonRestRMStatus.ALIVE, JsonRestRMStatus.TOTAL};
+    private static final int CHUNK = 8192;
+
+    public static void main(String[] args) throws Exception {
+        int nodes = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+        System.out.println(String.format(Locale.ENGLISH, "%-10s %12s %16s %16s %16s", "nodes", "bytes", "regex (us/op)", "+decode (us/op)", "stream (us/op)"));
+        for (int n: new int[]{nodes / 100, nodes / 10, nodes}) {
+            String state = createState(n);
+            byte[] bytes = state.getBytes(Charset.forName("UTF-8"));
+            int iterations = Math.max(5, 20000000 / bytes.length);
+
+            runRegex(state, iterations);                    // Warm-up.
+            runDecodeAndRegex(bytes, iterations);
+            runStream(bytes, iterations);
+
+            long t = System.nanoTime();
+            runRegex(state, iterations);
+            double regexAvg = (System.nanoTime() - t) / (double) iterations;
+            t = System.nanoTime();
+            runDecodeAndRegex(bytes, iterations);
+            double decodeAvg = (System.nanoTime() - t) / (double) iterations;
+            t = System.nanoTime();
+            runStream(bytes, iterations);
+            double streamAvg = (System.nanoTime() - t) / (double) iterations;
+
+            System.out.println(String.format(Locale.ENGLISH, "%-10d %12d %16.1f %16.1f %16.1f", n, bytes.length, regexAvg / 1000.0, decodeAvg / 1000.0, streamAvg / 1000.0));
+        }
+        System.out.println("(one op = extraction of the free, alive and total numbers of nodes from one state; "
+                + "+decode also includes decoding the bytes read into a String, as needed by the regex)");
+    }
+
+    /** State of the RM with the given amount of nodes (with strings that look like fields, and escapes). */
+    private static String createState(int nodes) {
+        StringBuilder ret = new StringBuilder("{\"nodesEvents\":[");
+        for (int i = 0; i < nodes; i++) {
+            ret.append(i == 0 ? "" : ",")
+                .append("{\"nodeUrl\":\"pnp://node").append(i).append(".example.org:64738/Node").append(i)
+                .append("\",\"nodeSource\":\"Default\",\"nodeState\":\"").append(i % 3 == 0 ? "BUSY" : "FREE")
+                .append("\",\"nodeInfo\":\"freeNodesNumber: \\\"none\\\" \",\"timeStamp\":").append(1360000000000L + i)
+                .append(",\"nodeOwner\":\"admin\"}");
+        }
+        ret.append("],\"freeNodesNumber\":").append(nodes - nodes / 3)
+            .append(",\"totalAliveNodesNumber\":").append(nodes)
+            .append(",\"totalNodesNumber\":").append(nodes + 2).append("}");
+        return ret.toString();
+    }
+
+    private static void runRegex(String state, int iterations) {
+        long check = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (String field: FIELDS) {
+                Matcher m = Pattern.compile("\"" + field + "\":(\\d+)").matcher(state);
+                if (m.find()) {
+                    check += Integer.valueOf(m.group(1));
+                }
+            }
+        }
+        check(check, state, iterations);
+    }
+
+    private static void runDecodeAndRegex(byte[] bytes, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            runRegex(new String(bytes, Charset.forName("UTF-8")), 1);
+        }
+    }
+
+    private static void runStream(byte[] bytes, int iterations) {
+        long check = 0;
+        for (int i = 0; i < iterations; i++) {
+            JsonNumberExtractor extractor = new JsonNumberExtractor(FIELDS);
+            for (int off = 0; off < bytes.length && extractor.isDone() == false; off += CHUNK) {
+                extractor.consume(bytes, off, Math.min(CHUNK, bytes.length - off));
+            }
+            extractor.finish();
+            for (String field: FIELDS) {
+                check += extractor.getValue(field).longValue();
+            }
+        }
+        check(check, new String(bytes, Charset.forName("UTF-8")), iterations);
+    }
+
+    private static void check(long check, String state, int iterations) {
+        JsonNumberExtractor extractor = new JsonNumberExtractor(FIELDS);
+        extractor.consume(state);
+        extractor.finish();
+        long expected = 0;
+        for (String field: FIELDS) {
+            expected += extractor.getValue(field).longValue();
+        }
+        if (check != expected * iterations) {
+            throw new IllegalStateException("Unexpected extracted content");
+        }
+    }
+}
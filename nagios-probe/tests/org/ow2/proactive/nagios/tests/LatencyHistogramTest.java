@@ -0,0 +1,114 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.history.LatencyHistogram;
+import org.ow2.proactive.nagios.history.PhaseHistograms;
+import org.ow2.proactive.nagios.history.ProbeRecord;
+
+
+public class LatencyHistogramTest {
+
+    private static final double ERROR = (LatencyHistogram.GROWTH - 1) / 2;
+
+    private static void assertClose(String message, double expected, Double actual) {
+        Assert.assertNotNull(message, actual);
+        Assert.assertTrue(message + ": " + actual + " instead of " + expected,
+            Math.abs(actual - expected) <= expected * ERROR);
+    }
+
+    @Test
+    public void Test_Empty_HasNoPercentile() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        Assert.assertNull(h.getPercentile(50));
+        Assert.assertEquals(0, h.getCount());
+    }
+
+    @Test
+    public void Test_Percentiles_WithinBucketError() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 100; i >= 1; i--) {
+            h.record(i * 0.01);
+        }
+        Assert.assertEquals(100, h.getCount());
+        assertClose("p50", 0.50, h.getPercentile(50));
+        assertClose("p95", 0.95, h.getPercentile(95));
+        assertClose("p99", 0.99, h.getPercentile(99));
+        assertClose("p100", 1.00, h.getPercentile(100));
+        assertClose("Smallest rank", 0.01, h.getPercentile(0.1));
+    }
+
+    @Test
+    public void Test_Percentiles_WideRange() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0.002);
+        h.record(3600);
+        assertClose("Short", 0.002, h.getPercentile(50));
+        assertClose("Long", 3600, h.getPercentile(100));
+    }
+
+    @Test
+    public void Test_OutOfRange_Clamped() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        Assert.assertEquals(LatencyHistogram.MIN_SEC / 2, h.getPercentile(100), 0);
+        h.record(1e9);
+        Assert.assertTrue(h.getPercentile(100) < 1e9);
+    }
+
+    @Test
+    public void Test_PhaseHistograms_OnlyCompleteExecutions() throws Exception {
+        PhaseHistograms histograms = new PhaseHistograms();
+        ProbeRecord r = new ProbeRecord();
+        for (int i = 0; i < 3; i++) {
+            r.clear();
+            r.setExitCode(i);                           // The critical execution is not counted.
+            r.addPhase("time_connection", 500000000L);
+            r.addPhase("time_all", (i + 1) * 1000000000L);
+            histograms.visit(r);
+        }
+        Assert.assertEquals(2, histograms.get("time_all").getCount());
+        Assert.assertNull(histograms.get("time_missing"));
+        assertClose("time_all", 2, histograms.get("time_all").getPercentile(99));
+
+        String summary = histograms.getPercentilesSummary();
+        Assert.assertTrue(summary, summary.startsWith("time_connection_p50="));
+        Assert.assertTrue(summary, summary.contains(" time_all_p99="));
+        Assert.assertEquals(summary, 6, summary.split(" ").length);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.probes.scheduler.PollingBackoff;
+
+
+public class PollingBackoffTest {
+
+    @Test
+    public void Test_UnknownDuration_BacksOffUpToCeiling() throws Exception {
+        PollingBackoff backoff = new PollingBackoff(0);
+        long[] expected = {20, 40, 80, 160, 320, 640, 1280, 1500, 1500};
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals("Period " + i, expected[i], backoff.nextPeriod());
+        }
+    }
+
+    @Test
+    public void Test_KnownDuration_FirstPollNearTheEnd() throws Exception {
+        PollingBackoff backoff = new PollingBackoff(10000);
+        Assert.assertEquals("90% of the usual duration", 9000, backoff.nextPeriod());
+        Assert.assertEquals("Then fast polling", PollingBackoff.MIN_PERIOD_MS, backoff.nextPeriod());
+        Assert.assertEquals(2 * PollingBackoff.MIN_PERIOD_MS, backoff.nextPeriod());
+    }
+
+    @Test
+    public void Test_ShortKnownDuration_StartsWithFastPolling() throws Exception {
+        PollingBackoff backoff = new PollingBackoff(15);
+        Assert.assertEquals(PollingBackoff.MIN_PERIOD_MS, backoff.nextPeriod());
+        Assert.assertEquals(2 * PollingBackoff.MIN_PERIOD_MS, backoff.nextPeriod());
+    }
+
+    @Test
+    public void Test_Periods_NeverExceedCeiling() throws Exception {
+        PollingBackoff backoff = new PollingBackoff(0);
+        for (int i = 0; i < 100; i++) {
+            long period = backoff.nextPeriod();
+            Assert.assertTrue("Period " + period, period > 0 && period <= PollingBackoff.MAX_PERIOD_MS);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.history.ProbeRecord;
+import org.ow2.proactive.nagios.history.ProbeRecordCodec;
+
+
+public class ProbeRecordCodecTest {
+
+    private static ProbeRecord newRecord() {
+        ProbeRecord r = new ProbeRecord();
+        r.setTimestamp(1350000000000L);
+        r.setExitCode(1);
+        r.addPhase("time_all", 2500000000L);
+        r.addPhase("time_connection", 300000000L);
+        r.addPhase("time_getting_nodes", 1700000000L);
+        r.setNodesFree(12);
+        r.setNodesObtained(2);
+        return r;
+    }
+
+    private static ByteBuffer encode(ProbeRecordCodec codec, ProbeRecord record) {
+        ByteBuffer buffer = ByteBuffer.allocate(codec.getRecordSize());
+        codec.encode(record, buffer);
+        Assert.assertEquals("Whole record written", codec.getRecordSize(), buffer.position());
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void Test_RoundTrip_KeepsAllFields() throws Exception {
+        ProbeRecordCodec codec = new ProbeRecordCodec();
+        ProbeRecord r = codec.decode(encode(codec, newRecord()), null);
+        Assert.assertEquals(1350000000000L, r.getTimestamp());
+        Assert.assertEquals(1, r.getExitCode());
+        Assert.assertEquals(3, r.getPhaseCount());
+        Assert.assertEquals("time_connection", r.getPhaseName(1));
+        Assert.assertEquals(2500000000L, r.getPhaseNanos("time_all"));
+        Assert.assertEquals(1700000000L, r.getPhaseNanos("time_getting_nodes"));
+        Assert.assertEquals(-1, r.getPhaseNanos("time_missing"));
+        Assert.assertEquals(12, r.getNodesFree());
+        Assert.assertEquals(2, r.getNodesObtained());
+    }
+
+    @Test
+    public void Test_Decode_ReusesRecordAndNames() throws Exception {
+        ProbeRecordCodec codec = new ProbeRecordCodec();
+        ProbeRecord reuse = codec.decode(encode(codec, newRecord()), null);
+        String name = reuse.getPhaseName(2);
+
+        ProbeRecord other = new ProbeRecord();
+        other.addPhase("time_all", 5);
+        other.addPhase("time_connection", 6);
+        other.addPhase("time_getting_nodes", 7);
+        ProbeRecord r = codec.decode(encode(codec, other), reuse);
+        Assert.assertSame(reuse, r);
+        Assert.assertSame("Same name, same String", name, r.getPhaseName(2));
+        Assert.assertEquals(7, r.getPhaseNanos(2));
+        Assert.assertEquals("Node counts cleared", -1, r.getNodesFree());
+    }
+
+    @Test
+    public void Test_Decode_LongNamesAreTruncated() throws Exception {
+        ProbeRecordCodec codec = new ProbeRecordCodec();
+        ProbeRecord record = new ProbeRecord();
+        String longname = "time_a_phase_with_a_name_longer_than_the_limit";
+        record.addPhase(longname, 1);
+        ProbeRecord r = codec.decode(encode(codec, record), null);
+        Assert.assertEquals(longname.substring(0, ProbeRecordCodec.NAME_BYTES), r.getPhaseName(0));
+    }
+
+    @Test
+    public void Test_Decode_RejectsCorruptedRecord() throws Exception {
+        ProbeRecordCodec codec = new ProbeRecordCodec();
+        ByteBuffer buffer = encode(codec, newRecord());
+        buffer.put(20, (byte)(buffer.get(20) ^ 0x01));    // A bit of a phase duration flipped.
+        try {
+            codec.decode(buffer, null);
+            Assert.fail("Corrupted record decoded");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+        }
+    }
+
+    @Test
+    public void Test_Decode_RejectsEmptySlot() throws Exception {
+        ProbeRecordCodec codec = new ProbeRecordCodec();
+        try {
+            codec.decode(ByteBuffer.allocate(codec.getRecordSize()), null);
+            Assert.fail("Empty slot decoded");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("schema version"));
+        }
+    }
+
+    @Test
+    public void Test_Decode_IgnoresFieldsOfNewerSchemas() throws Exception {
+        ProbeRecordCodec codec = new ProbeRecordCodec();
+        ByteBuffer buffer = encode(codec, newRecord());
+        int length = buffer.getShort(2);
+        int end = 4 + length;
+        buffer.putShort(0, (short)(ProbeRecordCodec.SCHEMA_VERSION + 1));
+        buffer.putLong(end, 0x1234567890L);                // Field appended by a newer schema.
+        buffer.putShort(2, (short)(length + 8));
+        buffer.putInt(ProbeRecordCodec.RECORD_SIZE - 4, crc(buffer, end + 8));
+
+        ProbeRecord r = codec.decode(buffer, null);
+        Assert.assertEquals(3, r.getPhaseCount());
+        Assert.assertEquals(2, r.getNodesObtained());
+    }
+
+    @Test
+    public void Test_Decode_OlderPayloadKeepsDefaults() throws Exception {
+        ProbeRecordCodec codec = new ProbeRecordCodec();
+        ByteBuffer buffer = encode(codec, newRecord());
+        int length = buffer.getShort(2) - 8;                // Without the node counts.
+        buffer.putShort(2, (short)length);
+        buffer.putInt(ProbeRecordCodec.RECORD_SIZE - 4, crc(buffer, 4 + length));
+
+        ProbeRecord r = codec.decode(buffer, null);
+        Assert.assertEquals(2500000000L, r.getPhaseNanos("time_all"));
+        Assert.assertEquals(-1, r.getNodesFree());
+        Assert.assertEquals(-1, r.getNodesObtained());
+    }
+
+    private static int crc(ByteBuffer buffer, int end) {
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(buffer.array(), 0, end);
+        return (int)crc.getValue();
+    }
+}
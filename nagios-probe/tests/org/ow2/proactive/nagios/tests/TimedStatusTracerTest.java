@@ -0,0 +1,100 @@
+/*
+ *  
+ * ProActive Parallel Suite(TM): The Java(TM) library for
+ *    Parallel, Distributed, Multi-Core Computing for
+ *    Enterprise Grids & Clouds
+ *
+ * Copyright (C) 1997-2011 INRIA/University of
+ *                 Nice-Sophia Antipolis/ActiveEon
+ * Contact: proactive@ow2.org or contact@activeeon.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; version 3 of
+ * the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307
+ * USA
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ *
+ *  Initial developer(s):               The ProActive Team
+ *                        http://proactive.inria.fr/team_members.htm
+ *  Contributor(s):
+ *
+ *  * $$PROACTIVE_INITIAL_DEV$$
+ */
+
+package org.ow2.proactive.nagios.tests;
+
+import java.io.StringWriter;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ow2.proactive.nagios.common.NagiosReturnObject;
+import org.ow2.proactive.nagios.common.TimedStatusTracer;
+
+
+public class TimedStatusTracerTest {
+
+    @Test
+    public void Test_Summary_KeepsInsertionOrder() throws Exception {
+        TimedStatusTracer tracer = new TimedStatusTracer();
+        tracer.finishLastMeasurementAndStartNewOne("time_connection", "connecting...");
+        tracer.finishLastMeasurementAndStartNewOne("time_submission", "submitting...");
+        tracer.finishLastMeasurementAndStartNewOne("time_disconn", "disconnecting...");
+        tracer.finishLastMeasurement();
+        tracer.addNewReference("timeout_threshold", 60);
+
+        String summary = tracer.getMeasurementsSummary("time_all");
+        Assert.assertTrue(summary, summary.matches(
+                "time_all=\\d+\\.\\d{3} time_connection=\\d+\\.\\d{3} time_submission=\\d+\\.\\d{3} "
+                        + "time_disconn=\\d+\\.\\d{3} timeout_threshold=60\\.000 "));
+        Assert.assertEquals("disconnecting...", tracer.getLastStatusDescription());
+    }
+
+    @Test
+    public void Test_Measurement_UsesElapsedTime() throws Exception {
+        TimedStatusTracer tracer = new TimedStatusTracer();
+        tracer.finishLastMeasurementAndStartNewOne("time_sleep");
+        Thread.sleep(50);
+        tracer.finishLastMeasurement();
+        Assert.assertTrue("Total: " + tracer.getTotal(), tracer.getTotal() >= 0.045);
+
+        NagiosReturnObject ret = new NagiosReturnObject(0, "OK");
+        ret.addCurvesSection(tracer, null);
+        Assert.assertTrue(ret.getWholeFirstLineMessage(), ret.getWholeFirstLineMessage().startsWith("OK | time_sleep="));
+    }
+
+    @Test
+    public void Test_Spans_AreNestedAndExported() throws Exception {
+        final TimedStatusTracer tracer = new TimedStatusTracer();
+        tracer.finishLastMeasurementAndStartNewOne("time_removing_old_jobs");
+        Thread worker = new Thread("stub-thread") {
+            public void run() {
+                int span = tracer.startSpan("kill_and_remove 12");
+                tracer.finishSpan(tracer.startSpan("kill 12"));
+                tracer.finishSpan(span);
+                tracer.startSpan("wait_cleaned 12"); // Never finished (as in a timeout).
+            }
+        };
+        worker.start();
+        worker.join();
+
+        StringWriter trace = new StringWriter();
+        tracer.writeTraceEvents(trace);
+        String json = trace.toString();
+        Assert.assertTrue(json, json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        Assert.assertTrue(json, json.contains("\"name\":\"kill 12\",\"cat\":\"span\""));
+        Assert.assertTrue(json, json.contains("\"thread\":\"stub-thread\",\"parent\":\"kill_and_remove 12\"}"));
+        Assert.assertTrue(json, json.contains("\"parent\":\"time_removing_old_jobs\",\"unfinished\":true}"));
+        Assert.assertTrue(json, json.contains("{\"name\":\"thread_name\",\"ph\":\"M\""));
+    }
+}